@@ -22,8 +22,11 @@ import org.eclipse.core.runtime.Plugin;
 import org.eclipse.core.runtime.preferences.IEclipsePreferences;
 import org.eclipse.core.runtime.preferences.InstanceScope;
 import org.jetbrains.kotlin.core.compiler.daemon.EclipseKotlinCompilerDaemon;
+import org.jetbrains.kotlin.core.compiler.daemon.KotlinCompileDaemonClient;
 import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache;
 import org.jetbrains.kotlin.core.model.KotlinRefreshProjectListener;
+import org.jetbrains.kotlin.core.resolve.KotlinDependenciesModuleCache;
+import org.jetbrains.kotlin.core.resolve.KotlinSymbolIndexUpdater;
 import org.osgi.framework.BundleContext;
 
 public class Activator extends Plugin {
@@ -51,6 +54,12 @@ public class Activator extends Plugin {
 		        IResourceChangeEvent.PRE_CLOSE | IResourceChangeEvent.PRE_DELETE | IResourceChangeEvent.PRE_BUILD);
 		ResourcesPlugin.getWorkspace().addResourceChangeListener(KotlinRefreshProjectListener.INSTANCE,
 		        IResourceChangeEvent.PRE_REFRESH);
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(KotlinCompileDaemonClient.INSTANCE,
+		        IResourceChangeEvent.PRE_CLOSE | IResourceChangeEvent.PRE_DELETE);
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(KotlinSymbolIndexUpdater.INSTANCE,
+		        IResourceChangeEvent.POST_CHANGE);
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(KotlinDependenciesModuleCache.INSTANCE,
+		        IResourceChangeEvent.POST_CHANGE);
 		boolean startBuildDaemon = corePreferences.getBoolean(CorePreferences.BUILD_DAEMON, false);
 		boolean extDaemon = corePreferences.getBoolean(CorePreferences.EXTERNAL_DAEMON_PROCESS, false);
 		
@@ -62,6 +71,10 @@ public class Activator extends Plugin {
     public void stop(BundleContext bundleContext) throws Exception {
 	    ResourcesPlugin.getWorkspace().removeResourceChangeListener(KotlinAnalysisProjectCache.INSTANCE);
 	    ResourcesPlugin.getWorkspace().removeResourceChangeListener(KotlinRefreshProjectListener.INSTANCE);
+	    ResourcesPlugin.getWorkspace().removeResourceChangeListener(KotlinCompileDaemonClient.INSTANCE);
+	    ResourcesPlugin.getWorkspace().removeResourceChangeListener(KotlinSymbolIndexUpdater.INSTANCE);
+	    ResourcesPlugin.getWorkspace().removeResourceChangeListener(KotlinDependenciesModuleCache.INSTANCE);
+	    KotlinCompileDaemonClient.INSTANCE.shutdown();
 	    EclipseKotlinCompilerDaemon.INSTANCE.stop();
 		plugin = null;
 	}
@@ -18,7 +18,6 @@ package org.jetbrains.kotlin.core.asJava
 
 import org.eclipse.core.resources.IFile
 import org.eclipse.core.resources.IProject
-import org.eclipse.core.runtime.Path
 import org.jetbrains.kotlin.analyzer.AnalysisResult
 import org.jetbrains.kotlin.codegen.KotlinCodegenFacade
 import org.jetbrains.kotlin.codegen.state.GenerationState
@@ -26,8 +25,6 @@ import org.jetbrains.kotlin.config.CompilerConfiguration
 import org.jetbrains.kotlin.core.filesystem.KotlinLightClassManager
 import org.jetbrains.kotlin.core.model.KotlinEnvironment
 import org.jetbrains.kotlin.core.model.KotlinJavaManager
-import org.jetbrains.kotlin.fileClasses.NoResolveFileClassesProvider
-import org.jetbrains.kotlin.fileClasses.getFileClassInternalName
 import org.jetbrains.kotlin.psi.KtClassOrObject
 import org.jetbrains.kotlin.psi.KtFile
 import org.jetbrains.kotlin.psi.KtScript
@@ -36,10 +33,19 @@ object KotlinLightClassGeneration {
     fun updateLightClasses(project: IProject, affectedFiles: Set<IFile>) {
         if (!KotlinJavaManager.hasLinkedKotlinBinFolder(project)) return
         
-        KotlinLightClassManager.getInstance(project).computeLightClassesSources()
         KotlinLightClassManager.getInstance(project).updateLightClasses(affectedFiles)
     }
 
+    // Sources of light classes are collected again and all light class files are synchronized with them
+    fun resyncLightClasses(project: IProject) {
+        if (!KotlinJavaManager.hasLinkedKotlinBinFolder(project)) return
+        
+        with(KotlinLightClassManager.getInstance(project)) {
+            resetSources()
+            updateLightClasses(emptySet())
+        }
+    }
+    
     fun cleanLightClasses(project: IProject) {
         if (!KotlinJavaManager.hasLinkedKotlinBinFolder(project)) return
         KotlinLightClassManager.getInstance(project).cleanLightClasses()
@@ -48,8 +54,7 @@ object KotlinLightClassGeneration {
     fun buildLightClasses(
             analysisResult: AnalysisResult, 
             eclipseProject: IProject, 
-            jetFiles: List<KtFile>,
-            requestedClassName: String): GenerationState {
+            jetFiles: List<KtFile>): GenerationState {
         val state = GenerationState(
                 KotlinEnvironment.getEnvironment(eclipseProject).project,
                 LightClassBuilderFactory(),
@@ -60,15 +65,9 @@ object KotlinLightClassGeneration {
                 generateDeclaredClassFilter = object : GenerationState.GenerateClassFilter() {
                     override fun shouldAnnotateClass(processingClassOrObject: KtClassOrObject): Boolean = true
                     
-                    override fun shouldGenerateClass(processingClassOrObject: KtClassOrObject): Boolean {
-                        val internalName = KotlinLightClassManager.getInternalName(processingClassOrObject)
-                        return checkByInternalName(internalName, requestedClassName)
-                    }
+                    override fun shouldGenerateClass(processingClassOrObject: KtClassOrObject): Boolean = true
                     
-                    override fun shouldGeneratePackagePart(jetFile: KtFile): Boolean {
-                        val internalName = NoResolveFileClassesProvider.getFileClassInternalName(jetFile)
-                        return checkByInternalName(internalName, requestedClassName)
-                    }
+                    override fun shouldGeneratePackagePart(jetFile: KtFile): Boolean = true
                     
                     override fun shouldGenerateScript(script: KtScript): Boolean = false
                 })
@@ -77,19 +76,4 @@ object KotlinLightClassGeneration {
         
         return state
     }
-    
-    private fun checkByInternalName(internalName: String?, requestedClassFileName: String): Boolean {
-        if (internalName == null) return false
-        
-        val classFileName = Path(internalName).lastSegment()
-        val requestedInternalName = requestedClassFileName.dropLast(".class".length)
-        
-        if (requestedInternalName.startsWith(classFileName)) {
-            if (requestedInternalName.length == classFileName.length) return true
-            
-            if (requestedInternalName[classFileName.length] == '$') return true
-        }
-        
-        return false
-    }
 }
\ No newline at end of file
@@ -33,6 +33,7 @@ import org.eclipse.jdt.core.IClasspathEntry
 import org.eclipse.jdt.core.IJavaProject
 import org.eclipse.jdt.core.JavaCore
 import org.eclipse.jface.text.IDocument
+import org.eclipse.jface.text.IDocumentExtension4
 import org.jetbrains.kotlin.core.log.KotlinLogger
 import org.jetbrains.kotlin.core.model.KotlinLightVirtualFile
 import org.jetbrains.kotlin.core.model.KotlinNature
@@ -45,9 +46,15 @@ import org.jetbrains.kotlin.idea.KotlinLanguage
 import org.jetbrains.kotlin.psi.KtElement
 import org.jetbrains.kotlin.psi.KtFile
 import java.io.File
+import java.lang.ref.WeakReference
 import java.util.Collections
-import java.util.HashSet
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.Lock
+import java.util.concurrent.locks.ReentrantLock
+import java.util.concurrent.locks.ReentrantReadWriteLock
 import com.intellij.psi.PsiFile
 
 interface PsiFilesStorage {
@@ -55,37 +62,112 @@ interface PsiFilesStorage {
     
     fun getPsiFile(file: IFile, expectedSourceCode: String): KtFile
     
+    fun getCachedPsiFile(file: IFile): KtFile?
+    
     fun isApplicable(file: IFile): Boolean
     
     fun removeFile(file: IFile)
 }
 
+private class CommittedDocument(document: IDocument, val modificationStamp: Long, val ktFile: KtFile) {
+    private val documentReference = WeakReference(document)
+    
+    fun isUpToDate(document: IDocument, modificationStamp: Long, currentKtFile: KtFile): Boolean {
+        return documentReference.get() === document && 
+                this.modificationStamp == modificationStamp &&
+                ktFile === currentKtFile
+    }
+}
+
+data class LockContentionStatistics(val acquisitions: Long, val contendedAcquisitions: Long, val waitTimeNanos: Long) {
+    operator fun plus(other: LockContentionStatistics) = LockContentionStatistics(
+            acquisitions + other.acquisitions,
+            contendedAcquisitions + other.contendedAcquisitions,
+            waitTimeNanos + other.waitTimeNanos)
+}
+
+// Waits of the storage of project files: for a file parsed by another request, for changes of the file set
+// of a project and for the invalidation of all parsed files
+data class PsiStorageContentionStatistics(
+        val parsingWaits: LockContentionStatistics,
+        val projectLocks: LockContentionStatistics,
+        val invalidationLock: LockContentionStatistics) {
+    val total: LockContentionStatistics
+        get() = parsingWaits + projectLocks + invalidationLock
+}
+
+private class ContentionCounter {
+    private val acquisitions = AtomicLong()
+    private val contendedAcquisitions = AtomicLong()
+    private val waitTimeNanos = AtomicLong()
+    
+    fun acquired() {
+        acquisitions.incrementAndGet()
+    }
+    
+    fun waited(startNanos: Long) {
+        contendedAcquisitions.incrementAndGet()
+        waitTimeNanos.addAndGet(System.nanoTime() - startNanos)
+    }
+    
+    fun getStatistics() = LockContentionStatistics(acquisitions.get(), contendedAcquisitions.get(), waitTimeNanos.get())
+}
+
+private inline fun <T> Lock.withMeasuredLock(counter: ContentionCounter, action: () -> T): T {
+    counter.acquired()
+    if (!tryLock()) {
+        val start = System.nanoTime()
+        lock()
+        counter.waited(start)
+    }
+    
+    try {
+        return action()
+    } finally {
+        unlock()
+    }
+}
+
+// Parsed files are replaced only if they were not replaced concurrently, so that parsing does not need any lock
+private fun ConcurrentHashMap<IFile, KtFile>.replaceParsedFile(file: IFile, sourceCode: String, getPsiFile: () -> KtFile) {
+    while (true) {
+        val currentParsedFile = getPsiFile()
+        if (currentParsedFile.getText() == sourceCode) return
+        
+        val jetFile = KotlinPsiManager.parseText(sourceCode, file)!!
+        if (replace(file, currentParsedFile, jetFile)) {
+            KotlinPsiManager.incModificationStamp(file.project)
+            return
+        }
+    }
+}
+
 private class ScriptsFilesStorage : PsiFilesStorage {
     private val cachedKtFiles = ConcurrentHashMap<IFile, KtFile>()
     
     override fun getPsiFile(eclipseFile: IFile): KtFile {
         assert(isApplicable(eclipseFile)) { "$eclipseFile is not applicable for Kotlin scripts storage" }
         
-        return cachedKtFiles.getOrPut(eclipseFile) { KotlinPsiManager.parseFile(eclipseFile)!! }
+        cachedKtFiles[eclipseFile]?.let { return it }
+        
+        val parsedFile = KotlinPsiManager.parseFile(eclipseFile)!!
+        return cachedKtFiles.putIfAbsent(eclipseFile, parsedFile) ?: parsedFile
     }
 
-    @Synchronized
     override fun getPsiFile(file: IFile, expectedSourceCode: String): KtFile {
         val sourceCodeWithouCR = StringUtilRt.convertLineSeparators(expectedSourceCode)
-        
-        val currentParsedFile = getPsiFile(file)
-        if (currentParsedFile.getText() != sourceCodeWithouCR) {
-            val jetFile = KotlinPsiManager.parseText(sourceCodeWithouCR, file)!!
-            cachedKtFiles.put(file, jetFile)
-        }
+        cachedKtFiles.replaceParsedFile(file, sourceCodeWithouCR) { getPsiFile(file) }
         
         return getPsiFile(file)
     }
 
+    override fun getCachedPsiFile(file: IFile): KtFile? = cachedKtFiles[file]
+
     override fun isApplicable(file: IFile): Boolean = KotlinScriptEnvironment.isScript(file)
     
     override fun removeFile(file: IFile) {
         cachedKtFiles.remove(file)
+        KotlinPsiManager.incModificationStamp(file.project)
     }
 }
 
@@ -95,109 +177,126 @@ private class ProjectSourceFiles : PsiFilesStorage {
         fun isKotlinFile(file: IFile): Boolean = KotlinFileType.INSTANCE.getDefaultExtension() == file.fileExtension
     }
     
-    private val projectFiles = hashMapOf<IProject, HashSet<IFile>>()
-    private val cachedKtFiles = hashMapOf<IFile, KtFile>()
-    private val mapOperationLock = Any()
+    private class Parsing(val generation: Long, val task: FutureTask<KtFile?>)
+    
+    private val projectFiles = ConcurrentHashMap<IProject, MutableSet<IFile>>()
+    
+    // Guard changes of the file set of a project, parsing does not take them
+    private val projectLocks = ConcurrentHashMap<IProject, ReentrantLock>()
+    
+    private val cachedKtFiles = ConcurrentHashMap<IFile, KtFile>()
+    
+    // Requests for the same file which come while it is parsed wait for the first parsing
+    private val filesInParsing = ConcurrentHashMap<IFile, Parsing>()
+    
+    // Files parsed before the invalidation belong to the disposed environment, so they are not published after it
+    private val generation = AtomicLong()
+    private val invalidationLock = ReentrantReadWriteLock()
+    
+    private val parsingWaits = ContentionCounter()
+    private val projectLockWaits = ContentionCounter()
+    private val invalidationLockWaits = ContentionCounter()
     
     override fun getPsiFile(eclipseFile: IFile): KtFile {
-        synchronized (mapOperationLock) {
-            updateProjectPsiSourcesIfNeeded(eclipseFile.getProject())
-
-            assert(existsInProjectSources(eclipseFile), { "File(" + eclipseFile.getName() + ") does not contain in the psiFiles" })
-
-            return cachedKtFiles.getOrPut(eclipseFile) {
-                KotlinPsiManager.parseFile(eclipseFile) ?: throw IllegalStateException("Can't parse file $eclipseFile")
-            }
-        }
+        updateProjectPsiSourcesIfNeeded(eclipseFile.getProject())
+        
+        assert(existsInProjectSources(eclipseFile), { "File(" + eclipseFile.getName() + ") does not contain in the psiFiles" })
+        
+        return cachedKtFiles[eclipseFile] 
+                ?: parseFile(eclipseFile) 
+                ?: throw IllegalStateException("Can't parse file $eclipseFile")
     }
     
     override fun getPsiFile(file: IFile, expectedSourceCode: String): KtFile {
-        synchronized (mapOperationLock) {
-            updatePsiFile(file, expectedSourceCode)
-            return getPsiFile(file)
-        }
+        updatePsiFile(file, expectedSourceCode)
+        return getPsiFile(file)
     }
     
+    override fun getCachedPsiFile(file: IFile): KtFile? = cachedKtFiles[file]
+    
     override fun isApplicable(file: IFile): Boolean = existsInProjectSources(file)
 
     fun existsInProjectSources(file: IFile): Boolean {
-        synchronized (mapOperationLock) {
-            val project = file.getProject() ?: return false
-            
-            updateProjectPsiSourcesIfNeeded(project)
-            
-            val files = projectFiles[project]
-            return if (files != null) files.contains(file) else false
-        }
+        val project = file.getProject() ?: return false
+        
+        updateProjectPsiSourcesIfNeeded(project)
+        
+        return projectFiles[project]?.contains(file) ?: false
     }
     
-    fun containsProject(project: IProject): Boolean {
-        return synchronized (mapOperationLock) {
-            projectFiles.containsKey(project)
-        }
-    }
+    fun containsProject(project: IProject): Boolean = projectFiles.containsKey(project)
     
     fun getFilesByProject(project: IProject): Set<IFile> {
-        synchronized (mapOperationLock) {
-            updateProjectPsiSourcesIfNeeded(project)
-            
-            if (projectFiles.containsKey(project)) {
-                return Collections.unmodifiableSet(projectFiles[project])
-            }
-            
-            return emptySet()
-        }
+        updateProjectPsiSourcesIfNeeded(project)
+        
+        val files = projectFiles[project] ?: return emptySet()
+        return Collections.unmodifiableSet(files)
     }
     
+    // Files of the project are added and removed under the same lock as the whole set is replaced, so that nothing is lost
     fun addFile(file: IFile) {
-        synchronized (mapOperationLock) {
-            assert(KotlinNature.hasKotlinNature(file.getProject()),
-                    { "Project (" + file.getProject().getName() + ") does not have Kotlin nature" })
-            
-            assert(!existsInProjectSources(file), { "File(" + file.getName() + ") is already added" })
-            
+        assert(KotlinNature.hasKotlinNature(file.getProject()),
+                { "Project (" + file.getProject().getName() + ") does not have Kotlin nature" })
+        
+        assert(!existsInProjectSources(file), { "File(" + file.getName() + ") is already added" })
+        
+        withProjectLock(file.project) {
             projectFiles
-                    .getOrPut(file.project) { hashSetOf<IFile>() }
+                    .getOrPut(file.project) { ConcurrentHashMap.newKeySet<IFile>() }
                     .add(file)
         }
+        KotlinPsiManager.incModificationStamp(file.project)
     }
     
     override fun removeFile(file: IFile) {
-        synchronized (mapOperationLock) {
-            assert(existsInProjectSources(file), { "File(" + file.getName() + ") does not contain in the psiFiles" })
-            
+        assert(existsInProjectSources(file), { "File(" + file.getName() + ") does not contain in the psiFiles" })
+        
+        withProjectLock(file.project) {
             cachedKtFiles.remove(file)
             projectFiles.get(file.project)?.remove(file)
         }
+        KotlinPsiManager.incModificationStamp(file.project)
+    }
+    
+    fun dropParsedFile(file: IFile) {
+        if (cachedKtFiles.remove(file) != null) {
+            KotlinPsiManager.incModificationStamp(file.project)
+        }
     }
     
     fun addProject(project: IProject) {
-        synchronized (mapOperationLock) {
-            if (ProjectUtils.isAccessibleKotlinProject(project)) {
+        if (ProjectUtils.isAccessibleKotlinProject(project)) {
+            withProjectLock(project) {
                 addFilesToParse(JavaCore.create(project))
             }
         }
     }
     
     fun removeProject(project: IProject) {
-        synchronized (mapOperationLock) {
-            val files = getFilesByProject(project)
-            
-            projectFiles.remove(project)
-            for (file in files) {
-                cachedKtFiles.remove(file)
-            }
+        withProjectLock(project) {
+            val files = projectFiles.remove(project)
+            files?.forEach { cachedKtFiles.remove(it) }
         }
+        KotlinPsiManager.incModificationStamp(project)
     }
     
-    fun addFilesToParse(javaProject: IJavaProject) {
+    private inline fun <T> withProjectLock(project: IProject, action: () -> T): T {
+        return projectLocks.getOrPut(project) { ReentrantLock() }.withMeasuredLock(projectLockWaits, action)
+    }
+    
+    fun getContentionStatistics() = PsiStorageContentionStatistics(
+            parsingWaits.getStatistics(),
+            projectLockWaits.getStatistics(),
+            invalidationLockWaits.getStatistics())
+    
+    private fun addFilesToParse(javaProject: IJavaProject) {
+        // Files are published all together so that nobody sees partially collected project
+        val files = ConcurrentHashMap.newKeySet<IFile>()
         try {
-            projectFiles.put(javaProject.getProject(), HashSet<IFile>())
-            
             for (sourceFolder in javaProject.sourceFolders) {
                 sourceFolder.getResource().accept { resource ->
                     if (resource is IFile && isKotlinFile(resource)) {
-                        addFile(resource)
+                        files.add(resource)
                     }
                     
                     true
@@ -206,6 +305,25 @@ private class ProjectSourceFiles : PsiFilesStorage {
         } catch (e: CoreException) {
             KotlinLogger.logError(e)
         }
+        
+        projectFiles.put(javaProject.getProject(), files)
+        KotlinPsiManager.incModificationStamp(javaProject.getProject())
+    }
+    
+    // Recollects files of the project after its source folders were changed, files which are still sources stay parsed
+    fun refreshProject(project: IProject) {
+        withProjectLock(project) {
+            val previousFiles = projectFiles[project] ?: emptySet<IFile>()
+            if (ProjectUtils.isAccessibleKotlinProject(project)) {
+                addFilesToParse(JavaCore.create(project))
+            } else {
+                projectFiles.remove(project)
+            }
+            
+            val currentFiles = projectFiles[project] ?: emptySet<IFile>()
+            previousFiles.filter { it !in currentFiles }.forEach { cachedKtFiles.remove(it) }
+        }
+        KotlinPsiManager.incModificationStamp(project)
     }
     
     fun updateProjectPsiSourcesIfNeeded(project: IProject) {
@@ -214,7 +332,11 @@ private class ProjectSourceFiles : PsiFilesStorage {
         }
         
         if (ProjectUtils.isAccessibleKotlinProject(project)) {
-            updateProjectPsiSources(project, IResourceDelta.ADDED)
+            withProjectLock(project) {
+                if (!projectFiles.containsKey(project)) {
+                    addFilesToParse(JavaCore.create(project))
+                }
+            }
         }
     }
     
@@ -226,32 +348,101 @@ private class ProjectSourceFiles : PsiFilesStorage {
     }
     
     fun invalidateProjectSourceFiles() {
-        cachedKtFiles.clear()
+        invalidationLock.writeLock().withMeasuredLock(invalidationLockWaits) {
+            generation.incrementAndGet()
+            cachedKtFiles.clear()
+        }
+        projectFiles.keys.forEach { KotlinPsiManager.incModificationStamp(it) }
     }
     
-    private fun updatePsiFile(file: IFile, sourceCode: String) {
-        val sourceCodeWithouCR = StringUtilRt.convertLineSeparators(sourceCode)
-        
-        synchronized (mapOperationLock) {
-            assert(existsInProjectSources(file), { "File(" + file.getName() + ") does not contain in the psiFiles" })
+    private fun parseFile(file: IFile): KtFile? {
+        while (true) {
+            val parsing = Parsing(generation.get(), FutureTask<KtFile?> { KotlinPsiManager.parseFile(file) })
+            val currentParsing = filesInParsing.putIfAbsent(file, parsing) ?: parsing
             
-            val currentParsedFile = getPsiFile(file)
-            if (!currentParsedFile.getText().equals(sourceCodeWithouCR)) {
-                val jetFile = KotlinPsiManager.parseText(sourceCodeWithouCR, file)!!
-                cachedKtFiles.put(file, jetFile)
+            val parsedFile = try {
+                if (currentParsing === parsing) {
+                    parsing.task.run()
+                    parsing.task.getParsedFile() ?: return null
+                } else {
+                    waitForParsing(currentParsing.task) ?: return null
+                }
+            } finally {
+                if (currentParsing === parsing) {
+                    filesInParsing.remove(file, parsing)
+                }
             }
+            
+            // File could be updated from the document while it was parsed from disk
+            val cachedFile = invalidationLock.readLock().withMeasuredLock(invalidationLockWaits) {
+                if (generation.get() == currentParsing.generation) {
+                    cachedKtFiles.putIfAbsent(file, parsedFile) ?: parsedFile
+                } else {
+                    null
+                }
+            } ?: continue
+            
+            if (!existsInProjectSources(file)) {
+                cachedKtFiles.remove(file)
+            }
+            
+            return cachedFile
+        }
+    }
+    
+    private fun waitForParsing(task: FutureTask<KtFile?>): KtFile? {
+        parsingWaits.acquired()
+        if (task.isDone) return task.getParsedFile()
+        
+        val start = System.nanoTime()
+        try {
+            return task.getParsedFile()
+        } finally {
+            parsingWaits.waited(start)
         }
     }
+    
+    private fun FutureTask<KtFile?>.getParsedFile(): KtFile? {
+        return try {
+            get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+    
+    private fun updatePsiFile(file: IFile, sourceCode: String) {
+        val sourceCodeWithouCR = StringUtilRt.convertLineSeparators(sourceCode)
+        
+        assert(existsInProjectSources(file), { "File(" + file.getName() + ") does not contain in the psiFiles" })
+        
+        cachedKtFiles.replaceParsedFile(file, sourceCodeWithouCR) { getPsiFile(file) }
+    }
 }
 
 object KotlinPsiManager {
     private val projectSourceFiles = ProjectSourceFiles()
     private val scriptsFiles = ScriptsFilesStorage()
     
+    private val modificationStamps = ConcurrentHashMap<IProject, AtomicLong>()
+    
+    private val committedDocuments = ConcurrentHashMap<IFile, CommittedDocument>()
+    
+    // Incremented every time a parsed file of the project is replaced, added or removed
+    fun getModificationStamp(project: IProject): Long = modificationStamps[project]?.get() ?: 0
+    
+    internal fun incModificationStamp(project: IProject) {
+        modificationStamps.getOrPut(project) { AtomicLong() }.incrementAndGet()
+    }
+    
+    fun getLockContentionStatistics(): PsiStorageContentionStatistics = projectSourceFiles.getContentionStatistics()
+    
     fun getParsedFile(file: IFile): KtFile {
         return storage(file).getPsiFile(file)
     }
     
+    // Only parsed files of committed documents can differ from the files on disk
+    fun isCommitted(file: IFile): Boolean = committedDocuments.containsKey(file)
+    
     private fun isApplicable(file: IFile): Boolean {
         return applicableStorage(file)?.isApplicable(file) ?: false
     }
@@ -264,15 +455,21 @@ object KotlinPsiManager {
         }
     }
     
+    fun refreshProjectSourceFiles(project: IProject) {
+        projectSourceFiles.refreshProject(project)
+    }
+    
     fun invalidateCachedProjectSourceFiles() {
         projectSourceFiles.invalidateProjectSourceFiles()
     }
     
     fun removeFile(file: IFile) {
+        committedDocuments.remove(file)
         storage(file).removeFile(file)
     }
 
     fun removeProjectFromManager(project: IProject) {
+        committedDocuments.keys.removeAll { it.project == project }
         projectSourceFiles.updateProjectPsiSources(project, IResourceDelta.REMOVED)
     }
 
@@ -369,6 +566,45 @@ object KotlinPsiManager {
     fun getKotlinFileIfExist(file: IFile, sourceCode: String): KtFile? {
         return if (isApplicable(file)) getParsedFile(file, sourceCode) else null
     }
+    
+    // Document text is compared with the parsed file only if the document was modified after the last commit
+    @JvmStatic
+    fun getKotlinFileIfExist(file: IFile, document: IDocument): KtFile? {
+        if (!isApplicable(file)) return null
+        
+        getCommittedFileIfUpToDate(file, document)?.let { return it }
+        
+        val ktFile = getParsedFile(file, document.get())
+        
+        val modificationStamp = (document as? IDocumentExtension4)?.modificationStamp 
+                ?: IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP
+        if (modificationStamp != IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP) {
+            committedDocuments.put(file, CommittedDocument(document, modificationStamp, ktFile))
+        }
+        
+        return ktFile
+    }
+    
+    // Changes of a closed document which were not saved are dropped, so that the file is parsed from disk again
+    @JvmStatic
+    fun closeDocument(file: IFile, hasUnsavedChanges: Boolean) {
+        committedDocuments.remove(file) ?: return
+        if (hasUnsavedChanges && projectSourceFiles.existsInProjectSources(file)) {
+            projectSourceFiles.dropParsedFile(file)
+        }
+    }
+    
+    // Returns the file committed for the document only if the document was not modified after that, nothing is parsed
+    @JvmStatic
+    fun getCommittedFileIfUpToDate(file: IFile, document: IDocument): KtFile? {
+        val modificationStamp = (document as? IDocumentExtension4)?.modificationStamp ?: return null
+        if (modificationStamp == IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP) return null
+        
+        val committedDocument = committedDocuments[file] ?: return null
+        val currentKtFile = applicableStorage(file)?.getCachedPsiFile(file) ?: return null
+        
+        return if (committedDocument.isUpToDate(document, modificationStamp, currentKtFile)) currentKtFile else null
+    }
 
     @JvmStatic
     fun getEclipseFile(jetFile: KtFile): IFile? {
@@ -388,7 +624,7 @@ object KotlinPsiManager {
 
     @JvmStatic
     fun commitFile(file: IFile, document: IDocument) {
-        getKotlinFileIfExist(file, document.get())
+        getKotlinFileIfExist(file, document)
     }
 	
 }
\ No newline at end of file
@@ -34,23 +34,17 @@ import org.jetbrains.kotlin.core.compiler.daemon.EclipseCompilationResults;
 import org.jetbrains.kotlin.core.compiler.daemon.EclipseCompilerServicesFacadeImpl;
 import org.jetbrains.kotlin.core.compiler.daemon.EclipseIncrementalCompilerServicesFacadeImpl;
 import org.jetbrains.kotlin.core.compiler.daemon.KnownChangedFiles;
+import org.jetbrains.kotlin.core.compiler.daemon.KotlinCompileDaemonClient;
 import org.jetbrains.kotlin.core.launch.CompilerOutputData;
 import org.jetbrains.kotlin.core.log.KotlinLogger;
 import org.jetbrains.kotlin.core.model.KotlinEnvironmentKt;
 import org.jetbrains.kotlin.core.utils.ProjectUtils;
-import org.jetbrains.kotlin.daemon.client.DaemonReportMessage;
-import org.jetbrains.kotlin.daemon.client.DaemonReportingTargets;
-import org.jetbrains.kotlin.daemon.client.KotlinCompilerClient;
 import org.jetbrains.kotlin.daemon.common.CompilationOptions;
+import org.jetbrains.kotlin.daemon.common.CompilationResults;
 import org.jetbrains.kotlin.daemon.common.CompilationResultCategory;
 import org.jetbrains.kotlin.daemon.common.CompileService;
-import org.jetbrains.kotlin.daemon.common.CompileService.CallResult;
-import org.jetbrains.kotlin.daemon.common.CompilerId;
 import org.jetbrains.kotlin.daemon.common.CompilerMode;
 import org.jetbrains.kotlin.daemon.common.CompilerServicesFacadeBase;
-import org.jetbrains.kotlin.daemon.common.DaemonJVMOptions;
-import org.jetbrains.kotlin.daemon.common.DaemonOptions;
-import org.jetbrains.kotlin.daemon.common.DaemonParamsKt;
 import org.jetbrains.kotlin.daemon.common.IncrementalCompilationOptions;
 import org.jetbrains.kotlin.daemon.common.NetworkUtilsKt;
 import org.jetbrains.kotlin.daemon.common.ReportCategory;
@@ -86,53 +80,47 @@ public class KotlinCompiler {
     private KotlinCompilerResult compileWithDaemon(IJavaProject javaProject, KotlinCompilerArguments arguments, K2JVMCompilerArguments commandLineArguments) {
         EclipseMessageCollector messageCollector = new EclipseMessageCollector();
         CompilerServicesFacadeBase compilerServices = arguments.isIncremental() ? new EclipseIncrementalCompilerServicesFacadeImpl(messageCollector, null, NetworkUtilsKt.getSOCKET_ANY_FREE_PORT()) : new EclipseCompilerServicesFacadeImpl(messageCollector, null, NetworkUtilsKt.getSOCKET_ANY_FREE_PORT());
-        CompileService connection = null;
-                try {
-                    connection = getDaemonConnectionEclipse(messageCollector, compilerServices);
-                }
-                catch (Throwable e) {
-                    KotlinLogger.logError("Caught an exception trying to connect to Kotlin Daemon", e);
-                    return KotlinCompilerResult.EMPTY;
-                }
-                
-        if (connection == null) {
-            KotlinLogger.logWarning("Could not connect to Kotlin compile daemon");
-            return new KotlinCompilerResult(ExitCode.INTERNAL_ERROR, new CompilerOutputData());
+        String[] argsArray = ArgumentUtils.convertArgumentsToStringList(commandLineArguments).toArray(new String[] {});
+        
+        CompilationOptions compilationOptions;
+        CompilationResults compilationResults;
+        if (arguments.isIncremental()) {
+            compilationOptions = incrementalCompilationOptions(arguments.getChangedFiles(), arguments.getCachesDir());
+            compilationResults = new EclipseCompilationResults();
+        } else {
+            compilationOptions = nonIncrementalCompilationOptions();
+            compilationResults = null;
         }
-             
-        //TODO: kde vzit?
-        int sessionId=1;
+        
+        Integer result;
         try {
-            if (arguments.isIncremental()) {
-                return incrementalCompilationWithDaemon(sessionId, arguments.getChangedFiles(), connection, commandLineArguments, compilerServices, arguments.getCachesDir(), messageCollector);
-            } else {
-                return nonIncrementalCompilationWithDaemon(sessionId, connection, commandLineArguments, compilerServices, messageCollector);
-            }    
+            result = KotlinCompileDaemonClient.INSTANCE.compile(javaProject.getProject(), argsArray, compilationOptions,
+                    compilerServices, compilationResults, messageCollector);
         } catch(Exception e) {
             KotlinLogger.logError("Caught an exception trying to compile using daemon", e);
             return KotlinCompilerResult.EMPTY;
         }
+        
+        if (result == null) {
+            KotlinLogger.logWarning("Could not connect to Kotlin compile daemon");
+            return new KotlinCompilerResult(ExitCode.INTERNAL_ERROR, new CompilerOutputData());
+        }
+        
+        return new KotlinCompilerResult(ExitCode.values()[result], messageCollector.getCompilerOutput());
     }
     
-    private KotlinCompilerResult nonIncrementalCompilationWithDaemon(int sessionId, CompileService connection,
-            K2JVMCompilerArguments commandLineArguments, CompilerServicesFacadeBase compilerServices, EclipseMessageCollector messageCollector) throws Exception {
-        String[] argsArray = ArgumentUtils.convertArgumentsToStringList(commandLineArguments).toArray(new String[] {});
-        CompilationOptions compilationOptions = new CompilationOptions(
+    private CompilationOptions nonIncrementalCompilationOptions() {
+        return new CompilationOptions(
                 CompilerMode.NON_INCREMENTAL_COMPILER,
                 CompileService.TargetPlatform.JVM,
                 reportCategories(true),
                 reportSeverity(true),
                 new Integer[] {});
-        CallResult<Integer> compile = connection.compile(sessionId, argsArray, compilationOptions, compilerServices, null);
-        Integer result = compile.get();
-        return new KotlinCompilerResult(ExitCode.values()[result], messageCollector.getCompilerOutput());
     }
     
-    private KotlinCompilerResult incrementalCompilationWithDaemon(int sessionId, KnownChangedFiles changedFiles, CompileService connection,
-            K2JVMCompilerArguments commandLineArguments, CompilerServicesFacadeBase compilerServices, File cachesDir, EclipseMessageCollector messageCollector) throws Exception {
-        String[] argsArray = ArgumentUtils.convertArgumentsToStringList(commandLineArguments).toArray(new String[] {});
+    private CompilationOptions incrementalCompilationOptions(KnownChangedFiles changedFiles, File cachesDir) {
         File kotlinClassesDir = new File(cachesDir, "classes");
-        IncrementalCompilationOptions compilationOptions = new IncrementalCompilationOptions(
+        return new IncrementalCompilationOptions(
                 changedFiles != null,
                 changedFiles != null ? changedFiles.getModifiedFiles() : null,
                 changedFiles != null ? changedFiles.getDeletedFiles() : null,
@@ -145,26 +133,6 @@ public class KotlinCompiler {
                 reportSeverity(true),
                 new Integer[] { CompilationResultCategory.IC_COMPILE_ITERATION.getCode() }
                 );
-        CallResult<Integer> compile = connection.compile(sessionId, argsArray, compilationOptions, compilerServices, new EclipseCompilationResults());
-        Integer result = compile.get();
-        return new KotlinCompilerResult(ExitCode.values()[result], messageCollector.getCompilerOutput());
-    }
-    
-    private CompileService getDaemonConnectionEclipse(MessageCollector messageCollector, CompilerServicesFacadeBase compilerServices) {
-        CompilerId compilerId = CompilerId.makeCompilerId();
-        DaemonJVMOptions daemonJVMOptions = DaemonParamsKt.configureDaemonJVMOptions(new String[] {}, true, false, true);
-
-        List<DaemonReportMessage> daemonReportMessages = new ArrayList<DaemonReportMessage>();
-        DaemonReportingTargets daemonReportingTargets = new DaemonReportingTargets(System.out, daemonReportMessages, messageCollector, compilerServices);                        
-        DaemonOptions daemonOptions = new DaemonOptions();
-        
-        CompileService compileService = KotlinCompilerClient.INSTANCE.connectToCompileService(compilerId,
-                daemonJVMOptions,
-                daemonOptions,
-                daemonReportingTargets,
-                true,
-                true);
-        return compileService;
     }
     
     private KotlinCompilerResult runIncrementalCompiler(IJavaProject javaProject, File cachesDir, K2JVMCompilerArguments commandLineArguments) throws CoreException {
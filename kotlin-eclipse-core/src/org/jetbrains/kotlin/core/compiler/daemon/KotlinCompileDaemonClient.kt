@@ -0,0 +1,213 @@
+package org.jetbrains.kotlin.core.compiler.daemon
+
+import org.eclipse.core.resources.IProject
+import org.eclipse.core.resources.IResourceChangeEvent
+import org.eclipse.core.resources.IResourceChangeListener
+import org.eclipse.core.runtime.Status
+import org.eclipse.core.runtime.jobs.Job
+import org.jetbrains.kotlin.cli.common.messages.MessageCollector
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.core.model.runJob
+import org.jetbrains.kotlin.daemon.client.DaemonReportMessage
+import org.jetbrains.kotlin.daemon.client.DaemonReportingTargets
+import org.jetbrains.kotlin.daemon.client.KotlinCompilerClient
+import org.jetbrains.kotlin.daemon.common.CompilationOptions
+import org.jetbrains.kotlin.daemon.common.CompilationResults
+import org.jetbrains.kotlin.daemon.common.CompileService
+import org.jetbrains.kotlin.daemon.common.CompileService.CallResult
+import org.jetbrains.kotlin.daemon.common.CompilerId
+import org.jetbrains.kotlin.daemon.common.CompilerServicesFacadeBase
+import org.jetbrains.kotlin.daemon.common.DaemonOptions
+import org.jetbrains.kotlin.daemon.common.configureDaemonJVMOptions
+import java.io.File
+import java.rmi.RemoteException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+data class DaemonCompilationTimings(val connectionMillis: Long, val compilationMillis: Long, val reconnected: Boolean)
+
+// Keeps one connection to the compile daemon for the workspace and a leased compile session for every project,
+// so that repeated builds reuse the daemon instead of connecting to it each time
+object KotlinCompileDaemonClient : IResourceChangeListener {
+    private const val CONNECTION_ATTEMPTS = 2
+
+    @Volatile
+    private var connection: CompileService? = null
+
+    // Serializes connecting to the daemon, which can start a new daemon process and block for seconds
+    private val connectionLock = Any()
+
+    // Guarded by itself, never held during remote calls
+    private val sessions = hashMapOf<IProject, Int>()
+
+    private val lastTimings = ConcurrentHashMap<IProject, DaemonCompilationTimings>()
+
+    // Daemon releases sessions of this client when the file is deleted on exit
+    private val aliveFlagFile: File by lazy {
+        File.createTempFile("kotlin-eclipse-client", ".alive").apply { deleteOnExit() }
+    }
+
+    // Returns exit code of the compiler or null if there is no connection to the daemon
+    fun compile(
+            project: IProject,
+            arguments: Array<String>,
+            compilationOptions: CompilationOptions,
+            compilerServices: CompilerServicesFacadeBase,
+            compilationResults: CompilationResults?,
+            messageCollector: MessageCollector): Int? {
+        val connectionStart = System.nanoTime()
+
+        for (attempt in 1..CONNECTION_ATTEMPTS) {
+            val service = getOrConnect(messageCollector, compilerServices) ?: return null
+            // Session cannot be leased from a daemon that is shutting down, the next attempt reconnects
+            val sessionId = leaseSession(project, service) ?: continue
+
+            try {
+                val compilationStart = System.nanoTime()
+                val result = service.compile(sessionId, arguments, compilationOptions, compilerServices, compilationResults)
+                when (result) {
+                    is CallResult.Good -> {
+                        val compilationEnd = System.nanoTime()
+                        val timings = DaemonCompilationTimings(
+                                TimeUnit.NANOSECONDS.toMillis(compilationStart - connectionStart),
+                                TimeUnit.NANOSECONDS.toMillis(compilationEnd - compilationStart),
+                                attempt > 1)
+                        lastTimings[project] = timings
+                        KotlinLogger.logInfo("Project ${project.name} was compiled by Kotlin compile daemon in " +
+                                "${timings.compilationMillis} ms (connection took ${timings.connectionMillis} ms)")
+
+                        return result.result
+                    }
+                    is CallResult.Dying -> {
+                        // Daemon is shutting down after idling, so the next attempt starts or finds another one
+                        KotlinLogger.logWarning("Kotlin compile daemon is shutting down, reconnecting")
+                        dropConnection(service)
+                    }
+                    is CallResult.Error -> {
+                        if (!isSessionError(result)) {
+                            KotlinLogger.logError("Kotlin compile daemon failed to compile ${project.name}: ${result.message}", null)
+                            return null
+                        }
+                        
+                        // Session expired or was released by the daemon, so a new one is leased
+                        KotlinLogger.logWarning("Kotlin compile daemon rejected session of ${project.name}: ${result.message}")
+                        dropSession(project, sessionId)
+                    }
+                    else -> {
+                        KotlinLogger.logError("Unexpected result of Kotlin compile daemon: $result", null)
+                        return null
+                    }
+                }
+            } catch (e: RemoteException) {
+                // Daemon could be shut down since the previous build, so the connection is created again
+                KotlinLogger.logWarning("Connection to Kotlin compile daemon was lost: ${e.message}")
+                dropConnection(service)
+            }
+        }
+
+        return null
+    }
+
+    fun getLastTimings(project: IProject): DaemonCompilationTimings? = lastTimings[project]
+
+    fun releaseSession(project: IProject) {
+        val sessionId = synchronized(sessions) { sessions.remove(project) } ?: return
+        lastTimings.remove(project)
+        val service = connection ?: return
+        try {
+            service.releaseCompileSession(sessionId)
+        } catch (e: RemoteException) {
+            dropConnection(service)
+        }
+    }
+
+    // Sessions of closed and deleted projects are released without blocking the workspace operation
+    override fun resourceChanged(event: IResourceChangeEvent) {
+        val project = event.resource as? IProject ?: return
+        if (synchronized(sessions) { project !in sessions }) return
+
+        runJob("Releasing Kotlin compile session of ${project.name}", Job.SHORT) {
+            releaseSession(project)
+            Status.OK_STATUS
+        }
+    }
+
+    fun shutdown() {
+        val projects = synchronized(sessions) { sessions.keys.toList() }
+        for (project in projects) {
+            releaseSession(project)
+        }
+        connection = null
+    }
+
+    private fun leaseSession(project: IProject, service: CompileService): Int? {
+        synchronized(sessions) { sessions[project] }?.let { return it }
+
+        val leased = try {
+            service.leaseCompileSession(aliveFlagFile.absolutePath)
+        } catch (e: RemoteException) {
+            KotlinLogger.logWarning("Cannot lease session of Kotlin compile daemon: ${e.message}")
+            dropConnection(service)
+            return null
+        }
+
+        if (leased !is CallResult.Good) {
+            KotlinLogger.logWarning("Cannot lease session of Kotlin compile daemon: ${(leased as? CallResult.Error)?.message}")
+            if (leased is CallResult.Dying) dropConnection(service)
+            return null
+        }
+
+        return synchronized(sessions) {
+            if (connection !== service) return null
+            sessions.getOrPut(project) { leased.result }
+        }
+    }
+
+    private fun getOrConnect(messageCollector: MessageCollector, compilerServices: CompilerServicesFacadeBase): CompileService? {
+        connection?.let { return it }
+        synchronized(connectionLock) {
+            return connection ?: connect(messageCollector, compilerServices)?.also { connection = it }
+        }
+    }
+
+    // Daemon reports unknown sessions, e.g. released after the alive file of the client was lost, only by the message
+    private fun isSessionError(result: CallResult.Error): Boolean = result.message.contains("session", ignoreCase = true)
+    
+    private fun dropSession(project: IProject, sessionId: Int) {
+        synchronized(sessions) {
+            if (sessions[project] == sessionId) sessions.remove(project)
+        }
+    }
+
+    private fun dropConnection(service: CompileService?) {
+        synchronized(sessions) {
+            if (service != null && connection === service) {
+                connection = null
+                sessions.clear()
+            }
+        }
+    }
+
+    private fun connect(messageCollector: MessageCollector, compilerServices: CompilerServicesFacadeBase): CompileService? {
+        val daemonJVMOptions = configureDaemonJVMOptions(
+                inheritMemoryLimits = true,
+                inheritOtherJvmOptions = false,
+                inheritAdditionalProperties = true)
+
+        val daemonReportMessages = arrayListOf<DaemonReportMessage>()
+        val reportingTargets = DaemonReportingTargets(System.out, daemonReportMessages, messageCollector, compilerServices)
+
+        return try {
+            KotlinCompilerClient.connectToCompileService(
+                    CompilerId.makeCompilerId(),
+                    daemonJVMOptions,
+                    DaemonOptions(),
+                    reportingTargets,
+                    true,
+                    true)
+        } catch (e: Throwable) {
+            KotlinLogger.logError("Caught an exception trying to connect to Kotlin Daemon", e)
+            null
+        }
+    }
+}
@@ -35,47 +35,120 @@ import org.eclipse.jdt.internal.compiler.util.Util
 import org.jetbrains.kotlin.core.asJava.KotlinLightClassGeneration
 import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache
 import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.resolve.BindingContext
 import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
 import java.io.File
 import java.io.InputStream
 import java.io.OutputStream
 import java.net.URI
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
 
 public class KotlinFileStore(file: File) : LocalFile(file) {
+    companion object {
+        private val generationsInProgress = ConcurrentHashMap<String, FutureTask<Map<String, ByteArray>>>()
+    }
+    
     override public fun openInputStream(options: Int, monitor: IProgressMonitor?): InputStream {
         val project = getProject()
         if (project == null) {
             throw CoreException(Status.CANCEL_STATUS)
         }
         
-        val lightClass = KotlinLightClassManager.getInstance(project).getCachedLightClass(file)
+        val lightClassManager = KotlinLightClassManager.getInstance(project)
+        val lightClass = lightClassManager.getCachedLightClass(file)
         if (lightClass != null) {
             return ByteArrayInputStream(lightClass)
         }
 
-        val jetFiles = KotlinLightClassManager.getInstance(project).getSourceFiles(file)
+        val jetFiles = lightClassManager.getSourceFiles(file)
         if (jetFiles.isNotEmpty()) {
-            val analysisResult = KotlinAnalyzer.analyzeFiles(jetFiles).analysisResult
-
-            val requestedClassName = Path(file.getAbsolutePath()).lastSegment()
-            val state = KotlinLightClassGeneration.buildLightClasses(analysisResult, project, jetFiles, requestedClassName)
-            val generatedClass = state.factory.asList().find {
-                val generatedClassName = Path(it.relativePath).lastSegment()
-                requestedClassName == generatedClassName
+            val sourcesDigest = KotlinLightClassDiskCache.computeSourcesDigest(jetFiles)
+            if (KotlinLightClassDiskCache.canPersist(jetFiles)) {
+                val persistedLightClass = lightClassManager.getPersistedLightClass(file, sourcesDigest)
+                if (persistedLightClass != null) {
+                    return ByteArrayInputStream(persistedLightClass)
+                }
             }
 
+            val generatedClasses = generateLightClasses(project, jetFiles, sourcesDigest)
+            val generatedClass = getRelativePath(generatedClasses.keys)?.let { generatedClasses[it] }
             if (generatedClass != null) {
-                val byteArray = generatedClass.asByteArray()
-                
-                KotlinLightClassManager.getInstance(project).cacheLightClass(file, byteArray)
-                return ByteArrayInputStream(byteArray)
+                lightClassManager.cacheLightClass(file, generatedClass)
+                return ByteArrayInputStream(generatedClass)
             }
         }
 
         throw CoreException(Status.CANCEL_STATUS)
     }
 
+    // All classes of the source files are generated at once, because JDT usually requests the sibling classes
+    // right after. Concurrent requests for the same sources wait for the generation which is already running.
+    private fun generateLightClasses(project: IProject, jetFiles: List<KtFile>, sourcesDigest: String): Map<String, ByteArray> {
+        val task = FutureTask<Map<String, ByteArray>> {
+            val analysisResult = KotlinAnalyzer.analyzeFiles(jetFiles).analysisResult
+            val state = KotlinLightClassGeneration.buildLightClasses(analysisResult, project, jetFiles)
+            val generatedClasses = state.factory.asList().associate { it.relativePath to it.asByteArray() }
+            
+            cacheGeneratedClasses(project, jetFiles, sourcesDigest, analysisResult.bindingContext, generatedClasses)
+            
+            generatedClasses
+        }
+        
+        val generationInProgress = generationsInProgress.putIfAbsent(sourcesDigest, task)
+        if (generationInProgress != null) {
+            return generationInProgress.getGeneratedClasses()
+        }
+        
+        try {
+            task.run()
+            return task.getGeneratedClasses()
+        } finally {
+            generationsInProgress.remove(sourcesDigest, task)
+        }
+    }
+    
+    private fun cacheGeneratedClasses(
+            project: IProject,
+            jetFiles: List<KtFile>,
+            sourcesDigest: String,
+            bindingContext: BindingContext,
+            generatedClasses: Map<String, ByteArray>) {
+        val requestedRelativePath = getRelativePath(generatedClasses.keys) ?: return
+        val binFolderPath = file.path.dropLast(requestedRelativePath.length)
+        
+        val lightClassManager = KotlinLightClassManager.getInstance(project)
+        val sources = jetFiles.toSet()
+        val canPersist = KotlinLightClassDiskCache.canPersist(jetFiles)
+        val dependencies = if (canPersist) KotlinLightClassDiskCache.findSourceDependencies(bindingContext, jetFiles) else emptySet()
+        for ((relativePath, bytes) in generatedClasses) {
+            val lightClassFile = File(binFolderPath + relativePath)
+            
+            // Classes of a multifile facade group have their own sources, they are not persisted with the digest of the group
+            if (canPersist && lightClassManager.getSourceFiles(lightClassFile).toSet() == sources) {
+                lightClassManager.persistLightClass(lightClassFile, sourcesDigest, dependencies, bytes)
+            } else {
+                lightClassManager.cacheLightClass(lightClassFile, bytes)
+            }
+        }
+    }
+    
+    private fun getRelativePath(generatedPaths: Collection<String>): String? {
+        val requestedPath = file.path.replace(File.separatorChar, '/')
+        return generatedPaths.find { requestedPath.endsWith("/$it") }
+    }
+    
+    private fun FutureTask<Map<String, ByteArray>>.getGeneratedClasses(): Map<String, ByteArray> {
+        return try {
+            get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+
     override public fun fetchInfo(options: Int, monitor: IProgressMonitor?): IFileInfo {
         val info = super.fetchInfo(options, monitor) as FileInfo
         if (Util.isClassFileName(getName())) {
@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.filesystem
+
+import com.intellij.openapi.util.TextRange
+import com.intellij.openapi.vfs.StandardFileSystems
+import org.eclipse.core.resources.IProject
+import org.jetbrains.kotlin.cli.jvm.index.JavaRoot
+import org.jetbrains.kotlin.core.Activator
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.core.model.KotlinJavaManager
+import org.jetbrains.kotlin.lexer.KtTokens
+import org.jetbrains.kotlin.psi.KtClassOrObject
+import org.jetbrains.kotlin.psi.KtDeclaration
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtNamedFunction
+import org.jetbrains.kotlin.psi.KtProperty
+import org.jetbrains.kotlin.psi.KtTreeVisitorVoid
+import org.jetbrains.kotlin.resolve.BindingContext
+import org.jetbrains.kotlin.resolve.DescriptorToSourceUtils
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+
+// Kotlin file of the project referenced from the sources of a light class, with the hash of its signatures
+class LightClassDependency(val path: String, val signatureHash: String)
+
+// Keeps generated light classes in the kotlin_cache folder of the project, so they are not regenerated
+// after restart. An entry is valid while its source files have the same text, the classpath has the same
+// fingerprint and the Kotlin files referenced from the sources have the same signatures as when it was generated.
+// Only classes with explicit signatures are persisted.
+class KotlinLightClassDiskCache(private val project: IProject) {
+    companion object {
+        private const val CACHE_FOLDER_NAME = "light_classes"
+        private const val ENTRY_EXTENSION = ".bin"
+        private const val FORMAT_VERSION = 3
+        private const val MAX_CACHE_SIZE = 64L * 1024 * 1024
+
+        fun computeSourcesDigest(sources: List<KtFile>): String {
+            val digest = MessageDigest.getInstance("SHA-1")
+            // Light classes generated by another version of the plugin may differ
+            digest.update(Activator.getDefault().bundle.version.toString().toByteArray())
+            for (source in sources.sortedBy { it.virtualFilePath }) {
+                digest.update(source.virtualFilePath.toByteArray())
+                digest.update(0)
+                digest.update(source.text.toByteArray())
+                digest.update(0)
+            }
+
+            return toHexString(digest.digest())
+        }
+
+        // Types from libraries can be changed while the IDE is closed, so entries are dropped if any root was changed
+        fun computeClasspathFingerprint(classpathRoots: List<JavaRoot>): String {
+            val digest = MessageDigest.getInstance("SHA-1")
+            for (root in classpathRoots.sortedBy { it.file.path }) {
+                val file = File(root.file.path.removeSuffix(StandardFileSystems.JAR_SEPARATOR))
+                digest.update("${file.absolutePath}:${file.length()}:${file.lastModified()}".toByteArray())
+                digest.update(0)
+            }
+
+            return toHexString(digest.digest())
+        }
+
+        // Supertypes, parameter types and delegates of a light class can come from other Kotlin files of the project
+        fun findSourceDependencies(bindingContext: BindingContext, sources: List<KtFile>): Set<KtFile> {
+            val sourcesSet = sources.toSet()
+            val dependencies = hashSetOf<KtFile>()
+            for ((expression, descriptor) in bindingContext.getSliceContents(BindingContext.REFERENCE_TARGET)) {
+                if (expression.containingFile !in sourcesSet) continue
+
+                val dependency = DescriptorToSourceUtils.descriptorToDeclaration(descriptor)?.containingFile as? KtFile ?: continue
+                if (dependency !in sourcesSet) {
+                    dependencies.add(dependency)
+                }
+            }
+
+            return dependencies
+        }
+
+        // Bodies of declarations with explicit signatures do not change light classes of other files
+        fun computeSignatureHash(ktFile: KtFile): String {
+            val text = ktFile.text
+            val digest = MessageDigest.getInstance("SHA-1")
+            var start = 0
+            for (body in findBodiesOutsideSignatures(ktFile)) {
+                digest.update(text.substring(start, body.startOffset).toByteArray())
+                start = body.endOffset
+            }
+            digest.update(text.substring(start).toByteArray())
+
+            return toHexString(digest.digest())
+        }
+
+        // Inferred types and values of constants are computed from other declarations, which are not tracked between sessions
+        fun canPersist(sources: List<KtFile>): Boolean = sources.all { hasExplicitSignatures(it.declarations) }
+
+        private fun hasExplicitSignatures(declarations: List<KtDeclaration>): Boolean {
+            return declarations.all { declaration ->
+                when (declaration) {
+                    is KtNamedFunction -> !declaration.hasBody() || declaration.hasBlockBody() || declaration.hasDeclaredReturnType()
+                    is KtProperty -> declaration.typeReference != null && !declaration.hasModifier(KtTokens.CONST_KEYWORD)
+                    is KtClassOrObject -> hasExplicitSignatures(declaration.declarations)
+                    else -> true
+                }
+            }
+        }
+
+        private fun findBodiesOutsideSignatures(ktFile: KtFile): List<TextRange> {
+            val bodies = arrayListOf<TextRange>()
+            ktFile.accept(object : KtTreeVisitorVoid() {
+                override fun visitNamedFunction(function: KtNamedFunction) {
+                    val body = function.bodyExpression
+                    if (body != null && (function.hasBlockBody() || function.hasDeclaredReturnType())) {
+                        bodies.add(body.textRange)
+                    } else {
+                        super.visitNamedFunction(function)
+                    }
+                }
+
+                override fun visitProperty(property: KtProperty) {
+                    if (property.typeReference == null || property.hasModifier(KtTokens.CONST_KEYWORD)) {
+                        super.visitProperty(property)
+                        return
+                    }
+
+                    property.initializer?.let { bodies.add(it.textRange) }
+                    property.delegateExpression?.let { bodies.add(it.textRange) }
+                    property.accessors.forEach { accessor -> accessor.bodyExpression?.let { bodies.add(it.textRange) } }
+                }
+            })
+
+            return bodies.sortedBy { it.startOffset }
+        }
+
+        private fun toHexString(bytes: ByteArray): String = bytes.joinToString("") { "%02x".format(it) }
+    }
+
+    // Total size of entries on disk, computed on first modification
+    private var cacheSize = -1L
+
+    fun get(
+            lightClassPath: String,
+            sourcesDigest: String,
+            classpathFingerprint: String,
+            isUpToDate: (LightClassDependency) -> Boolean): ByteArray? {
+        val entryFile = getEntryFile(lightClassPath) ?: return null
+        if (!entryFile.isFile) return null
+
+        try {
+            DataInputStream(BufferedInputStream(FileInputStream(entryFile))).use { input ->
+                if (input.readInt() != FORMAT_VERSION) return null
+                if (input.readUTF() != lightClassPath || input.readUTF() != sourcesDigest) return null
+                if (input.readUTF() != classpathFingerprint) return null
+
+                repeat(input.readInt()) {
+                    if (!isUpToDate(LightClassDependency(input.readUTF(), input.readUTF()))) return null
+                }
+
+                val bytes = ByteArray(input.readInt())
+                input.readFully(bytes)
+
+                // Last modification time is used to evict least recently used entries
+                entryFile.setLastModified(System.currentTimeMillis())
+
+                return bytes
+            }
+        } catch (e: IOException) {
+            remove(lightClassPath)
+            return null
+        }
+    }
+
+    @Synchronized
+    fun put(
+            lightClassPath: String,
+            sourcesDigest: String,
+            classpathFingerprint: String,
+            dependencies: List<LightClassDependency>,
+            bytes: ByteArray) {
+        val entryFile = getEntryFile(lightClassPath) ?: return
+        val cacheFolder = entryFile.parentFile
+        if (!cacheFolder.isDirectory && !cacheFolder.mkdirs()) return
+
+        ensureCacheSizeComputed(cacheFolder)
+
+        val tempFile = File.createTempFile("entry", ".tmp", cacheFolder)
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tempFile))).use { output ->
+                output.writeInt(FORMAT_VERSION)
+                output.writeUTF(lightClassPath)
+                output.writeUTF(sourcesDigest)
+                output.writeUTF(classpathFingerprint)
+                output.writeInt(dependencies.size)
+                for (dependency in dependencies) {
+                    output.writeUTF(dependency.path)
+                    output.writeUTF(dependency.signatureHash)
+                }
+                output.writeInt(bytes.size)
+                output.write(bytes)
+            }
+
+            val previousLength = entryFile.length()
+            Files.move(tempFile.toPath(), entryFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+            cacheSize += entryFile.length() - previousLength
+        } catch (e: IOException) {
+            KotlinLogger.logError("Cannot save light class $lightClassPath to the cache", e)
+            tempFile.delete()
+            return
+        }
+
+        if (cacheSize > MAX_CACHE_SIZE) {
+            evictLeastRecentlyUsed(cacheFolder)
+        }
+    }
+
+    @Synchronized
+    fun remove(lightClassPath: String) {
+        val entryFile = getEntryFile(lightClassPath) ?: return
+        val length = entryFile.length()
+        if (entryFile.delete() && cacheSize >= 0) {
+            cacheSize -= length
+        }
+    }
+
+    @Synchronized
+    fun clear() {
+        getCacheFolder()?.listFiles()?.forEach { it.delete() }
+        cacheSize = -1
+    }
+
+    private fun ensureCacheSizeComputed(cacheFolder: File) {
+        if (cacheSize < 0) {
+            cacheSize = listEntries(cacheFolder).sumByLong { it.length() }
+        }
+    }
+
+    private fun evictLeastRecentlyUsed(cacheFolder: File) {
+        val entries = listEntries(cacheFolder).sortedBy { it.lastModified() }
+        for (entry in entries) {
+            if (cacheSize <= MAX_CACHE_SIZE * 3 / 4) break
+
+            val length = entry.length()
+            if (entry.delete()) {
+                cacheSize -= length
+            }
+        }
+    }
+
+    private fun listEntries(cacheFolder: File): List<File> {
+        return cacheFolder.listFiles { file -> file.name.endsWith(ENTRY_EXTENSION) }?.toList() ?: emptyList()
+    }
+
+    private fun getEntryFile(lightClassPath: String): File? {
+        val cacheFolder = getCacheFolder() ?: return null
+        val digest = MessageDigest.getInstance("SHA-1").digest(lightClassPath.toByteArray())
+        return File(cacheFolder, toHexString(digest) + ENTRY_EXTENSION)
+    }
+
+    private fun getCacheFolder(): File? {
+        val location = KotlinJavaManager.getKotlinCacheFolderFor(project).location ?: return null
+        return File(location.toFile(), CACHE_FOLDER_NAME)
+    }
+}
+
+private inline fun <T> Iterable<T>.sumByLong(selector: (T) -> Long): Long {
+    var sum = 0L
+    for (element in this) {
+        sum += selector(element)
+    }
+    return sum
+}
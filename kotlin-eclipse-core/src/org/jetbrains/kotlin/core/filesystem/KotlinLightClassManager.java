@@ -3,10 +3,11 @@ package org.jetbrains.kotlin.core.filesystem;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -22,6 +23,7 @@ import org.eclipse.core.runtime.Path;
 import org.eclipse.jdt.internal.core.util.LRUCache;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.cli.jvm.index.JavaRoot;
 import org.jetbrains.kotlin.core.asJava.LightClassFile;
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
 import org.jetbrains.kotlin.core.log.KotlinLogger;
@@ -54,6 +56,19 @@ public class KotlinLightClassManager {
     
     private final ConcurrentMap<File, SourceFilesEntry> sourceFiles = new ConcurrentHashMap<>();
     
+    private final ConcurrentMap<IFile, List<IPath>> lightClassesBySource = new ConcurrentHashMap<>();
+    
+    private final Object sourcesLock = new Object();
+    
+    private volatile boolean sourcesComputed = false;
+    
+    private final KotlinLightClassDiskCache diskCache;
+    
+    private volatile String classpathFingerprint = null;
+    
+    // Hashes are kept while the parsed files are up to date
+    private final Map<KtFile, String> signatureHashes = Collections.synchronizedMap(new WeakHashMap<KtFile, String>());
+    
     @NotNull
     public static KotlinLightClassManager getInstance(@NotNull IProject project) {
         Project ideaProject = KotlinEnvironment.Companion.getEnvironment(project).getProject();
@@ -62,6 +77,7 @@ public class KotlinLightClassManager {
     
     public KotlinLightClassManager(@NotNull IProject project) {
         this.project = project;
+        this.diskCache = new KotlinLightClassDiskCache(project);
     }
     
     @Nullable
@@ -80,30 +96,174 @@ public class KotlinLightClassManager {
         cachedLightClasses.flush(file);
     }
     
+    @Nullable
+    public byte[] getPersistedLightClass(@NotNull File file, @NotNull String sourcesDigest) {
+        byte[] lightClass = diskCache.get(getLightClassPath(file), sourcesDigest, getClasspathFingerprint(),
+                new Function1<LightClassDependency, Boolean>() {
+                    @Override
+                    public Boolean invoke(LightClassDependency dependency) {
+                        return isUpToDate(dependency);
+                    }
+                });
+        if (lightClass != null) {
+            cacheLightClass(file, lightClass);
+        }
+        
+        return lightClass;
+    }
+    
+    public void persistLightClass(@NotNull File file, @NotNull String sourcesDigest, @NotNull Set<KtFile> dependencies,
+            @NotNull byte[] lightClass) {
+        cacheLightClass(file, lightClass);
+        
+        List<LightClassDependency> persistedDependencies = new ArrayList<>();
+        for (KtFile dependency : dependencies) {
+            // Signatures of files outside of the workspace cannot be checked after restart
+            IFile dependencyFile = KotlinPsiManager.getEclipseFile(dependency);
+            if (dependencyFile == null) return;
+            
+            persistedDependencies.add(new LightClassDependency(
+                    dependencyFile.getFullPath().toPortableString(), getSignatureHash(dependency)));
+        }
+        
+        diskCache.put(getLightClassPath(file), sourcesDigest, getClasspathFingerprint(), persistedDependencies, lightClass);
+    }
+    
+    // Fingerprint is computed again only if the classpath was changed
+    @NotNull
+    private String getClasspathFingerprint() {
+        String fingerprint = classpathFingerprint;
+        if (fingerprint == null) {
+            List<JavaRoot> classpathRoots = new ArrayList<>(KotlinEnvironment.Companion.getEnvironment(project).getRoots());
+            fingerprint = KotlinLightClassDiskCache.Companion.computeClasspathFingerprint(classpathRoots);
+            classpathFingerprint = fingerprint;
+        }
+        
+        return fingerprint;
+    }
+    
+    public void classpathChanged() {
+        classpathFingerprint = null;
+    }
+    
+    private boolean isUpToDate(@NotNull LightClassDependency dependency) {
+        IFile file = ResourcesPlugin.getWorkspace().getRoot().getFile(Path.fromPortableString(dependency.getPath()));
+        KtFile ktFile = file.exists() ? KotlinPsiManager.getKotlinParsedFile(file) : null;
+        
+        return ktFile != null && getSignatureHash(ktFile).equals(dependency.getSignatureHash());
+    }
+    
+    @NotNull
+    private String getSignatureHash(@NotNull KtFile ktFile) {
+        String signatureHash = signatureHashes.get(ktFile);
+        if (signatureHash == null) {
+            signatureHash = KotlinLightClassDiskCache.Companion.computeSignatureHash(ktFile);
+            signatureHashes.put(ktFile, signatureHash);
+        }
+        
+        return signatureHash;
+    }
+    
     public void computeLightClassesSources() {
-        Map<File, SourceFilesEntry> newSourceFilesMap = new HashMap<>();
-        for (IFile sourceFile : KotlinPsiManager.INSTANCE.getFilesByProject(project)) {
-            List<IPath> lightClassesPaths = getLightClassesPaths(sourceFile);
+        synchronized (sourcesLock) {
+            sourceFiles.clear();
+            lightClassesBySource.clear();
+            
+            for (IFile sourceFile : KotlinPsiManager.INSTANCE.getFilesByProject(project)) {
+                addLightClassesSources(sourceFile);
+            }
+            
+            sourcesComputed = true;
+        }
+    }
+    
+    public void updateLightClasses(@NotNull Set<IFile> affectedFiles) {
+        synchronized (sourcesLock) {
+            if (!sourcesComputed) {
+                computeLightClassesSources();
+                updateAllLightClasses(affectedFiles);
+                return;
+            }
             
-            for (IPath path : lightClassesPaths) {
-                LightClassFile lightClassFile = new LightClassFile(project.getFile(path));
-                File asFile = lightClassFile.asFile();
+            Set<IPath> changedLightClasses = new HashSet<>();
+            for (IFile sourceFile : affectedFiles) {
+                List<IPath> previousLightClasses = lightClassesBySource.remove(sourceFile);
+                if (previousLightClasses != null) {
+                    for (IPath path : previousLightClasses) {
+                        removeLightClassSource(path, sourceFile);
+                    }
+                    changedLightClasses.addAll(previousLightClasses);
+                }
                 
-                SourceFilesEntry newSourceFiles = newSourceFilesMap.get(asFile);
-                if (newSourceFiles == null) {
-                    newSourceFiles = new SourceFilesEntry();                                        
-                    newSourceFilesMap.put(asFile, newSourceFiles);
-                    newSourceFilesMap.put(lightClassFile.getResource().getLocation().toFile(), new SourceFilesEntry(newSourceFiles));
+                if (sourceFile.exists() && KotlinPsiManager.INSTANCE.existsSourceFile(sourceFile)) {
+                    changedLightClasses.addAll(addLightClassesSources(sourceFile));
                 }
-                newSourceFiles.add(sourceFile);
+            }
+            
+            for (IPath path : changedLightClasses) {
+                updateLightClass(new LightClassFile(project.getFile(path)));
             }
         }
+    }
+
+    // Sources are computed again on the next update, which also synchronizes all light class files with them
+    public void resetSources() {
+        synchronized (sourcesLock) {
+            sourceFiles.clear();
+            lightClassesBySource.clear();
+            sourcesComputed = false;
+        }
+    }
+
+    public void cleanLightClasses() {
+        synchronized (sourcesLock) {
+            sourceFiles.clear();
+            lightClassesBySource.clear();
+            sourcesComputed = false;
+        }
         
-        sourceFiles.clear();
-        sourceFiles.putAll(newSourceFilesMap);
+        ProjectUtils.cleanFolder(KotlinJavaManager.INSTANCE.getKotlinBinFolderFor(project));
+        cachedLightClasses.flush();
+        diskCache.clear();
     }
     
-    public void updateLightClasses(@NotNull Set<IFile> affectedFiles) {
+    public List<KtFile> getSourceFiles(@NotNull File file) {
+        ensureSourcesComputed();
+        
+        return getSourceKtFiles(file);
+    }
+    
+    // Finds sources of a class by its internal JVM name without parsing them
+    @NotNull
+    public List<IFile> getSourceFilesByClassName(@NotNull String internalName) {
+        ensureSourcesComputed();
+        
+        File lightClass = new LightClassFile(project.getFile(computePathByInternalName(internalName))).asFile();
+        SourceFilesEntry sources = sourceFiles.get(lightClass);
+        if (sources == null) {
+            return Collections.<IFile>emptyList();
+        }
+        
+        List<IFile> result = new ArrayList<>();
+        for (IFile sourceFile : sources) {
+            result.add(sourceFile);
+        }
+        
+        return result;
+    }
+    
+    private void ensureSourcesComputed() {
+        if (!sourcesComputed) {
+            synchronized (sourcesLock) {
+                if (!sourcesComputed) {
+                    computeLightClassesSources();
+                }
+            }
+        }
+    }
+    
+    // Light class files are synchronized with the whole index only once, later only classes of changed files are updated
+    private void updateAllLightClasses(@NotNull Set<IFile> affectedFiles) {
         for (Map.Entry<File, SourceFilesEntry> entry : sourceFiles.entrySet()) {
             if(entry.getValue().isAlias())
                 continue;
@@ -126,18 +286,70 @@ public class KotlinLightClassManager {
         
         cleanOutdatedLightClasses(project);
     }
-
-    public void cleanLightClasses() {
-        ProjectUtils.cleanFolder(KotlinJavaManager.INSTANCE.getKotlinBinFolderFor(project));
-        cachedLightClasses.flush();
+    
+    private void updateLightClass(@NotNull LightClassFile lightClassFile) {
+        File asFile = lightClassFile.asFile();
+        removeLightClass(asFile);
+        
+        SourceFilesEntry sources = sourceFiles.get(asFile);
+        if (sources == null || sources.isEmpty()) {
+            sourceFiles.remove(asFile);
+            sourceFiles.remove(lightClassFile.getResource().getLocation().toFile());
+            diskCache.remove(getLightClassPath(asFile));
+            deleteLightClassFile(lightClassFile);
+        } else {
+            createParentDirsFor(lightClassFile);
+            if (!lightClassFile.createIfNotExists()) {
+                lightClassFile.touchFile();
+            }
+        }
     }
     
-    public List<KtFile> getSourceFiles(@NotNull File file) {
-        if (sourceFiles.isEmpty()) {
-            computeLightClassesSources();
+    @NotNull
+    private List<IPath> addLightClassesSources(@NotNull IFile sourceFile) {
+        List<IPath> lightClassesPaths = getLightClassesPaths(sourceFile);
+        for (IPath path : lightClassesPaths) {
+            LightClassFile lightClassFile = new LightClassFile(project.getFile(path));
+            File asFile = lightClassFile.asFile();
+            
+            SourceFilesEntry sources = sourceFiles.get(asFile);
+            if (sources == null) {
+                sources = new SourceFilesEntry();
+                sourceFiles.put(asFile, sources);
+                sourceFiles.put(lightClassFile.getResource().getLocation().toFile(), new SourceFilesEntry(sources));
+            }
+            sources.add(sourceFile);
         }
         
-        return getSourceKtFiles(file);
+        lightClassesBySource.put(sourceFile, lightClassesPaths);
+        
+        return lightClassesPaths;
+    }
+    
+    private void removeLightClassSource(@NotNull IPath lightClassPath, @NotNull IFile sourceFile) {
+        File asFile = new LightClassFile(project.getFile(lightClassPath)).asFile();
+        SourceFilesEntry sources = sourceFiles.get(asFile);
+        if (sources != null) {
+            sources.remove(sourceFile);
+        }
+    }
+    
+    private void deleteLightClassFile(@NotNull LightClassFile lightClassFile) {
+        IFolder binFolder = KotlinJavaManager.INSTANCE.getKotlinBinFolderFor(project);
+        try {
+            IResource resource = lightClassFile.getResource();
+            if (resource.exists()) {
+                resource.delete(true, null);
+            }
+            
+            IContainer parent = resource.getParent();
+            while (parent instanceof IFolder && !parent.equals(binFolder) && parent.exists() && parent.members().length == 0) {
+                parent.delete(true, null);
+                parent = parent.getParent();
+            }
+        } catch (CoreException e) {
+            KotlinLogger.logError("Error while deleting light class", e);
+        }
     }
     
     @Nullable
@@ -160,6 +372,20 @@ public class KotlinLightClassManager {
         return fqName.asString().replaceAll("\\.", "/");
     }
     
+    // Light classes are requested both by workspace path and by location, so persisted ones are keyed by the path inside kotlin_bin
+    @NotNull
+    private static String getLightClassPath(@NotNull File file) {
+        IPath path = new Path(file.getPath());
+        String binFolderName = KotlinJavaManager.KOTLIN_BIN_FOLDER.lastSegment();
+        for (int i = 0; i < path.segmentCount(); i++) {
+            if (binFolderName.equals(path.segment(i))) {
+                return path.removeFirstSegments(i + 1).toPortableString();
+            }
+        }
+        
+        return path.toPortableString();
+    }
+    
     @NotNull
     private List<KtFile> getSourceKtFiles(@NotNull File lightClass) {
         SourceFilesEntry sourceIOFiles = sourceFiles.get(lightClass);
@@ -250,6 +476,7 @@ public class KotlinLightClassManager {
                     boolean dropLightClass = sources != null ? sources.isEmpty() : true;
                     if (dropLightClass) {
                         removeLightClass(lightClass.asFile());
+                        diskCache.remove(getLightClassPath(lightClass.asFile()));
                     }
                     
                     return dropLightClass;
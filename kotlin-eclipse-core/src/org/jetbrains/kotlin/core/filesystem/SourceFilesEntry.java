@@ -1,8 +1,8 @@
 package org.jetbrains.kotlin.core.filesystem;
 
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.core.resources.IFile;
 
@@ -12,7 +12,7 @@ public class SourceFilesEntry implements Iterable<IFile> {
     boolean alias;
     
     public SourceFilesEntry() {
-        this(new HashSet<>(), false);
+        this(ConcurrentHashMap.<IFile>newKeySet(), false);
     }
     
     public SourceFilesEntry(SourceFilesEntry wrapped) {
@@ -36,6 +36,10 @@ public class SourceFilesEntry implements Iterable<IFile> {
     public void add(IFile sourceFile) {
         this.sourceFiles.add(sourceFile);
     }
+    
+    public void remove(IFile sourceFile) {
+        this.sourceFiles.remove(sourceFile);
+    }
 
     @Override
     public Iterator<IFile> iterator() {
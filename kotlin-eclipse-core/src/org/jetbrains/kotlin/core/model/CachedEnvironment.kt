@@ -46,6 +46,8 @@ class CachedEnvironment<T, E : KotlinCommonEnvironment> {
         }
     }
 
+    fun getEnvironment(resource: T): E? = environmentCache[resource]
+
     fun removeEnvironment(resource: T) {
         synchronized(environmentLock) {
             if (environmentCache.containsKey(resource)) {
@@ -16,29 +16,139 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.core.model
 
-import org.eclipse.jdt.core.IJavaProject
+import org.eclipse.core.resources.IFile
+import org.eclipse.core.resources.IProject
+import org.eclipse.jdt.core.JavaCore
+import org.eclipse.jdt.core.JavaModelException
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.log.KotlinLogger
 import org.jetbrains.kotlin.core.resolve.AnalysisResultWithProvider
 import org.jetbrains.kotlin.core.resolve.EclipseAnalyzerFacadeForJVM
+import org.jetbrains.kotlin.core.utils.ProjectUtils
 import org.jetbrains.kotlin.psi.KtFile
-import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import java.lang.ref.SoftReference
+import java.util.LinkedHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+import java.util.concurrent.atomic.AtomicLong
 
-data class FileAnalysisResults(val file: KtFile, val analysisResult: AnalysisResultWithProvider)
+data class AnalysisCacheStatistics(
+        val hits: Long,
+        val misses: Long,
+        val evictions: Long,
+        val size: Int,
+        val estimatedSize: Long)
+
+private class FileAnalysisResults(
+        val file: KtFile,
+        val fileModificationStamp: Long,
+        val projectStamps: Map<IProject, Long>,
+        val estimatedSize: Long,
+        analysisResult: AnalysisResultWithProvider) {
+    // Analysis results are quite heavy, so let GC drop them when memory runs low
+    private val analysisResultReference = SoftReference(analysisResult)
+    
+    val analysisResult: AnalysisResultWithProvider?
+        get() = analysisResultReference.get()
+    
+    fun isUpToDate(): Boolean {
+        return file.modificationStamp == fileModificationStamp &&
+                projectStamps.all { (project, stamp) -> KotlinPsiManager.getModificationStamp(project) == stamp }
+    }
+}
 
 public object KotlinAnalysisFileCache {
-    private @Volatile var lastAnalysedFileCache: FileAnalysisResults? = null
+    private val MAX_ENTRIES = 30
+    
+    // Rough estimation of memory retained by PSI, binding context and descriptors per character of analyzed file
+    private val ESTIMATED_BYTES_PER_CHAR = 200L
+    
+    private val MAX_ESTIMATED_SIZE = Runtime.getRuntime().maxMemory() / 8
+    
+    private val cachedResults = LinkedHashMap<KtFile, FileAnalysisResults>(16, 0.75f, true)
+    private var estimatedSize = 0L
+    
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictions = AtomicLong()
+
+    // Analyses of the same file are shared, while different files are analyzed concurrently
+    private val analysesInProgress = hashMapOf<KtFile, FutureTask<AnalysisResultWithProvider>>()
+    
+    // Results of analyses started before the reset of the cache are not cached
+    private var cacheGeneration = 0L
 
-    @Synchronized fun getAnalysisResult(file: KtFile): AnalysisResultWithProvider {
-        return getImmediatlyFromCache(file) ?: run {
-            val environment = getEnvironment(file.project)!!
-            val analysisResult = resolve(file, environment)
+    fun getAnalysisResult(file: KtFile): AnalysisResultWithProvider {
+        while (true) {
+            var started = false
+            val analysis = synchronized(this) {
+                getImmediatlyFromCache(file)?.let { return it }
+                
+                analysesInProgress[file] ?: FutureTask { analyzeAndCache(file) }.also {
+                    analysesInProgress[file] = it
+                    started = true
+                }
+            }
             
-            lastAnalysedFileCache = FileAnalysisResults(file, analysisResult)
-            lastAnalysedFileCache!!.analysisResult
+            try {
+                if (started) analysis.run()
+                return analysis.get()
+            } catch (e: ExecutionException) {
+                // Analysis of another caller could be cancelled together with its reconcile, so this caller analyzes again
+                if (!started) continue
+                throw e.cause ?: e
+            } finally {
+                synchronized(this) {
+                    if (analysesInProgress[file] === analysis) analysesInProgress.remove(file)
+                }
+            }
         }
     }
     
-    fun resetCache() {
-        lastAnalysedFileCache = null
+    private fun analyzeAndCache(file: KtFile): AnalysisResultWithProvider {
+        misses.incrementAndGet()
+        
+        val generation = synchronized(this) { cacheGeneration }
+        val fileModificationStamp = file.modificationStamp
+        val projectStamps = collectProjectStamps(file)
+        val environment = getEnvironment(file.project)!!
+        val analysisResult = resolve(file, environment)
+        
+        synchronized(this) {
+            if (generation == cacheGeneration) {
+                putToCache(FileAnalysisResults(
+                        file,
+                        fileModificationStamp,
+                        projectStamps,
+                        file.textLength * ESTIMATED_BYTES_PER_CHAR,
+                        analysisResult))
+            }
+        }
+        
+        return analysisResult
+    }
+    
+    // Analyses in progress are still shared by their callers, only their results are not cached
+    @Synchronized fun resetCache() {
+        cacheGeneration++
+        cachedResults.clear()
+        estimatedSize = 0
+    }
+    
+    // Analyses in progress can use outdated declarations, so their results are not cached
+    @Synchronized fun resetCache(files: Collection<IFile>) {
+        val fileSet = files.toSet()
+        if (fileSet.isEmpty()) return
+        
+        cacheGeneration++
+        analysesInProgress.keys.removeAll { KotlinPsiManager.getEclipseFile(it) in fileSet }
+        cachedResults.keys
+                .filter { KotlinPsiManager.getEclipseFile(it) in fileSet }
+                .forEach { removeFromCache(it) }
+    }
+    
+    @Synchronized fun getStatistics(): AnalysisCacheStatistics {
+        return AnalysisCacheStatistics(hits.get(), misses.get(), evictions.get(), cachedResults.size, estimatedSize)
     }
     
     private fun resolve(file: KtFile, environment: KotlinCommonEnvironment): AnalysisResultWithProvider {
@@ -51,9 +161,64 @@ public object KotlinAnalysisFileCache {
     
     @Synchronized
     private fun getImmediatlyFromCache(file: KtFile): AnalysisResultWithProvider? {
-        return if (lastAnalysedFileCache != null && lastAnalysedFileCache!!.file == file)
-            lastAnalysedFileCache!!.analysisResult
-        else
-            null
+        val cached = cachedResults[file] ?: return null
+        val analysisResult = cached.analysisResult
+        if (analysisResult == null || !cached.isUpToDate()) {
+            removeFromCache(file)
+            return null
+        }
+        
+        hits.incrementAndGet()
+        return analysisResult
+    }
+    
+    private fun putToCache(results: FileAnalysisResults) {
+        removeFromCache(results.file)
+        
+        cachedResults.put(results.file, results)
+        estimatedSize += results.estimatedSize
+        
+        evictIfNeeded()
+    }
+    
+    private fun removeFromCache(file: KtFile) {
+        val removed = cachedResults.remove(file)
+        if (removed != null) {
+            estimatedSize -= removed.estimatedSize
+        }
+    }
+    
+    private fun evictIfNeeded() {
+        val iterator = cachedResults.values.iterator()
+        while (iterator.hasNext()) {
+            val eldest = iterator.next()
+            val collected = eldest.analysisResult == null
+            val overflow = cachedResults.size > MAX_ENTRIES || estimatedSize > MAX_ESTIMATED_SIZE
+            if (!collected && (!overflow || cachedResults.size == 1)) continue
+            
+            iterator.remove()
+            estimatedSize -= eldest.estimatedSize
+            if (!collected) {
+                evictions.incrementAndGet()
+            }
+        }
+    }
+    
+    private fun collectProjectStamps(file: KtFile): Map<IProject, Long> {
+        val eclipseProject = KotlinPsiManager.getEclipseFile(file)?.project ?: return emptyMap()
+        
+        val javaProject = JavaCore.create(eclipseProject)
+        val dependencies = if (javaProject.exists()) {
+            try {
+                ProjectUtils.getDependencyProjects(javaProject)
+            } catch (e: JavaModelException) {
+                KotlinLogger.logError(e)
+                emptyList<IProject>()
+            }
+        } else {
+            emptyList<IProject>()
+        }
+        
+        return (dependencies + eclipseProject).associate { it to KotlinPsiManager.getModificationStamp(it) }
     }
 }
\ No newline at end of file
@@ -41,9 +41,13 @@ public object KotlinAnalysisProjectCache : IResourceChangeListener {
         val project = javaProject.getProject()
         return synchronized(project) {
             val analysisResult = cachedAnalysisResults.get(project) ?: run {
-                EclipseAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegration(
-                        KotlinEnvironment.getEnvironment(project),
-                        ProjectUtils.getSourceFiles(javaProject.getProject())).analysisResult
+                val environment = KotlinEnvironment.getEnvironment(project)
+                val sourceFiles = ProjectUtils.getSourceFiles(javaProject.getProject())
+                val result = EclipseAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegration(environment, sourceFiles).analysisResult
+                
+                environment.lookupIndex.markComplete(sourceFiles)
+                
+                result
             }
 
             cachedAnalysisResults.putIfAbsent(project, analysisResult) ?: analysisResult
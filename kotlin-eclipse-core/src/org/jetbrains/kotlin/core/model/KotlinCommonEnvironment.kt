@@ -112,7 +112,9 @@ abstract class KotlinCommonEnvironment(disposable: Disposable) {
     val project: MockProject
     
     protected val projectEnvironment: JavaCoreProjectEnvironment
-    private val roots = LinkedHashSet<JavaRoot>()
+    
+    // Replaced as a whole on changes, so that it can be iterated while the classpath of the project is updated
+    @Volatile private var roots: Set<JavaRoot> = linkedSetOf()
     
     val configuration = CompilerConfiguration()
 
@@ -176,6 +178,11 @@ abstract class KotlinCommonEnvironment(disposable: Disposable) {
     
     fun getRoots(): Set<JavaRoot> = roots
     
+    // Roots are only forgotten by indices of the environment, jar file system keeps the opened archives
+    protected fun setRoots(newRoots: Collection<JavaRoot>) {
+        roots = LinkedHashSet(newRoots)
+    }
+    
     private fun createJavaCoreApplicationEnvironment(disposable: Disposable): JavaCoreApplicationEnvironment {
         Extensions.cleanRootArea(disposable)
         registerAppExtensionPoints()
@@ -203,30 +210,42 @@ abstract class KotlinCommonEnvironment(disposable: Disposable) {
         return jarFile != null && jarFile.isValid()
     }
 
-    protected fun addToClasspath(path: File, rootType: JavaRoot.RootType? = null) {
-        if (path.isFile()) {
+    // Root is known only to indices of the environment, the file manager and the package index of the project are not changed
+    protected fun createJarRoot(path: File): JavaRoot? {
+        val jarFile = javaApplicationEnvironment.getJarFileSystem().findFileByPath("$path!/")
+        if (jarFile == null) {
+            KotlinLogger.logWarning("Can't find jar: $path")
+            return null
+        }
+        
+        return JavaRoot(jarFile, JavaRoot.RootType.BINARY)
+    }
+    
+    protected fun addToClasspath(path: File, rootType: JavaRoot.RootType? = null): JavaRoot? {
+        val root = if (path.isFile()) {
             val jarFile = javaApplicationEnvironment.getJarFileSystem().findFileByPath("$path!/")
             if (jarFile == null) {
                 KotlinLogger.logWarning("Can't find jar: $path")
-                return
+                return null
             }
             
             projectEnvironment.addJarToClassPath(path)
             
-            val type = rootType ?: JavaRoot.RootType.BINARY
-            roots.add(JavaRoot(jarFile, type))
+            JavaRoot(jarFile, rootType ?: JavaRoot.RootType.BINARY)
         } else {
-            val root = javaApplicationEnvironment.getLocalFileSystem().findFileByPath(path.getAbsolutePath())
-            if (root == null) {
+            val directory = javaApplicationEnvironment.getLocalFileSystem().findFileByPath(path.getAbsolutePath())
+            if (directory == null) {
                 KotlinLogger.logWarning("Can't find jar: $path")
-                return
+                return null
             }
             
-            projectEnvironment.addSourcesToClasspath(root)
+            projectEnvironment.addSourcesToClasspath(directory)
             
-            val type = rootType ?: JavaRoot.RootType.SOURCE
-            roots.add(JavaRoot(root, type))
+            JavaRoot(directory, rootType ?: JavaRoot.RootType.SOURCE)
         }
+        
+        roots += root
+        return root
     }
 }
 
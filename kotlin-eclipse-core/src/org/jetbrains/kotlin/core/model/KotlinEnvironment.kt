@@ -22,6 +22,7 @@ import com.intellij.openapi.components.ServiceManager
 import com.intellij.openapi.extensions.Extensions
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.util.Disposer
+import com.intellij.openapi.vfs.impl.ZipHandler
 import com.intellij.psi.PsiElementFinder
 import com.intellij.psi.impl.PsiElementFinderImpl
 import com.intellij.psi.impl.file.impl.JavaFileManager
@@ -33,6 +34,7 @@ import org.eclipse.jdt.core.IClasspathContainer
 import org.eclipse.jdt.core.IClasspathEntry
 import org.eclipse.jdt.core.IJavaProject
 import org.eclipse.jdt.core.JavaCore
+import org.eclipse.jdt.core.JavaModelException
 import org.eclipse.jdt.internal.core.JavaProject
 import org.jetbrains.kotlin.asJava.LightClassGenerationSupport
 import org.jetbrains.kotlin.asJava.classes.KtLightClassForFacade
@@ -44,6 +46,13 @@ import org.jetbrains.kotlin.core.KotlinClasspathContainer
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import org.jetbrains.kotlin.core.filesystem.KotlinLightClassManager
 import org.jetbrains.kotlin.core.buildLibPath
+import org.jetbrains.kotlin.core.resolve.KotlinAnalysisSession
+import org.jetbrains.kotlin.core.resolve.KotlinDependenciesModuleCache
+import org.jetbrains.kotlin.core.resolve.KotlinIdentifierIndex
+import org.jetbrains.kotlin.core.resolve.KotlinLookupIndex
+import org.jetbrains.kotlin.core.resolve.KotlinSymbolIndex
+import org.jetbrains.kotlin.core.resolve.lang.java.EclipseJavaBindingsCache
+import org.jetbrains.kotlin.core.resolve.lang.java.EclipseJavaClassNamesIndex
 import org.jetbrains.kotlin.core.resolve.lang.kotlin.EclipseVirtualFileFinder
 import org.jetbrains.kotlin.core.utils.ProjectUtils
 import org.jetbrains.kotlin.parsing.KotlinParserDefinition
@@ -379,7 +388,29 @@ class KotlinEnvironment private constructor(val eclipseProject: IProject, dispos
         KotlinCommonEnvironment(disposable) {
     val javaProject = JavaCore.create(eclipseProject)
     
-    val index by lazy { JvmDependenciesIndexImpl(getRoots().toList()) }
+    // Roots of the classpath entries of the project, used to update the environment by the difference of classpaths
+    private var classpathRoots = linkedMapOf<File, JavaRoot>()
+    
+    private var sourceEntries = emptyList<IClasspathEntry>()
+    
+    @Volatile private var cachedIndex: JvmDependenciesIndexImpl? = null
+    
+    val index: JvmDependenciesIndexImpl
+        get() = cachedIndex ?: synchronized(this) {
+            cachedIndex ?: JvmDependenciesIndexImpl(getRoots().toList()).also { cachedIndex = it }
+        }
+    
+    val analysisSession by lazy { KotlinAnalysisSession(this) }
+    
+    val lookupIndex by lazy { KotlinLookupIndex() }
+    
+    val symbolIndex by lazy { KotlinSymbolIndex(this) }
+    
+    val identifierIndex by lazy { KotlinIdentifierIndex(eclipseProject) }
+    
+    val javaBindingsCache by lazy { EclipseJavaBindingsCache(javaProject) }
+    
+    val javaClassNamesIndex by lazy { EclipseJavaClassNamesIndex(javaProject) }
     
     init {
         registerProjectDependenServices(javaProject)
@@ -405,8 +436,64 @@ class KotlinEnvironment private constructor(val eclipseProject: IProject, dispos
         if (!javaProject.exists()) return
         
         for (file in ProjectUtils.collectClasspathWithDependenciesForBuild(javaProject)) {
-            addToClasspath(file)
+            addToClasspath(file)?.let { classpathRoots[file] = it }
         }
+        
+        sourceEntries = collectSourceEntries()
+    }
+    
+    // Returns false if the environment cannot be updated and should be recreated
+    @Synchronized
+    private fun updateClasspath(): Boolean {
+        if (!javaProject.exists()) return false
+        
+        val newClasspath = ProjectUtils.collectClasspathWithDependenciesForBuild(javaProject)
+        if (newClasspath == classpathRoots.keys.toList()) return true
+        
+        // Directories are registered in the file manager and the package index of the project environment,
+        // which cannot be changed while they are used by analysis
+        val removedFiles = classpathRoots.keys - newClasspath
+        val addedFiles = newClasspath - classpathRoots.keys
+        if (removedFiles.any { classpathRoots.getValue(it).type != JavaRoot.RootType.BINARY } || addedFiles.any { !it.isFile }) {
+            return false
+        }
+        
+        val newRoots = linkedMapOf<File, JavaRoot>()
+        for (file in newClasspath) {
+            val root = classpathRoots[file] ?: createJarRoot(file) ?: continue
+            newRoots[file] = root
+        }
+        
+        // Entries which are not configured explicitly (e.g. added by the script support) must stay in place
+        val otherRoots = getRoots() - classpathRoots.values
+        val removedRoots = classpathRoots.values - newRoots.values
+        
+        classpathRoots = newRoots
+        setRoots(newRoots.values + otherRoots)
+        cachedIndex = null
+        
+        if (removedRoots.isNotEmpty()) {
+            // Release handles of the removed archives
+            ZipHandler.clearFileAccessorCache()
+        }
+        
+        return true
+    }
+    
+    // Returns true if source entries of the project were changed, e.g. source folders or their inclusion patterns
+    @Synchronized
+    private fun updateSourceEntries(): Boolean {
+        val newSourceEntries = collectSourceEntries()
+        if (newSourceEntries == sourceEntries) return false
+        
+        sourceEntries = newSourceEntries
+        return true
+    }
+    
+    private fun collectSourceEntries(): List<IClasspathEntry> {
+        if (!javaProject.exists()) return emptyList()
+        
+        return javaProject.rawClasspath.filter { it.entryKind == IClasspathEntry.CPE_SOURCE }
     }
 
     companion object {
@@ -419,14 +506,53 @@ class KotlinEnvironment private constructor(val eclipseProject: IProject, dispos
         fun getEnvironment(eclipseProject: IProject): KotlinEnvironment {
             return cachedEnvironment.getOrCreateEnvironment(eclipseProject, environmentCreation)
         }
+        
+        @JvmStatic
+        fun getEnvironmentIfCreated(eclipseProject: IProject): KotlinEnvironment? {
+            return cachedEnvironment.getEnvironment(eclipseProject)
+        }
 
         @JvmStatic fun removeEnvironment(eclipseProject: IProject) {
+            getEnvironmentIfCreated(eclipseProject)?.let { KotlinDependenciesModuleCache.removeDependenciesCreatedBy(it) }
             cachedEnvironment.removeEnvironment(eclipseProject)
             KotlinPsiManager.invalidateCachedProjectSourceFiles()
             KotlinAnalysisFileCache.resetCache()
             KotlinAnalysisProjectCache.resetCache(eclipseProject)
         }
 
+        // Updates roots of the environment by the difference between the old and the new classpath of the project.
+        // Parsed sources are kept, only results of analysis are invalidated
+        @JvmStatic fun updateClasspath(eclipseProject: IProject) {
+            val environment = getEnvironmentIfCreated(eclipseProject) ?: return
+            
+            val (sourcesChanged, updated) = try {
+                Pair(environment.updateSourceEntries(), environment.updateClasspath())
+            } catch (e: JavaModelException) {
+                KotlinLogger.logError(e)
+                Pair(true, false)
+            }
+            
+            if (sourcesChanged) {
+                // Kotlin files of the project are collected by its source entries, light classes are mapped to them
+                KotlinPsiManager.refreshProjectSourceFiles(eclipseProject)
+                if (updated) {
+                    ServiceManager.getService(environment.project, KotlinLightClassManager::class.java).resetSources()
+                }
+            }
+            
+            if (updated) {
+                KotlinDependenciesModuleCache.classpathChanged(environment)
+                environment.javaBindingsCache.invalidate()
+                environment.javaClassNamesIndex.invalidateAll()
+                environment.symbolIndex.classpathChanged()
+                ServiceManager.getService(environment.project, KotlinLightClassManager::class.java).classpathChanged()
+                KotlinAnalysisFileCache.resetCache()
+                KotlinAnalysisProjectCache.resetCache(eclipseProject)
+            } else {
+                removeEnvironment(eclipseProject)
+            }
+        }
+
         @JvmStatic fun getJavaProject(project: Project): IProject? = cachedEnvironment.getEclipseResource(project)
     }
 }
\ No newline at end of file
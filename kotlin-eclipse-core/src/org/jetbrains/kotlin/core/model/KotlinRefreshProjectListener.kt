@@ -29,7 +29,7 @@ public object KotlinRefreshProjectListener : IResourceChangeListener {
     
     private fun tryUpdateLightClassesFor(resource: IResource?) {
         if (resource is IProject && KotlinNature.hasKotlinNature(resource)) {
-            KotlinLightClassGeneration.updateLightClasses(resource, emptySet())
+            KotlinLightClassGeneration.resyncLightClasses(resource)
         }
     }
 }
\ No newline at end of file
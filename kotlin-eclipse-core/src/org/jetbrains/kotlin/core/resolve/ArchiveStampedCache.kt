@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright 2000-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve
+
+import org.eclipse.core.runtime.IProgressMonitor
+import org.eclipse.core.runtime.IStatus
+import org.eclipse.core.runtime.Status
+import org.eclipse.core.runtime.jobs.Job
+import org.jetbrains.kotlin.core.Activator
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+
+data class ArchiveStamp(val path: String, val length: Long, val lastModified: Long) {
+    constructor(archive: File) : this(archive.absolutePath, archive.length(), archive.lastModified())
+
+    // Removed archives have zero size and modification time, so they are never up to date
+    fun isUpToDate(): Boolean = ArchiveStamp(File(path)) == this
+}
+
+// Values computed from archives, shared between projects and kept between sessions in the state location
+// of the plugin. Archives are identified by path, size and modification time, so a value is computed again
+// only after its archive is changed. Entries of removed and rewritten archives are dropped.
+class ArchiveStampedCache<V : Any>(
+        private val fileName: String,
+        private val description: String,
+        private val formatVersion: Int,
+        private val writeValue: (DataOutputStream, V) -> Unit,
+        private val readValue: (DataInputStream) -> V) {
+    companion object {
+        private const val SAVE_DELAY = 5000L
+    }
+
+    private val entries = ConcurrentHashMap<ArchiveStamp, V>()
+
+    private val saveJob = object : Job("Saving $description") {
+        override fun run(monitor: IProgressMonitor): IStatus {
+            save()
+            return Status.OK_STATUS
+        }
+    }.apply { isSystem = true }
+
+    init {
+        load()
+    }
+
+    fun getOrCompute(archive: File, compute: () -> V?): V? {
+        val stamp = ArchiveStamp(archive)
+        entries[stamp]?.let { return it }
+
+        val value = compute() ?: return null
+        val previous = entries.putIfAbsent(stamp, value)
+        if (previous != null) return previous
+
+        // Archive could be replaced, then the outdated entry is not needed anymore
+        entries.keys.removeAll { it.path == stamp.path && it != stamp }
+        saveJob.schedule(SAVE_DELAY)
+
+        return value
+    }
+
+    private fun save() {
+        val cacheFile = getCacheFile() ?: return
+
+        entries.keys.removeAll { !it.isUpToDate() }
+
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(cacheFile))).use { output ->
+                output.writeInt(formatVersion)
+
+                val savedEntries = entries.entries.toList()
+                output.writeInt(savedEntries.size)
+                for ((stamp, value) in savedEntries) {
+                    output.writeUTF(stamp.path)
+                    output.writeLong(stamp.length)
+                    output.writeLong(stamp.lastModified)
+
+                    writeValue(output, value)
+                }
+            }
+        } catch (e: IOException) {
+            KotlinLogger.logError("Cannot save $description", e)
+            cacheFile.delete()
+        }
+    }
+
+    private fun load() {
+        val cacheFile = getCacheFile() ?: return
+        if (!cacheFile.isFile) return
+
+        var hasOutdatedEntries = false
+        try {
+            DataInputStream(BufferedInputStream(FileInputStream(cacheFile))).use { input ->
+                if (input.readInt() != formatVersion) return
+
+                repeat(input.readInt()) {
+                    val stamp = ArchiveStamp(input.readUTF(), input.readLong(), input.readLong())
+                    val value = readValue(input)
+
+                    if (stamp.isUpToDate()) {
+                        entries[stamp] = value
+                    } else {
+                        hasOutdatedEntries = true
+                    }
+                }
+            }
+        } catch (e: IOException) {
+            KotlinLogger.logWarning("Cannot read $description: ${e.message}")
+            entries.clear()
+        }
+
+        if (hasOutdatedEntries) {
+            saveJob.schedule(SAVE_DELAY)
+        }
+    }
+
+    private fun getCacheFile(): File? {
+        val location = try {
+            Activator.getDefault()?.stateLocation
+        } catch (e: IllegalStateException) {
+            null
+        }
+
+        return location?.let { File(it.toFile(), fileName) }
+    }
+}
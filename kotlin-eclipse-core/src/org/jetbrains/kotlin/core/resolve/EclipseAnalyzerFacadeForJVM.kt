@@ -16,18 +16,12 @@
 *******************************************************************************/
 package org.jetbrains.kotlin.core.resolve
 
-import com.intellij.openapi.project.Project
-import com.intellij.psi.search.GlobalSearchScope
 import org.jetbrains.kotlin.analyzer.AnalysisResult
-import org.jetbrains.kotlin.builtins.JvmBuiltInsPackageFragmentProvider
 import org.jetbrains.kotlin.cli.jvm.compiler.CliLightClassGenerationSupport
 import org.jetbrains.kotlin.config.CommonConfigurationKeys
-import org.jetbrains.kotlin.config.CompilerConfiguration
-import org.jetbrains.kotlin.config.LanguageVersionSettingsImpl
 import org.jetbrains.kotlin.container.ComponentProvider
 import org.jetbrains.kotlin.container.ValueDescriptor
 import org.jetbrains.kotlin.context.ContextForNewModule
-import org.jetbrains.kotlin.context.MutableModuleContext
 import org.jetbrains.kotlin.context.ProjectContext
 import org.jetbrains.kotlin.core.log.KotlinLogger
 import org.jetbrains.kotlin.core.model.KotlinEnvironment
@@ -37,17 +31,15 @@ import org.jetbrains.kotlin.descriptors.ModuleDescriptor
 import org.jetbrains.kotlin.descriptors.PackageFragmentProvider
 import org.jetbrains.kotlin.descriptors.impl.CompositePackageFragmentProvider
 import org.jetbrains.kotlin.descriptors.impl.ModuleDependenciesImpl
-import org.jetbrains.kotlin.frontend.java.di.initJvmBuiltInsForTopDownAnalysis
 import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.name.Name
-import org.jetbrains.kotlin.platform.JvmBuiltIns
+import org.jetbrains.kotlin.psi.KtDeclaration
 import org.jetbrains.kotlin.psi.KtFile
 import org.jetbrains.kotlin.resolve.LazyTopDownAnalyzer
 import org.jetbrains.kotlin.resolve.TopDownAnalysisMode
 import org.jetbrains.kotlin.resolve.jvm.JavaDescriptorResolver
 import org.jetbrains.kotlin.resolve.jvm.extensions.PackageFragmentProviderExtension
 import org.jetbrains.kotlin.resolve.lazy.KotlinCodeAnalyzer
-import org.jetbrains.kotlin.resolve.lazy.declarations.DeclarationProviderFactory
 import org.jetbrains.kotlin.resolve.lazy.declarations.FileBasedDeclarationProviderFactory
 import org.jetbrains.kotlin.util.KotlinFrontEndException
 import java.lang.reflect.Type
@@ -57,7 +49,6 @@ import org.jetbrains.kotlin.frontend.java.di.createContainerForTopDownAnalyzerFo
 import org.jetbrains.kotlin.config.LanguageFeature
 import org.jetbrains.kotlin.storage.StorageManager
 import org.jetbrains.kotlin.cli.jvm.compiler.TopDownAnalyzerFacadeForJVM
-import org.jetbrains.kotlin.cli.jvm.compiler.TopDownAnalyzerFacadeForJVM.SourceOrBinaryModuleClassResolver
 import org.jetbrains.kotlin.config.JvmTarget
 import org.jetbrains.kotlin.load.java.sam.SamWithReceiverResolver
 import org.jetbrains.kotlin.core.model.SamWithReceiverResolverExtension
@@ -73,7 +64,8 @@ data class AnalysisResultWithProvider(val analysisResult: AnalysisResult, val co
 public object EclipseAnalyzerFacadeForJVM {
     public fun analyzeFilesWithJavaIntegration(
             environment: KotlinEnvironment,
-            filesToAnalyze: Collection<KtFile>): AnalysisResultWithProvider {
+            filesToAnalyze: Collection<KtFile>,
+            declarationsToAnalyze: Collection<KtDeclaration>? = null): AnalysisResultWithProvider {
         val filesSet = filesToAnalyze.toSet()
         if (filesSet.size != filesToAnalyze.size) {
             KotlinLogger.logWarning("Analyzed files have duplicates")
@@ -86,8 +78,13 @@ public object EclipseAnalyzerFacadeForJVM {
         }
         
         val project = environment.project
+        val dependencies = environment.analysisSession.getDependencies()
         
-        val moduleContext = createModuleContext(project, environment.configuration, true)
+        val moduleContext = ContextForNewModule(
+                ProjectContext(project),
+                Name.special("<${environment.configuration.getNotNull(CommonConfigurationKeys.MODULE_NAME)}>"),
+                dependencies.builtIns,
+                null)
         val storageManager = moduleContext.storageManager
         val module = moduleContext.module
         
@@ -95,57 +92,21 @@ public object EclipseAnalyzerFacadeForJVM {
         val trace = CliLightClassGenerationSupport.CliBindingTrace()
         
         val sourceScope = TopDownAnalyzerFacadeForJVM.newModuleSearchScope(project, filesToAnalyze)
-        val moduleClassResolver = SourceOrBinaryModuleClassResolver(sourceScope)
-
-        val languageVersionSettings = LanguageVersionSettingsImpl(
-                LanguageVersionSettingsImpl.DEFAULT.languageVersion,
-                LanguageVersionSettingsImpl.DEFAULT.apiVersion)
-        val optionalBuiltInsModule = JvmBuiltIns(storageManager).apply { initialize(module, true) }.builtInsModule
-        
-        val dependencyModule = run {
-            val dependenciesContext = ContextForNewModule(
-                    moduleContext, Name.special("<dependencies of ${environment.configuration.getNotNull(CommonConfigurationKeys.MODULE_NAME)}>"),
-                    module.builtIns, null
-            )
-            
-            val dependencyScope = GlobalSearchScope.notScope(sourceScope)
-            val dependenciesContainer = createContainerForTopDownAnalyzerForJvm(
-                dependenciesContext,
-                trace,
-                DeclarationProviderFactory.EMPTY,
-                dependencyScope,
-                LookupTracker.DO_NOTHING,
-                KotlinPackagePartProvider(environment),
-                JvmTarget.DEFAULT,
-                languageVersionSettings,
-                moduleClassResolver,
-                environment.javaProject)
-            
-            moduleClassResolver.compiledCodeResolver = dependenciesContainer.get<JavaDescriptorResolver>()
-            
-            dependenciesContext.setDependencies(listOfNotNull(dependenciesContext.module, optionalBuiltInsModule))
-            dependenciesContext.initializeModuleContents(CompositePackageFragmentProvider(listOf(
-                    moduleClassResolver.compiledCodeResolver.packageFragmentProvider,
-                    dependenciesContainer.get<JvmBuiltInsPackageFragmentProvider>()
-            )))
-            dependenciesContext.module
-        }
-        
-        
+        // Lookups are recorded only when files are analyzed completely
+        val lookupRecorder = if (declarationsToAnalyze == null) environment.lookupIndex.startRecording(filesSet) else null
+        val moduleClassResolver = EclipseModuleClassResolver(dependencies.librariesResolver)
         
         val container = createContainerForTopDownAnalyzerForJvm(
                 moduleContext,
                 trace,
                 providerFactory,
                 sourceScope,
-                LookupTracker.DO_NOTHING,
+                lookupRecorder ?: LookupTracker.DO_NOTHING,
                 KotlinPackagePartProvider(environment),
                 JvmTarget.DEFAULT,
-                languageVersionSettings,
+                dependencies.languageVersionSettings,
                 moduleClassResolver,
-                environment.javaProject).apply {
-            initJvmBuiltInsForTopDownAnalysis()
-        }
+                environment.javaProject)
         
         moduleClassResolver.sourceCodeResolver = container.get<JavaDescriptorResolver>()
         
@@ -157,8 +118,8 @@ public object EclipseAnalyzerFacadeForJVM {
         }
         
         module.setDependencies(ModuleDependenciesImpl(
-                listOfNotNull(module, dependencyModule, optionalBuiltInsModule),
-                setOf(dependencyModule)
+                listOfNotNull(module, dependencies.module, dependencies.optionalBuiltInsModule),
+                setOf(dependencies.module)
         ))
         module.initialize(CompositePackageFragmentProvider(
                 listOf(container.get<KotlinCodeAnalyzer>().packageFragmentProvider) +
@@ -166,7 +127,9 @@ public object EclipseAnalyzerFacadeForJVM {
         ))
         
         try {
-            container.get<LazyTopDownAnalyzer>().analyzeDeclarations(TopDownAnalysisMode.TopLevelDeclarations, filesSet)
+            container.get<LazyTopDownAnalyzer>().analyzeDeclarations(
+                    TopDownAnalysisMode.TopLevelDeclarations,
+                    declarationsToAnalyze ?: filesSet)
         } catch(e: KotlinFrontEndException) {
 //          Editor will break if we do not catch this exception
 //          and will not be able to save content without reopening it.
@@ -174,6 +137,8 @@ public object EclipseAnalyzerFacadeForJVM {
             KotlinLogger.logError(e)
         }
         
+        lookupRecorder?.commit()
+        
         return AnalysisResultWithProvider(
                 AnalysisResult.success(trace.getBindingContext(), module),
                 container)
@@ -214,20 +179,4 @@ public object EclipseAnalyzerFacadeForJVM {
     }
     
     private fun getPath(jetFile: KtFile): String? = jetFile.getVirtualFile()?.getPath()
-    
-    private fun createModuleContext(
-            project: Project,
-            configuration: CompilerConfiguration,
-            createBuiltInsFromModule: Boolean
-    ): MutableModuleContext {
-        val projectContext = ProjectContext(project)
-        val builtIns = JvmBuiltIns(projectContext.storageManager, !createBuiltInsFromModule)
-        return ContextForNewModule(
-                projectContext, Name.special("<${configuration.getNotNull(CommonConfigurationKeys.MODULE_NAME)}>"), builtIns, null
-        ).apply {
-            if (createBuiltInsFromModule) {
-                builtIns.builtInsModule = module
-            }
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve
+
+import org.eclipse.jdt.core.IJavaElement
+import org.eclipse.jdt.core.IPackageFragmentRoot
+import org.jetbrains.kotlin.core.resolve.lang.java.structure.EclipseJavaClass
+import org.jetbrains.kotlin.descriptors.ClassDescriptor
+import org.jetbrains.kotlin.load.java.lazy.ModuleClassResolver
+import org.jetbrains.kotlin.load.java.structure.JavaClass
+import org.jetbrains.kotlin.resolve.jvm.JavaDescriptorResolver
+
+// Classes from jar archives are resolved in the shared libraries module, all other java classes
+// are resolved in the module of analyzed sources
+class EclipseModuleClassResolver(private val librariesResolver: JavaDescriptorResolver) : ModuleClassResolver {
+    lateinit var sourceCodeResolver: JavaDescriptorResolver
+    
+    override fun resolveClass(javaClass: JavaClass): ClassDescriptor? {
+        val resolver = if (isFromArchive(javaClass)) librariesResolver else sourceCodeResolver
+        return resolver.resolveClass(javaClass)
+    }
+    
+    private fun isFromArchive(javaClass: JavaClass): Boolean {
+        val javaElement = (javaClass as? EclipseJavaClass)?.binding?.javaElement ?: return false
+        val root = javaElement.getAncestor(IJavaElement.PACKAGE_FRAGMENT_ROOT) as? IPackageFragmentRoot
+        return root?.isArchive ?: false
+    }
+}
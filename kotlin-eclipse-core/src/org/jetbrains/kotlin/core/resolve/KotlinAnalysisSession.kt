@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve
+
+import com.intellij.psi.search.GlobalSearchScope
+import org.jetbrains.kotlin.builtins.JvmBuiltInsPackageFragmentProvider
+import org.jetbrains.kotlin.cli.jvm.compiler.CliLightClassGenerationSupport
+import org.jetbrains.kotlin.cli.jvm.compiler.TopDownAnalyzerFacadeForJVM.SourceOrBinaryModuleClassResolver
+import org.jetbrains.kotlin.config.CommonConfigurationKeys
+import org.jetbrains.kotlin.config.JvmTarget
+import org.jetbrains.kotlin.config.LanguageVersionSettings
+import org.jetbrains.kotlin.config.LanguageVersionSettingsImpl
+import org.jetbrains.kotlin.context.ContextForNewModule
+import org.jetbrains.kotlin.context.ProjectContext
+import org.jetbrains.kotlin.core.model.KotlinEnvironment
+import org.jetbrains.kotlin.descriptors.ModuleDescriptor
+import org.jetbrains.kotlin.descriptors.impl.CompositePackageFragmentProvider
+import org.jetbrains.kotlin.descriptors.impl.ModuleDescriptorImpl
+import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.name.Name
+import org.jetbrains.kotlin.platform.JvmBuiltIns
+import org.jetbrains.kotlin.resolve.jvm.JavaDescriptorResolver
+import org.jetbrains.kotlin.resolve.lazy.declarations.DeclarationProviderFactory
+
+class DependenciesModule(
+        val module: ModuleDescriptorImpl,
+        val builtIns: JvmBuiltIns,
+        val optionalBuiltInsModule: ModuleDescriptor,
+        val librariesResolver: JavaDescriptorResolver,
+        val languageVersionSettings: LanguageVersionSettings)
+
+// Keeps the parts of analysis which do not depend on sources of the project (builtins and libraries)
+// resolved between analyses, so that only source module is created on each analysis
+class KotlinAnalysisSession(private val environment: KotlinEnvironment) {
+    fun getDependencies(): DependenciesModule {
+        return KotlinDependenciesModuleCache.getDependencies(environment) { createDependenciesModule() }
+    }
+
+    private fun createDependenciesModule(): DependenciesModule {
+        val project = environment.project
+        val moduleName = environment.configuration.getNotNull(CommonConfigurationKeys.MODULE_NAME)
+
+        val languageVersionSettings = LanguageVersionSettingsImpl(
+                LanguageVersionSettingsImpl.DEFAULT.languageVersion,
+                LanguageVersionSettingsImpl.DEFAULT.apiVersion)
+
+        val projectContext = ProjectContext(project)
+        val storageManager = projectContext.storageManager
+
+        val builtIns = JvmBuiltIns(storageManager, false)
+        val dependenciesContext = ContextForNewModule(
+                projectContext, Name.special("<dependencies of $moduleName>"), builtIns, null)
+        val module = dependenciesContext.module
+
+        builtIns.builtInsModule = module
+        builtIns.initialize(module, true)
+
+        val optionalBuiltInsModule = JvmBuiltIns(storageManager).apply { initialize(module, true) }.builtInsModule
+
+        // Sources are not resolved through dependencies module, so everything can be in its scope
+        val dependencyScope = GlobalSearchScope.notScope(GlobalSearchScope.EMPTY_SCOPE)
+        val moduleClassResolver = SourceOrBinaryModuleClassResolver(GlobalSearchScope.EMPTY_SCOPE)
+
+        val dependenciesContainer = createContainerForTopDownAnalyzerForJvm(
+                dependenciesContext,
+                CliLightClassGenerationSupport.CliBindingTrace(),
+                DeclarationProviderFactory.EMPTY,
+                dependencyScope,
+                LookupTracker.DO_NOTHING,
+                KotlinPackagePartProvider(environment),
+                JvmTarget.DEFAULT,
+                languageVersionSettings,
+                moduleClassResolver,
+                environment.javaProject,
+                librariesOnly = true)
+
+        // Eclipse java classes are never bound to virtual files, so they are always resolved as compiled ones
+        val librariesResolver = dependenciesContainer.get<JavaDescriptorResolver>()
+        moduleClassResolver.compiledCodeResolver = librariesResolver
+        moduleClassResolver.sourceCodeResolver = librariesResolver
+
+        dependenciesContext.setDependencies(listOfNotNull(module, optionalBuiltInsModule))
+        dependenciesContext.initializeModuleContents(CompositePackageFragmentProvider(listOf(
+                librariesResolver.packageFragmentProvider,
+                dependenciesContainer.get<JvmBuiltInsPackageFragmentProvider>()
+        )))
+
+        return DependenciesModule(module, builtIns, optionalBuiltInsModule, librariesResolver, languageVersionSettings)
+    }
+}
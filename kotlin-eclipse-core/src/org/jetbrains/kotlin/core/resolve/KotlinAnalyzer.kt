@@ -20,6 +20,7 @@ import org.eclipse.core.resources.IProject
 import org.jetbrains.kotlin.core.model.KotlinAnalysisFileCache
 import org.jetbrains.kotlin.core.model.KotlinEnvironment
 import org.jetbrains.kotlin.core.model.getEnvironment
+import org.jetbrains.kotlin.psi.KtDeclaration
 import org.jetbrains.kotlin.psi.KtFile
 
 object KotlinAnalyzer {
@@ -48,6 +49,16 @@ object KotlinAnalyzer {
         }
     }
     
+    // Only bodies of the given declarations are resolved, the rest of the file is resolved lazily when it is needed
+    fun analyzeDeclarations(file: KtFile, declarations: Collection<KtDeclaration>): AnalysisResultWithProvider {
+        val environment = getEnvironment(file.project)
+        return if (environment is KotlinEnvironment) {
+            EclipseAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegration(environment, listOf(file), declarations)
+        } else {
+            analyzeFile(file)
+        }
+    }
+    
     fun analyzeProject(eclipseProject: IProject): AnalysisResultWithProvider {
         val environment = KotlinEnvironment.getEnvironment(eclipseProject)
         return analyzeFiles(environment, emptyList())
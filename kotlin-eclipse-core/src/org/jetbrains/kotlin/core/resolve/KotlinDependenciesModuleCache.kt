@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve
+
+import com.intellij.openapi.vfs.StandardFileSystems
+import org.eclipse.core.resources.IFile
+import org.eclipse.core.resources.IResourceChangeEvent
+import org.eclipse.core.resources.IResourceChangeListener
+import org.jetbrains.kotlin.cli.jvm.index.JavaRoot
+import org.jetbrains.kotlin.core.model.KotlinEnvironment
+import java.io.File
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+
+data class ClasspathEntryStamp(val path: String, val length: Long, val lastModified: Long)
+
+data class ClasspathFingerprint(val entries: List<ClasspathEntryStamp>)
+
+// Dependencies modules are resolved only from binary roots, so projects with the same binary classpath
+// can share one module. It stays valid while none of the roots is changed on disk.
+object KotlinDependenciesModuleCache : IResourceChangeListener {
+    private class CachedDependencies(val owner: KotlinEnvironment, val dependencies: FutureTask<DependenciesModule>)
+    
+    // Roots are stamped once per classpath of the environment and again after archives or binary directories are changed
+    private val fingerprints = ConcurrentHashMap<KotlinEnvironment, ClasspathFingerprint>()
+    
+    // Binary directories of stamped classpaths, usually output folders of other projects rewritten by their builds
+    private val directoryRoots = Collections.newSetFromMap(ConcurrentHashMap<String, Boolean>())
+    
+    private val cachedDependencies = hashMapOf<ClasspathFingerprint, CachedDependencies>()
+    
+    // Module is created without the lock, concurrent analyses with the same classpath wait for the one being created
+    fun getDependencies(environment: KotlinEnvironment, create: () -> DependenciesModule): DependenciesModule {
+        val fingerprint = fingerprints.getOrPut(environment) { computeFingerprint(environment) }
+        
+        var created = false
+        val task = synchronized(this) {
+            cachedDependencies[fingerprint]?.dependencies ?: run {
+                // Module for the previous state of the same classpath is not needed anymore
+                cachedDependencies.values.removeAll { it.owner == environment }
+                
+                created = true
+                FutureTask<DependenciesModule> { create() }.also { cachedDependencies[fingerprint] = CachedDependencies(environment, it) }
+            }
+        }
+        
+        if (created) task.run()
+        
+        return try {
+            task.get()
+        } catch (e: ExecutionException) {
+            // Failed creation is not cached, so that the next analysis tries again
+            synchronized(this) {
+                if (cachedDependencies[fingerprint]?.dependencies === task) cachedDependencies.remove(fingerprint)
+            }
+            throw e.cause ?: e
+        }
+    }
+    
+    fun classpathChanged(environment: KotlinEnvironment) {
+        fingerprints.remove(environment)
+    }
+    
+    fun archivesChanged() {
+        fingerprints.clear()
+    }
+    
+    // Descriptors of the module refer to virtual files of the environment which created it
+    @Synchronized
+    fun removeDependenciesCreatedBy(environment: KotlinEnvironment) {
+        fingerprints.remove(environment)
+        cachedDependencies.values.removeAll { it.owner == environment }
+    }
+    
+    @Synchronized
+    fun resetCache() {
+        fingerprints.clear()
+        directoryRoots.clear()
+        cachedDependencies.clear()
+    }
+    
+    override fun resourceChanged(event: IResourceChangeEvent) {
+        if (directoryRoots.isEmpty()) return
+        
+        var rootChanged = false
+        event.delta?.accept { delta ->
+            val resource = delta.resource
+            if (resource is IFile) {
+                val location = resource.location?.toOSString()
+                if (location != null && directoryRoots.any { location.startsWith(it + File.separator) }) {
+                    rootChanged = true
+                }
+                
+                return@accept false
+            }
+            
+            !rootChanged
+        }
+        
+        if (rootChanged) fingerprints.clear()
+    }
+    
+    private fun computeFingerprint(environment: KotlinEnvironment): ClasspathFingerprint {
+        val entries = environment.getRoots()
+                .filter { it.type == JavaRoot.RootType.BINARY }
+                .map { root ->
+                    val file = File(root.file.path.removeSuffix(StandardFileSystems.JAR_SEPARATOR))
+                    if (file.isDirectory) {
+                        directoryRoots.add(file.absolutePath)
+                        computeDirectoryStamp(file)
+                    } else {
+                        ClasspathEntryStamp(file.absolutePath, file.length(), file.lastModified())
+                    }
+                }
+        
+        return ClasspathFingerprint(entries)
+    }
+    
+    // Length and modification time of a directory do not change with its files. Modification times of nested
+    // directories change when files are added or removed, and times of files change when they are rewritten.
+    private fun computeDirectoryStamp(directory: File): ClasspathEntryStamp {
+        var length = 0L
+        var lastModified = 0L
+        for (file in directory.walkTopDown()) {
+            if (file.isFile) length += file.length()
+            lastModified = maxOf(lastModified, file.lastModified())
+        }
+        
+        return ClasspathEntryStamp(directory.absolutePath, length, lastModified)
+    }
+}
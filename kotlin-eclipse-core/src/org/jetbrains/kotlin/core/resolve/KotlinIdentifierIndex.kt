@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve
+
+import com.intellij.openapi.util.io.FileUtil
+import org.eclipse.core.resources.IFile
+import org.eclipse.core.resources.IProject
+import org.eclipse.core.resources.IResource
+import org.eclipse.core.runtime.IProgressMonitor
+import org.eclipse.core.runtime.IStatus
+import org.eclipse.core.runtime.Status
+import org.eclipse.core.runtime.jobs.Job
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.core.model.KotlinJavaManager
+import org.jetbrains.kotlin.lexer.KotlinLexer
+import org.jetbrains.kotlin.lexer.KtTokens
+import org.jetbrains.kotlin.psi.KtFile
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.lang.ref.WeakReference
+
+private class FileIdentifiers(
+        // Stamp of the file on disk, or IResource.NULL_STAMP if identifiers were collected from a committed document
+        val modificationStamp: Long,
+        val identifiers: Set<String>,
+        val parsedFile: WeakReference<KtFile>? = null,
+        val parsedFileStamp: Long = 0)
+
+// Identifiers which occur in Kotlin source files of the project. Search uses it to resolve references only
+// in files which contain the searched name instead of scanning text of all files.
+class KotlinIdentifierIndex(private val project: IProject) {
+    companion object {
+        private const val INDEX_FILE_NAME = "identifiers.index"
+        private const val FORMAT_VERSION = 1
+        private const val SAVE_DELAY = 5000L
+    }
+
+    private val identifiersByFile = hashMapOf<String, FileIdentifiers>()
+
+    private var loaded = false
+
+    // Search is not blocked by writing of the index, changes of several searches are saved together
+    private val saveJob = object : Job("Saving index of identifiers of ${project.name}") {
+        override fun run(monitor: IProgressMonitor): IStatus {
+            save()
+            return Status.OK_STATUS
+        }
+    }.apply { isSystem = true }
+
+    // Returns files which contain all the given identifiers
+    @Synchronized
+    fun filterFilesContaining(files: Collection<IFile>, identifiers: Collection<String>): List<IFile> {
+        if (!loaded) {
+            load()
+            loaded = true
+        }
+
+        var changed = false
+        val result = files.filter { file ->
+            val path = file.fullPath.toPortableString()
+            val fileIdentifiers = identifiersByFile[path]?.takeIf { isUpToDate(it, file) } ?: run {
+                changed = true
+                collectIdentifiers(file).also { identifiersByFile[path] = it }
+            }
+
+            fileIdentifiers.identifiers.containsAll(identifiers)
+        }
+
+        if (changed) {
+            val projectFiles = KotlinPsiManager.getFilesByProject(project).map { it.fullPath.toPortableString() }.toSet()
+            identifiersByFile.keys.retainAll(projectFiles)
+            saveJob.schedule(SAVE_DELAY)
+        }
+
+        return result
+    }
+
+    private fun isUpToDate(fileIdentifiers: FileIdentifiers, file: IFile): Boolean {
+        if (KotlinPsiManager.isCommitted(file)) {
+            val parsedFile = KotlinPsiManager.getParsedFile(file)
+            return fileIdentifiers.parsedFile?.get() === parsedFile && fileIdentifiers.parsedFileStamp == parsedFile.modificationStamp
+        }
+
+        return fileIdentifiers.modificationStamp != IResource.NULL_STAMP && fileIdentifiers.modificationStamp == file.modificationStamp
+    }
+
+    private fun collectIdentifiers(file: IFile): FileIdentifiers {
+        if (KotlinPsiManager.isCommitted(file)) {
+            val parsedFile = KotlinPsiManager.getParsedFile(file)
+            return FileIdentifiers(IResource.NULL_STAMP, collectIdentifiers(parsedFile.text),
+                    WeakReference(parsedFile), parsedFile.modificationStamp)
+        }
+
+        val location = file.location ?: return FileIdentifiers(IResource.NULL_STAMP, emptySet())
+        return try {
+            FileIdentifiers(file.modificationStamp, collectIdentifiers(FileUtil.loadFile(location.toFile(), null, true)))
+        } catch (e: IOException) {
+            KotlinLogger.logWarning("Cannot read ${file.fullPath}: ${e.message}")
+            FileIdentifiers(IResource.NULL_STAMP, emptySet())
+        }
+    }
+
+    // Lexer is enough to find identifiers and it's much faster than parser
+    private fun collectIdentifiers(text: CharSequence): Set<String> {
+        val identifiers = hashSetOf<String>()
+        val lexer = KotlinLexer()
+        lexer.start(text)
+        while (lexer.tokenType != null) {
+            if (lexer.tokenType == KtTokens.IDENTIFIER) {
+                identifiers.add(lexer.tokenText.removeSurrounding("`"))
+            }
+            lexer.advance()
+        }
+
+        return identifiers
+    }
+
+    private fun getIndexFile(): File? {
+        val location = KotlinJavaManager.getKotlinCacheFolderFor(project).location ?: return null
+        return File(location.toFile(), INDEX_FILE_NAME)
+    }
+
+    private fun load() {
+        val indexFile = getIndexFile() ?: return
+        if (!indexFile.isFile) return
+
+        try {
+            DataInputStream(BufferedInputStream(FileInputStream(indexFile))).use { input ->
+                if (input.readInt() != FORMAT_VERSION) return
+
+                repeat(input.readInt()) {
+                    val path = input.readUTF()
+                    val stamp = input.readLong()
+                    val identifiers = (1..input.readInt()).mapTo(hashSetOf()) { input.readUTF() }
+                    identifiersByFile[path] = FileIdentifiers(stamp, identifiers)
+                }
+            }
+        } catch (e: IOException) {
+            KotlinLogger.logWarning("Cannot read index of identifiers: ${e.message}")
+            identifiersByFile.clear()
+        }
+    }
+
+    private fun save() {
+        val indexFile = getIndexFile() ?: return
+        if (!indexFile.parentFile.isDirectory && !indexFile.parentFile.mkdirs()) return
+
+        // Identifiers of unsaved documents are not valid after restart
+        val entries = synchronized(this) { identifiersByFile.filterValues { it.modificationStamp != IResource.NULL_STAMP } }
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(indexFile))).use { output ->
+                output.writeInt(FORMAT_VERSION)
+                output.writeInt(entries.size)
+                for ((path, fileIdentifiers) in entries) {
+                    output.writeUTF(path)
+                    output.writeLong(fileIdentifiers.modificationStamp)
+                    output.writeInt(fileIdentifiers.identifiers.size)
+                    fileIdentifiers.identifiers.forEach { output.writeUTF(it) }
+                }
+            }
+        } catch (e: IOException) {
+            KotlinLogger.logError("Cannot save index of identifiers", e)
+            indexFile.delete()
+        }
+    }
+}
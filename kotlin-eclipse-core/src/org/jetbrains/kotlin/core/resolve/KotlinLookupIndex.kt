@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve
+
+import org.eclipse.core.resources.IFile
+import org.eclipse.core.resources.ResourcesPlugin
+import org.eclipse.core.runtime.Path
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.incremental.LookupSymbol
+import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.incremental.components.Position
+import org.jetbrains.kotlin.incremental.components.ScopeKind
+import org.jetbrains.kotlin.lexer.KtTokens
+import org.jetbrains.kotlin.psi.KtClassOrObject
+import org.jetbrains.kotlin.psi.KtDeclaration
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtNamedFunction
+import org.jetbrains.kotlin.psi.KtProperty
+import java.util.concurrent.ConcurrentHashMap
+
+private class FileDeclarations(
+        // Hash of the signature for every declared symbol, so that changes in bodies are not propagated
+        val signatures: Map<LookupSymbol, Int>,
+        // Short names of supertypes for every declared class, to propagate changes of members to subclasses
+        val supertypes: Map<String, List<String>>)
+
+// Records names which are looked up during analysis of project files. It allows to find files which
+// can be affected by changes in declarations of other files without analysis of the whole project.
+class KotlinLookupIndex {
+    companion object {
+        private const val MAX_SUBCLASSES_DEPTH = 10
+    }
+
+    private val filesBySymbol = ConcurrentHashMap<LookupSymbol, MutableSet<String>>()
+
+    private val symbolsByFile = ConcurrentHashMap<String, MutableSet<LookupSymbol>>()
+
+    private val declarationsByFile = ConcurrentHashMap<String, FileDeclarations>()
+
+    // Dependents can be computed only after all files of the project were analyzed with this index
+    @Volatile var isComplete = false
+        private set
+
+    // Lookups of one analysis replace the previous lookups of the analyzed files only when the analysis is finished,
+    // so concurrent analyses of the same file (e.g. by the builder and the reconciler) do not remove each other's lookups
+    inner class Recorder(private val analyzedFiles: Collection<KtFile>) : LookupTracker {
+        private val recordedSymbols = ConcurrentHashMap<String, MutableSet<LookupSymbol>>()
+
+        override val requiresPosition: Boolean = false
+
+        override fun record(filePath: String, position: Position, scopeFqName: String, scopeKind: ScopeKind, name: String) {
+            recordedSymbols.getOrPut(filePath) { ConcurrentHashMap.newKeySet() }.add(LookupSymbol(name, scopeFqName))
+        }
+
+        fun commit() {
+            replaceLookups(analyzedFiles.map { it.virtualFilePath }, recordedSymbols)
+        }
+    }
+
+    fun startRecording(analyzedFiles: Collection<KtFile>): Recorder = Recorder(analyzedFiles)
+
+    // Bodies of analyzed files were resolved again, so their previous lookups are outdated
+    @Synchronized
+    private fun replaceLookups(analyzedPaths: Collection<String>, lookups: Map<String, Set<LookupSymbol>>) {
+        for (filePath in analyzedPaths) {
+            symbolsByFile.remove(filePath)?.forEach { filesBySymbol[it]?.remove(filePath) }
+        }
+
+        for ((filePath, symbols) in lookups) {
+            symbolsByFile.getOrPut(filePath) { ConcurrentHashMap.newKeySet() }.addAll(symbols)
+            for (symbol in symbols) {
+                filesBySymbol.getOrPut(symbol) { ConcurrentHashMap.newKeySet() }.add(filePath)
+            }
+        }
+    }
+
+    fun markComplete(analyzedFiles: Collection<KtFile>) {
+        for (file in analyzedFiles) {
+            declarationsByFile[file.virtualFilePath] = collectDeclarations(file)
+        }
+
+        isComplete = true
+    }
+
+    // Returns files which can be affected by changes in the given files, excluding the changed files themselves
+    fun updateAndGetDependentFiles(changedFiles: Collection<IFile>): Set<IFile> {
+        val changedPaths = hashSetOf<String>()
+        val dirtySymbols = hashSetOf<LookupSymbol>()
+        val supertypes = hashMapOf<String, List<String>>()
+
+        for (file in changedFiles) {
+            val filePath = file.rawLocation?.toOSString() ?: continue
+            changedPaths.add(filePath)
+
+            val newDeclarations = if (file.exists() && KotlinPsiManager.existsSourceFile(file)) {
+                collectDeclarations(KotlinPsiManager.getParsedFile(file))
+            } else {
+                null
+            }
+
+            val oldDeclarations = if (newDeclarations != null) {
+                declarationsByFile.put(filePath, newDeclarations)
+            } else {
+                declarationsByFile.remove(filePath)
+            }
+
+            dirtySymbols.addAll(computeChangedSymbols(oldDeclarations, newDeclarations))
+            oldDeclarations?.let { supertypes.putAll(it.supertypes) }
+            newDeclarations?.let { supertypes.putAll(it.supertypes) }
+        }
+
+        addSymbolsOfSubclasses(dirtySymbols, supertypes.keys)
+
+        return getFilesWithLookups(dirtySymbols, changedPaths)
+    }
+
+    // Returns files which look up the given symbols of declarations outside of project sources (e.g. java classes),
+    // scopes of the symbols are considered as changed classes
+    fun getDependentFiles(changedSymbols: Set<LookupSymbol>): Set<IFile> {
+        val dirtySymbols = changedSymbols.toHashSet()
+        addSymbolsOfSubclasses(dirtySymbols, changedSymbols.map { it.scope }.toSet())
+
+        return getFilesWithLookups(dirtySymbols, emptySet())
+    }
+
+    private fun getFilesWithLookups(symbols: Set<LookupSymbol>, excludedPaths: Set<String>): Set<IFile> {
+        return symbols
+                .flatMap { filesBySymbol[it] ?: emptySet<String>() }
+                .filterNot { it in excludedPaths }
+                .mapNotNull { ResourcesPlugin.getWorkspace().root.getFileForLocation(Path(it)) }
+                .filter { it.exists() && KotlinPsiManager.existsSourceFile(it) }
+                .toSet()
+    }
+
+    private fun computeChangedSymbols(oldDeclarations: FileDeclarations?, newDeclarations: FileDeclarations?): Set<LookupSymbol> {
+        val oldSignatures = oldDeclarations?.signatures ?: emptyMap()
+        val newSignatures = newDeclarations?.signatures ?: emptyMap()
+
+        return (oldSignatures.keys + newSignatures.keys)
+                .filter { oldSignatures[it] != newSignatures[it] }
+                .toSet()
+    }
+
+    // Members of a class are looked up in scopes of its subclasses, so changed members are also dirty for them
+    private fun addSymbolsOfSubclasses(dirtySymbols: MutableSet<LookupSymbol>, changedClasses: Set<String>) {
+        var classes = changedClasses
+        for (depth in 1..MAX_SUBCLASSES_DEPTH) {
+            val dirtyMembers = dirtySymbols.filter { it.scope in classes }
+            if (dirtyMembers.isEmpty()) return
+
+            val subclasses = findDirectSubclasses(classes)
+            if (subclasses.isEmpty()) return
+
+            for (member in dirtyMembers) {
+                subclasses.mapTo(dirtySymbols) { LookupSymbol(member.name, it) }
+            }
+
+            classes = subclasses
+        }
+    }
+
+    private fun findDirectSubclasses(classes: Set<String>): Set<String> {
+        val shortNames = classes.map { it.substringAfterLast('.') }.toSet()
+        return declarationsByFile.values
+                .flatMap { it.supertypes.entries }
+                .filter { (_, supertypes) -> supertypes.any { it in shortNames } }
+                .map { it.key }
+                .toSet()
+    }
+
+    private fun collectDeclarations(file: KtFile): FileDeclarations {
+        val signatures = hashMapOf<LookupSymbol, Int>()
+        val supertypes = hashMapOf<String, List<String>>()
+
+        fun collect(declarations: List<KtDeclaration>, scope: String) {
+            for (declaration in declarations) {
+                val name = declaration.name ?: continue
+                val symbol = LookupSymbol(name, scope)
+
+                // Overloads share one symbol
+                signatures[symbol] = 31 * (signatures[symbol] ?: 0) + getSignatureText(declaration).hashCode()
+
+                if (declaration is KtClassOrObject) {
+                    val classFqName = declaration.fqName?.asString() ?: continue
+
+                    supertypes[classFqName] = declaration.superTypeListEntries.mapNotNull {
+                        it.typeReference?.text?.substringBefore('<')?.substringAfterLast('.')
+                    }
+
+                    for (parameter in declaration.primaryConstructorParameters) {
+                        val parameterName = parameter.name
+                        if (parameter.hasValOrVar() && parameterName != null) {
+                            signatures[LookupSymbol(parameterName, classFqName)] = parameter.text.hashCode()
+                        }
+                    }
+
+                    collect(declaration.declarations, classFqName)
+                }
+            }
+        }
+
+        collect(file.declarations, file.packageFqName.asString())
+
+        return FileDeclarations(signatures, supertypes)
+    }
+
+    // Bodies affect other files only when the type of a declaration is inferred from them
+    private fun getSignatureText(declaration: KtDeclaration): String {
+        return when (declaration) {
+            is KtNamedFunction -> {
+                val body = declaration.bodyExpression
+                if (body != null && (declaration.hasBlockBody() || declaration.hasDeclaredReturnType())) {
+                    declaration.text.removeRange(body.startOffsetInParent, body.startOffsetInParent + body.textLength)
+                } else {
+                    declaration.text
+                }
+            }
+
+            is KtProperty -> {
+                val typeReference = declaration.typeReference
+                if (typeReference != null) {
+                    listOfNotNull(
+                            declaration.modifierList?.text,
+                            declaration.valOrVarKeyword.text,
+                            declaration.receiverTypeReference?.text,
+                            declaration.name,
+                            typeReference.text,
+                            // Values of constants are inlined into the callers
+                            declaration.initializer?.takeIf { declaration.hasModifier(KtTokens.CONST_KEYWORD) }?.text
+                    ).joinToString(" ")
+                } else {
+                    declaration.text
+                }
+            }
+
+            is KtClassOrObject -> {
+                val body = declaration.getBody()
+                if (body != null) {
+                    declaration.text.removeRange(body.startOffsetInParent, body.startOffsetInParent + body.textLength)
+                } else {
+                    declaration.text
+                }
+            }
+
+            else -> declaration.text
+        }
+    }
+}
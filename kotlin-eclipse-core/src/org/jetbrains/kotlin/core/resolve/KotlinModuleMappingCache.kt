@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright 2000-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve
+
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.openapi.vfs.VirtualFile
+import org.jetbrains.kotlin.config.LanguageVersionSettingsImpl
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.load.kotlin.ModuleMapping
+import org.jetbrains.kotlin.resolve.CompilerDeserializationConfiguration
+import java.io.File
+import java.io.IOException
+
+// Module mappings (META-INF/*.kotlin_module) of archives from classpaths of all environments, their module files
+// are read once and are kept between sessions
+object KotlinModuleMappingCache {
+    private const val CACHE_FILE_NAME = "module-mappings.cache"
+    private const val FORMAT_VERSION = 1
+
+    private class ModuleFile(val name: String, val contents: ByteArray)
+
+    // Module files are persisted as they are, mappings are created from them once per session
+    private class ArchiveModules(val moduleFiles: List<ModuleFile>) {
+        val mappings: List<ModuleMapping> by lazy(LazyThreadSafetyMode.PUBLICATION) {
+            moduleFiles.mapNotNull { createMapping(it.contents, it.name) }
+        }
+    }
+
+    private val deserializationConfiguration = CompilerDeserializationConfiguration(LanguageVersionSettingsImpl.DEFAULT)
+
+    private val archiveModules = ArchiveStampedCache<ArchiveModules>(
+            CACHE_FILE_NAME,
+            "Kotlin module mappings",
+            FORMAT_VERSION,
+            { output, modules ->
+                output.writeInt(modules.moduleFiles.size)
+                for (moduleFile in modules.moduleFiles) {
+                    output.writeUTF(moduleFile.name)
+                    output.writeInt(moduleFile.contents.size)
+                    output.write(moduleFile.contents)
+                }
+            },
+            { input ->
+                val moduleFiles = (1..input.readInt()).map {
+                    val name = input.readUTF()
+                    val contents = ByteArray(input.readInt())
+                    input.readFully(contents)
+                    ModuleFile(name, contents)
+                }
+                ArchiveModules(moduleFiles)
+            })
+
+    // Module files of directories can be changed at any moment, so they are read every time
+    fun getModuleMappings(root: VirtualFile): List<ModuleMapping> {
+        val archive = File(root.path.removeSuffix(StandardFileSystems.JAR_SEPARATOR))
+        if (!archive.isFile) {
+            return readModuleFiles(root).mapNotNull { createMapping(it.contents, it.name) }
+        }
+
+        return archiveModules.getOrCompute(archive) { ArchiveModules(readModuleFiles(root)) }?.mappings ?: emptyList()
+    }
+
+    private fun readModuleFiles(root: VirtualFile): List<ModuleFile> {
+        val metaInf = root.findChild("META-INF") ?: return emptyList()
+        return metaInf.children
+                .filter { it.name.endsWith(ModuleMapping.MAPPING_FILE_EXT) }
+                .mapNotNull { moduleFile ->
+                    try {
+                        ModuleFile(moduleFile.toString(), moduleFile.contentsToByteArray())
+                    } catch (e: IOException) {
+                        KotlinLogger.logWarning("Cannot read package parts from $moduleFile: ${e.message}")
+                        null
+                    }
+                }
+    }
+
+    private fun createMapping(contents: ByteArray, name: String): ModuleMapping? {
+        return try {
+            ModuleMapping.create(contents, name, deserializationConfiguration)
+        } catch (e: IOException) {
+            KotlinLogger.logWarning("Cannot read package parts from $name: ${e.message}")
+            null
+        }
+    }
+}
\ No newline at end of file
@@ -21,25 +21,19 @@ import org.jetbrains.kotlin.core.model.KotlinCommonEnvironment
 import org.jetbrains.kotlin.descriptors.PackagePartProvider
 import org.jetbrains.kotlin.load.kotlin.ModuleMapping
 import org.jetbrains.kotlin.load.kotlin.PackageParts
-import org.jetbrains.kotlin.utils.SmartList
-import java.io.EOFException
-import org.jetbrains.kotlin.resolve.CompilerDeserializationConfiguration
-import org.jetbrains.kotlin.config.LanguageVersionSettings
-import org.jetbrains.kotlin.config.LanguageVersionSettingsImpl
+import java.util.concurrent.ConcurrentHashMap
 
+// Package parts are looked up without locks, as module mappings of all roots are shared between environments
 public class KotlinPackagePartProvider(private val environment: KotlinCommonEnvironment) : PackagePartProvider {
     private data class ModuleMappingInfo(val root: VirtualFile, val mapping: ModuleMapping)
     
-    private val notLoadedRoots by lazy(LazyThreadSafetyMode.NONE) {
-            environment.getRoots()
-            .map { it.file }
-            .filter { it.findChild("META-INF") != null }
-            .toMutableList()
+    private val loadedModules: List<ModuleMappingInfo> by lazy(LazyThreadSafetyMode.PUBLICATION) {
+        environment.getRoots().flatMap { root ->
+            KotlinModuleMappingCache.getModuleMappings(root.file).map { ModuleMappingInfo(root.file, it) }
+        }
     }
     
-    private val loadedModules: MutableList<ModuleMappingInfo> = SmartList()
-    
-    private val deserializationConfiguration = CompilerDeserializationConfiguration(LanguageVersionSettingsImpl.DEFAULT)
+    private val packagePartsByPackage = ConcurrentHashMap<String, Map<VirtualFile, PackageParts>>()
 
     override fun findPackageParts(packageFqName: String): List<String> {
         val rootToPackageParts = getPackageParts(packageFqName)
@@ -62,47 +56,16 @@ public class KotlinPackagePartProvider(private val environment: KotlinCommonEnvi
     override fun findMetadataPackageParts(packageFqName: String): List<String> =
             getPackageParts(packageFqName).values.flatMap(PackageParts::metadataParts).distinct()
 
-    @Synchronized
     private fun getPackageParts(packageFqName: String): Map<VirtualFile, PackageParts> {
-        processNotLoadedRelevantRoots(packageFqName)
-
+        packagePartsByPackage[packageFqName]?.let { return it }
+        
         val result = mutableMapOf<VirtualFile, PackageParts>()
         for ((root, mapping) in loadedModules) {
             val newParts = mapping.findPackageParts(packageFqName) ?: continue
-            result[root]?.let { parts -> parts += newParts } ?: result.put(root, newParts)
-        }
-        return result
-    }
-
-    private fun processNotLoadedRelevantRoots(packageFqName: String) {
-        if (notLoadedRoots.isEmpty()) return
-
-        val pathParts = packageFqName.split('.')
-
-        val relevantRoots = notLoadedRoots.filter {
-            //filter all roots by package path existing
-            pathParts.fold(it) {
-                parent, part ->
-                if (part.isEmpty()) parent
-                else parent.findChild(part) ?: return@filter false
-            }
-            true
-        }
-        notLoadedRoots.removeAll(relevantRoots)
-
-        for (root in relevantRoots) {
-            val metaInf = root.findChild("META-INF") ?: continue
-            val moduleFiles = metaInf.children.filter { it.name.endsWith(ModuleMapping.MAPPING_FILE_EXT) }
-            for (moduleFile in moduleFiles) {
-                val mapping = try {
-                    ModuleMapping.create(moduleFile.contentsToByteArray(), moduleFile.toString(), deserializationConfiguration)
-                }
-                catch (e: EOFException) {
-                    throw RuntimeException("Error on reading package parts for '$packageFqName' package in '$moduleFile', " +
-                                           "roots: $notLoadedRoots", e)
-                }
-                loadedModules.add(ModuleMappingInfo(root, mapping))
-            }
+            // Parts of shared mappings are merged into a new instance to keep the mappings unchanged
+            result.getOrPut(root) { PackageParts(packageFqName) } += newParts
         }
+        
+        return packagePartsByPackage.putIfAbsent(packageFqName, result) ?: result
     }
 }
\ No newline at end of file
@@ -1,9 +1,5 @@
 package org.jetbrains.kotlin.core.resolve;
 
-import java.io.File;
-import java.util.Map;
-import java.util.WeakHashMap;
-
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.jdt.core.IJavaProject;
@@ -25,8 +21,6 @@ import com.intellij.openapi.project.Project;
 
 public class KotlinSourceIndex {
     
-    private final Map<IPackageFragmentRoot, LibrarySourcesIndex> packageIndexes = new WeakHashMap<>();
-    
     public static KotlinSourceIndex getInstance(IJavaProject javaProject) {
         Project ideaProject = KotlinEnvironment.Companion.getEnvironment(javaProject.getProject()).getProject();
         return ServiceManager.getService(ideaProject, KotlinSourceIndex.class);
@@ -49,7 +43,7 @@ public class KotlinSourceIndex {
     
     @Nullable
     public static char[] getSource(SourceMapper mapper, String sourceFileName, IPath packageFolder, IPath sourcePath) {
-        LibrarySourcesIndex index = createSourcesIndex(sourcePath);
+        LibrarySourcesIndex index = getSourcesIndex(sourcePath);
         String result = index != null ? index.resolve(sourceFileName, packageFolder) : null;
         return result != null ? 
                 mapper.findSource(result) : mapper.findSource(packageFolder.append(sourceFileName).toPortableString());
@@ -68,10 +62,6 @@ public class KotlinSourceIndex {
     
     @Nullable
     private LibrarySourcesIndex getIndexForRoot(IPackageFragmentRoot packageRoot) {
-        LibrarySourcesIndex result = packageIndexes.get(packageRoot);
-        if (result != null) {
-            return result;
-        }
         try {
             if (packageRoot.getKind() != IPackageFragmentRoot.K_BINARY) {
                 return null;
@@ -82,10 +72,8 @@ public class KotlinSourceIndex {
                 return null;
             }
             
-            LibrarySourcesIndex index = createSourcesIndex(sourcePath);
-            packageIndexes.put(packageRoot, index);
-            
-            return index;
+            // Source attachment can be changed at any moment, so the index is looked up by the current archive
+            return getSourcesIndex(sourcePath);
         } catch (JavaModelException e) {
             KotlinLogger.logError("Unable to analyze sources for package", e);
         }
@@ -93,8 +81,7 @@ public class KotlinSourceIndex {
     }
     
     @Nullable
-    private static LibrarySourcesIndex createSourcesIndex(IPath sourcePath) {
-        File jarFile = sourcePath.toFile();
-        return jarFile.exists() ? new LibrarySourcesIndex(jarFile) : null;
+    private static LibrarySourcesIndex getSourcesIndex(IPath sourcePath) {
+        return LibrarySourcesIndex.getIndex(sourcePath.toFile());
     }
 }
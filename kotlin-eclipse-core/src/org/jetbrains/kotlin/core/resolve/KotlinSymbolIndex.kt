@@ -0,0 +1,502 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve
+
+import com.intellij.openapi.vfs.StandardFileSystems
+import org.eclipse.core.resources.IFile
+import org.eclipse.core.resources.IProject
+import org.eclipse.core.resources.IResource
+import org.eclipse.core.resources.IResourceChangeEvent
+import org.eclipse.core.resources.IResourceChangeListener
+import org.eclipse.core.resources.IResourceDelta
+import org.eclipse.core.runtime.IProgressMonitor
+import org.eclipse.core.runtime.IStatus
+import org.eclipse.core.runtime.Status
+import org.eclipse.core.runtime.jobs.Job
+import org.eclipse.jdt.core.search.SearchPattern
+import org.jetbrains.kotlin.cli.jvm.index.JavaRoot
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.core.model.KotlinEnvironment
+import org.jetbrains.kotlin.core.model.KotlinJavaManager
+import org.jetbrains.kotlin.core.model.runJob
+import org.jetbrains.kotlin.core.utils.isImportedByDefault
+import org.jetbrains.kotlin.descriptors.CallableMemberDescriptor
+import org.jetbrains.kotlin.descriptors.FunctionDescriptor
+import org.jetbrains.kotlin.descriptors.TypeParameterDescriptor
+import org.jetbrains.kotlin.descriptors.Visibilities
+import org.jetbrains.kotlin.lexer.KtTokens
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.name.Name
+import org.jetbrains.kotlin.psi.KtCallableDeclaration
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtNamedFunction
+import org.jetbrains.kotlin.psi.KtNullableType
+import org.jetbrains.kotlin.psi.KtProperty
+import org.jetbrains.kotlin.psi.KtTypeReference
+import org.jetbrains.kotlin.psi.KtUserType
+import org.jetbrains.kotlin.resolve.scopes.DescriptorKindFilter
+import org.jetbrains.kotlin.types.KotlinType
+import org.jetbrains.kotlin.types.TypeUtils
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.TreeMap
+
+data class KotlinCallableSymbol(val fqName: String, val isFunction: Boolean, val receiverType: String?) {
+    val shortName: String get() = fqName.substringAfterLast('.')
+
+    val packageName: String get() = fqName.substringBeforeLast('.', "")
+
+    val isExtension: Boolean get() = receiverType != null
+
+    // Without receiver types only callables which are not extensions are applicable
+    fun isApplicableTo(receiverTypes: Set<String>?): Boolean {
+        return if (receiverTypes != null) {
+            receiverType == KotlinSymbolIndex.ANY_RECEIVER || receiverType in receiverTypes
+        } else {
+            !isExtension
+        }
+    }
+}
+
+// Extensions are indexed by short names of their receiver types, so they are matched by names of the type and its supertypes
+fun getReceiverTypeNames(receiverType: KotlinType): Set<String> {
+    return (TypeUtils.getAllSupertypes(receiverType) + receiverType)
+            .mapNotNull { it.constructor.declarationDescriptor?.name?.asString() }
+            .toSet()
+}
+
+// Callables which are already visible in the file are not proposed for import
+fun List<KotlinCallableSymbol>.filterNotImported(ktFile: KtFile): List<KotlinCallableSymbol> {
+    val importsSet = ktFile.importDirectives
+            .mapNotNull { it.getImportedFqName()?.asString() }
+            .toSet()
+    val originPackage = ktFile.packageFqName.asString()
+
+    return filter {
+        it.fqName !in importsSet &&
+        it.packageName !in importsSet &&
+        it.packageName != originPackage &&
+        !isImportedByDefault(FqName(it.fqName))
+    }
+}
+
+// Top level functions and properties of the project sources and of the Kotlin libraries from its classpath.
+// Types are not indexed, they are found by JDT search engine which also sees light classes of Kotlin sources.
+class KotlinSymbolIndex(private val environment: KotlinEnvironment) {
+    companion object {
+        // Receiver type of extensions declared for a type parameter, such extensions are applicable to any receiver
+        const val ANY_RECEIVER = "*"
+
+        private const val INDEX_FILE_NAME = "symbols.index"
+        private const val FORMAT_VERSION = 1
+        private const val SAVE_DELAY = 5000L
+    }
+
+    private class FileSymbols(val modificationStamp: Long, val symbols: List<KotlinCallableSymbol>)
+
+    private val sourceSymbols = hashMapOf<String, FileSymbols>()
+
+    private var librarySymbols: List<KotlinCallableSymbol> = emptyList()
+
+    private var librariesFingerprint: String? = null
+
+    // Keys are short names in lower case, so that all names with some prefix are next to each other
+    private val symbolsByName = TreeMap<String, MutableList<KotlinCallableSymbol>>()
+
+    private var loaded = false
+
+    private var librariesIndexing = false
+
+    // Changes which are not yet applied by the refresh job
+    private var fullRefreshNeeded = true
+
+    private val changedFiles = hashSetOf<IFile>()
+
+    // Completion only reads the index, it is brought up to date in the background by changes of resources and classpath
+    private val refreshJob = object : Job("Updating index of Kotlin symbols of ${environment.eclipseProject.name}") {
+        override fun run(monitor: IProgressMonitor): IStatus {
+            refresh()
+            return Status.OK_STATUS
+        }
+    }.apply {
+        isSystem = true
+        priority = Job.DECORATE
+    }
+
+    private val saveJob = object : Job("Saving index of Kotlin symbols of ${environment.eclipseProject.name}") {
+        override fun run(monitor: IProgressMonitor): IStatus {
+            save()
+            return Status.OK_STATUS
+        }
+    }.apply { isSystem = true }
+
+    @Synchronized
+    fun findCallables(pattern: String): List<KotlinCallableSymbol> {
+        if (pattern.isEmpty()) return emptyList()
+
+        ensureLoaded()
+
+        val lowerCasePattern = pattern.toLowerCase()
+        // Name matched by camel case pattern starts only with the first letter of the pattern
+        val prefix = if (pattern.drop(1).any { it.isUpperCase() }) lowerCasePattern.substring(0, 1) else lowerCasePattern
+
+        return symbolsByName.subMap(prefix, prefix + Character.MAX_VALUE)
+                .values
+                .flatten()
+                .filter {
+                    val name = it.shortName
+                    name.startsWith(pattern) ||
+                            name.toLowerCase().startsWith(pattern) ||
+                            SearchPattern.camelCaseMatch(pattern, name)
+                }
+    }
+
+    @Synchronized
+    fun findCallablesByName(name: String): List<KotlinCallableSymbol> {
+        ensureLoaded()
+
+        return symbolsByName[name.toLowerCase()]?.filter { it.shortName == name } ?: emptyList()
+    }
+
+    fun findExtensions(name: String, receiverTypes: Set<String>): List<KotlinCallableSymbol> {
+        return findCallablesByName(name).filter { it.isApplicableTo(receiverTypes) }
+    }
+
+    fun filesChanged(files: Collection<IFile>) {
+        synchronized(this) {
+            // Index which is not loaded yet is fully refreshed after loading
+            if (!loaded) return
+            changedFiles.addAll(files)
+        }
+
+        refreshJob.schedule()
+    }
+
+    fun classpathChanged() {
+        synchronized(this) {
+            if (!loaded) return
+            fullRefreshNeeded = true
+        }
+
+        refreshJob.schedule()
+    }
+
+    // Waits until changes which were passed to the index are applied, libraries can still be indexed after that
+    @Throws(InterruptedException::class)
+    fun waitUntilRefreshed() {
+        synchronized(this) { ensureLoaded() }
+        refreshJob.join()
+    }
+
+    private fun ensureLoaded() {
+        if (loaded) return
+
+        load()
+        loaded = true
+        refreshJob.schedule()
+    }
+
+    private fun refresh() {
+        val project = environment.eclipseProject
+        val fullRefresh: Boolean
+        val files: List<IFile>
+        val knownStamps: Map<String, Long>
+        synchronized(this) {
+            fullRefresh = fullRefreshNeeded
+            files = changedFiles.toList()
+            fullRefreshNeeded = false
+            changedFiles.clear()
+            knownStamps = sourceSymbols.mapValues { it.value.modificationStamp }
+        }
+
+        val filesToCheck = if (fullRefresh) KotlinPsiManager.getFilesByProject(project) else files
+
+        // Files are parsed without the lock, so that completion is not blocked by indexing
+        val removedPaths = hashSetOf<String>()
+        val updatedFiles = hashMapOf<String, FileSymbols>()
+        for (file in filesToCheck) {
+            val path = file.fullPath.toPortableString()
+            if (!file.exists() || !KotlinPsiManager.existsSourceFile(file)) {
+                if (path in knownStamps) removedPaths.add(path)
+                continue
+            }
+
+            val stamp = file.modificationStamp
+            if (knownStamps[path] == stamp) continue
+
+            val savedFile = parseSavedFile(file) ?: continue
+            updatedFiles[path] = FileSymbols(stamp, collectSymbols(savedFile))
+        }
+
+        if (fullRefresh) {
+            val existingPaths = filesToCheck.mapTo(hashSetOf()) { it.fullPath.toPortableString() }
+            knownStamps.keys.filterTo(removedPaths) { it !in existingPaths }
+        }
+
+        val fingerprint = if (fullRefresh) computeLibrariesFingerprint() else null
+
+        synchronized(this) {
+            var changed = false
+
+            for (path in removedPaths) {
+                sourceSymbols.remove(path)?.symbols?.forEach { removeFromNames(it) }
+                changed = true
+            }
+
+            for ((path, fileSymbols) in updatedFiles) {
+                sourceSymbols.put(path, fileSymbols)?.symbols?.forEach { removeFromNames(it) }
+                fileSymbols.symbols.forEach { addToNames(it) }
+                changed = true
+            }
+
+            if (fingerprint != null && fingerprint != librariesFingerprint) {
+                if (librarySymbols.isNotEmpty()) {
+                    librarySymbols.forEach { removeFromNames(it) }
+                    librarySymbols = emptyList()
+                    changed = true
+                }
+
+                scheduleLibrariesIndexing(fingerprint)
+            }
+
+            if (changed) saveJob.schedule(SAVE_DELAY)
+        }
+    }
+
+    private fun scheduleLibrariesIndexing(fingerprint: String) {
+        if (librariesIndexing) return
+        librariesIndexing = true
+
+        runJob("Indexing Kotlin libraries of ${environment.eclipseProject.name}") {
+            val symbols = try {
+                collectLibrarySymbols()
+            } catch (e: Throwable) {
+                KotlinLogger.logError("Cannot index Kotlin libraries of ${environment.eclipseProject.name}", e)
+                null
+            }
+
+            synchronized(this) {
+                librariesIndexing = false
+                // Failed indexing is not repeated until the classpath is changed
+                librariesFingerprint = fingerprint
+                if (symbols != null) {
+                    librarySymbols.forEach { removeFromNames(it) }
+                    librarySymbols = symbols
+                    symbols.forEach { addToNames(it) }
+                    saveJob.schedule(SAVE_DELAY)
+                }
+            }
+
+            Status.OK_STATUS
+        }
+    }
+
+    private fun collectLibrarySymbols(): List<KotlinCallableSymbol> {
+        val packages = hashSetOf<String>()
+        for (root in environment.getRoots()) {
+            KotlinModuleMappingCache.getModuleMappings(root.file).forEach { packages.addAll(it.packageFqName2Parts.keys) }
+        }
+
+        val module = environment.analysisSession.getDependencies().module
+
+        return packages.flatMap { packageName ->
+            module.getPackage(FqName(packageName)).memberScope
+                    .getContributedDescriptors(DescriptorKindFilter.CALLABLES)
+                    .filterIsInstance<CallableMemberDescriptor>()
+                    .filter { it.visibility == Visibilities.PUBLIC }
+                    .map { descriptor ->
+                        val receiverType = descriptor.extensionReceiverParameter?.type?.constructor?.declarationDescriptor?.let {
+                            if (it is TypeParameterDescriptor) ANY_RECEIVER else it.name.asString()
+                        }
+
+                        KotlinCallableSymbol("$packageName.${descriptor.name.asString()}".removePrefix("."),
+                                descriptor is FunctionDescriptor, receiverType)
+                    }
+                    .distinct()
+        }
+    }
+
+    // Parsed file of a committed document can have unsaved changes, which would be offered by completion
+    // and saved with the stamp of the file on disk, so such files are parsed from disk again
+    private fun parseSavedFile(file: IFile): KtFile? {
+        if (!KotlinPsiManager.isCommitted(file)) return KotlinPsiManager.getParsedFile(file)
+
+        return try {
+            KotlinPsiManager.parseFile(file)
+        } catch (e: IOException) {
+            KotlinLogger.logWarning("Cannot read ${file.fullPath}: ${e.message}")
+            null
+        }
+    }
+
+    private fun collectSymbols(file: KtFile): List<KotlinCallableSymbol> {
+        val packageName = file.packageFqName
+        return file.declarations
+                .filterIsInstance<KtCallableDeclaration>()
+                .filter { it is KtNamedFunction || it is KtProperty }
+                .filter { !it.hasModifier(KtTokens.PRIVATE_KEYWORD) }
+                .mapNotNull { declaration ->
+                    val name = declaration.name ?: return@mapNotNull null
+                    val receiverType = declaration.receiverTypeReference?.let { getReceiverTypeName(declaration, it) }
+
+                    KotlinCallableSymbol(packageName.child(Name.identifier(name)).asString(),
+                            declaration is KtNamedFunction, receiverType)
+                }
+                .distinct()
+    }
+
+    private fun getReceiverTypeName(declaration: KtCallableDeclaration, typeReference: KtTypeReference): String? {
+        val userType = typeReference.typeElement?.let { (it as? KtNullableType)?.innerType ?: it }
+        val name = (userType as? KtUserType)?.referencedName ?: return ANY_RECEIVER
+
+        return if (declaration.typeParameters.any { it.name == name }) ANY_RECEIVER else name
+    }
+
+    private fun addToNames(symbol: KotlinCallableSymbol) {
+        symbolsByName.getOrPut(symbol.shortName.toLowerCase()) { arrayListOf() }.add(symbol)
+    }
+
+    private fun removeFromNames(symbol: KotlinCallableSymbol) {
+        val key = symbol.shortName.toLowerCase()
+        val symbols = symbolsByName[key] ?: return
+        symbols.remove(symbol)
+        if (symbols.isEmpty()) symbolsByName.remove(key)
+    }
+
+    private fun computeLibrariesFingerprint(): String {
+        return environment.getRoots()
+                .filter { it.type == JavaRoot.RootType.BINARY }
+                .map { root ->
+                    val file = File(root.file.path.removeSuffix(StandardFileSystems.JAR_SEPARATOR))
+                    "${file.absolutePath}:${file.length()}:${file.lastModified()}"
+                }
+                .sorted()
+                .joinToString(File.pathSeparator)
+    }
+
+    private fun getIndexFile(): File? {
+        val location = KotlinJavaManager.getKotlinCacheFolderFor(environment.eclipseProject).location ?: return null
+        return File(location.toFile(), INDEX_FILE_NAME)
+    }
+
+    private fun load() {
+        val indexFile = getIndexFile() ?: return
+        if (!indexFile.isFile) return
+
+        try {
+            DataInputStream(BufferedInputStream(FileInputStream(indexFile))).use { input ->
+                if (input.readInt() != FORMAT_VERSION) return
+
+                librariesFingerprint = input.readUTF()
+                librarySymbols = readSymbols(input)
+
+                repeat(input.readInt()) {
+                    val path = input.readUTF()
+                    val stamp = input.readLong()
+                    sourceSymbols[path] = FileSymbols(stamp, readSymbols(input))
+                }
+            }
+        } catch (e: IOException) {
+            KotlinLogger.logWarning("Cannot read index of Kotlin symbols: ${e.message}")
+            librariesFingerprint = null
+            librarySymbols = emptyList()
+            sourceSymbols.clear()
+            return
+        }
+
+        librarySymbols.forEach { addToNames(it) }
+        sourceSymbols.values.forEach { it.symbols.forEach { addToNames(it) } }
+    }
+
+    private fun save() {
+        val indexFile = getIndexFile() ?: return
+        if (!indexFile.parentFile.isDirectory && !indexFile.parentFile.mkdirs()) return
+
+        // Libraries which are being indexed now are saved as not indexed
+        val (fingerprint, libraries, sources) = synchronized(this) {
+            Triple(librariesFingerprint ?: "", librarySymbols, sourceSymbols.toMap())
+        }
+
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(indexFile))).use { output ->
+                output.writeInt(FORMAT_VERSION)
+
+                output.writeUTF(fingerprint)
+                writeSymbols(output, libraries)
+
+                output.writeInt(sources.size)
+                for ((path, fileSymbols) in sources) {
+                    output.writeUTF(path)
+                    output.writeLong(fileSymbols.modificationStamp)
+                    writeSymbols(output, fileSymbols.symbols)
+                }
+            }
+        } catch (e: IOException) {
+            KotlinLogger.logError("Cannot save index of Kotlin symbols", e)
+            indexFile.delete()
+        }
+    }
+
+    private fun readSymbols(input: DataInputStream): List<KotlinCallableSymbol> {
+        return (1..input.readInt()).map {
+            val fqName = input.readUTF()
+            val isFunction = input.readBoolean()
+            val receiverType = input.readUTF().takeIf { it.isNotEmpty() }
+            KotlinCallableSymbol(fqName, isFunction, receiverType)
+        }
+    }
+
+    private fun writeSymbols(output: DataOutputStream, symbols: List<KotlinCallableSymbol>) {
+        output.writeInt(symbols.size)
+        for (symbol in symbols) {
+            output.writeUTF(symbol.fqName)
+            output.writeBoolean(symbol.isFunction)
+            output.writeUTF(symbol.receiverType ?: "")
+        }
+    }
+}
+
+// Passes saved changes of Kotlin files to the symbol indices of the projects which have an environment
+object KotlinSymbolIndexUpdater : IResourceChangeListener {
+    override fun resourceChanged(event: IResourceChangeEvent) {
+        val changedFiles = hashMapOf<IProject, MutableList<IFile>>()
+        event.delta?.accept { delta ->
+            val resource = delta.resource
+            if (resource is IFile) {
+                val contentChanged = delta.kind != IResourceDelta.CHANGED || (delta.flags and IResourceDelta.CONTENT) != 0
+                if (contentChanged && KotlinPsiManager.isKotlinFile(resource)) {
+                    changedFiles.getOrPut(resource.project) { arrayListOf() }.add(resource)
+                }
+
+                return@accept false
+            }
+
+            resource.type != IResource.PROJECT || (resource as IProject).isOpen
+        }
+
+        for ((project, files) in changedFiles) {
+            KotlinEnvironment.getEnvironmentIfCreated(project)?.symbolIndex?.filesChanged(files)
+        }
+    }
+}
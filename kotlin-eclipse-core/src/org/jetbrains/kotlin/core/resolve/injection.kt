@@ -27,6 +27,7 @@ import org.jetbrains.kotlin.container.registerSingleton
 import org.jetbrains.kotlin.container.useInstance
 import org.jetbrains.kotlin.context.ModuleContext
 import org.jetbrains.kotlin.core.resolve.lang.java.EclipseJavaClassFinder
+import org.jetbrains.kotlin.core.resolve.lang.java.EclipseLibrariesJavaClassFinder
 import org.jetbrains.kotlin.core.resolve.lang.java.resolver.EclipseExternalAnnotationResolver
 import org.jetbrains.kotlin.core.resolve.lang.java.resolver.EclipseJavaSourceElementFactory
 import org.jetbrains.kotlin.core.resolve.lang.java.resolver.EclipseTraceBasedJavaResolverCache
@@ -97,12 +98,17 @@ public fun createContainerForLazyResolveWithJava(
         jvmTarget: JvmTarget,
         languageVersionSettings: LanguageVersionSettings,
         javaProject: IJavaProject,
-        useBuiltInsProvider: Boolean
+        useBuiltInsProvider: Boolean,
+        librariesOnly: Boolean
 ): StorageComponentContainer = createContainer("LazyResolveWithJava", JvmPlatform) {
     configureModule(moduleContext, JvmPlatform, jvmTarget, bindingTrace)
     configureJavaTopDownAnalysis(moduleContentScope, moduleContext.project, lookupTracker, languageVersionSettings)
     
-    useImpl<EclipseJavaClassFinder>()
+    if (librariesOnly) {
+        useImpl<EclipseLibrariesJavaClassFinder>()
+    } else {
+        useImpl<EclipseJavaClassFinder>()
+    }
     useImpl<EclipseTraceBasedJavaResolverCache>()
     useImpl<EclipseJavaSourceElementFactory>()
 
@@ -135,11 +141,13 @@ fun createContainerForTopDownAnalyzerForJvm(
         jvmTarget: JvmTarget,
         languageVersionSettings: LanguageVersionSettings,
         moduleClassResolver: ModuleClassResolver,
-        javaProject: IJavaProject
+        javaProject: IJavaProject,
+        librariesOnly: Boolean = false
 ): ComponentProvider = createContainerForLazyResolveWithJava(
         moduleContext, bindingTrace, declarationProviderFactory, moduleContentScope, moduleClassResolver,
         CompilerEnvironment, lookupTracker, packagePartProvider, jvmTarget, languageVersionSettings, javaProject,
-        useBuiltInsProvider = true
+        useBuiltInsProvider = true,
+        librariesOnly = librariesOnly
 )
 
 // Copy functions from Dsl.kt as they were shrinked by proguard
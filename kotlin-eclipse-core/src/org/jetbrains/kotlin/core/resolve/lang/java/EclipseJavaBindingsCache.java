@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2000-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve.lang.java;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.IBinding;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+// Bindings of java types shared between analyses of the project until java declarations or the classpath are changed.
+// Each resolution creates a new binding environment, so types are resolved in batches: types used before
+// the last invalidation are missed again by the next analysis and are resolved together with its first missed type.
+public class EclipseJavaBindingsCache {
+    private final IJavaProject javaProject;
+
+    // Bindings retain their environments, so they are dropped together when memory runs low
+    private SoftReference<Map<IType, ITypeBinding>> bindingsReference = new SoftReference<>(null);
+
+    // Types of the current bindings, which are expected again after the bindings are dropped
+    private final Set<IType> boundTypes = new LinkedHashSet<>();
+
+    private final Set<IType> expectedTypes = new LinkedHashSet<>();
+
+    public EclipseJavaBindingsCache(@NotNull IJavaProject javaProject) {
+        this.javaProject = javaProject;
+    }
+
+    @Nullable
+    public synchronized ITypeBinding getTypeBinding(@NotNull IType type) {
+        Map<IType, ITypeBinding> bindings = bindingsReference.get();
+        if (bindings == null) {
+            dropBindings();
+            bindings = new HashMap<>();
+            bindingsReference = new SoftReference<>(bindings);
+        }
+
+        if (bindings.containsKey(type)) {
+            return bindings.get(type);
+        }
+
+        List<IType> batch = new ArrayList<>();
+        batch.add(type);
+
+        // Only types which are not bound yet are resolved, so every type is resolved once per invalidation
+        for (IType expectedType : expectedTypes) {
+            if (!expectedType.equals(type) && !bindings.containsKey(expectedType) && expectedType.exists()) {
+                batch.add(expectedType);
+            }
+        }
+        expectedTypes.clear();
+
+        IBinding[] resolvedBindings = createBindings(batch);
+
+        for (int i = 0; i < batch.size(); i++) {
+            IBinding binding = i < resolvedBindings.length ? resolvedBindings[i] : null;
+            bindings.put(batch.get(i), binding instanceof ITypeBinding ? (ITypeBinding) binding : null);
+        }
+        boundTypes.addAll(batch);
+
+        return bindings.get(type);
+    }
+
+    public synchronized void invalidate() {
+        dropBindings();
+        bindingsReference = new SoftReference<>(null);
+    }
+
+    private void dropBindings() {
+        expectedTypes.addAll(boundTypes);
+        boundTypes.clear();
+    }
+
+    @NotNull
+    private IBinding[] createBindings(@NotNull List<IType> types) {
+        ASTParser parser = ASTParser.newParser(AST.JLS8);
+        parser.setCompilerOptions(javaProject.getOptions(true));
+        parser.setIgnoreMethodBodies(true);
+        parser.setProject(javaProject);
+
+        return parser.createBindings(types.toArray(new IJavaElement[types.size()]), null);
+    }
+}
@@ -17,6 +17,9 @@
 package org.jetbrains.kotlin.core.resolve.lang.java;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
@@ -44,6 +47,7 @@ import org.eclipse.jdt.core.dom.EnumConstantDeclaration;
 import org.eclipse.jdt.core.dom.IBinding;
 import org.eclipse.jdt.core.dom.ITypeBinding;
 import org.eclipse.jdt.core.dom.NodeFinder;
+import org.eclipse.jdt.internal.core.DefaultWorkingCopyOwner;
 import org.eclipse.jdt.internal.core.JavaProject;
 import org.eclipse.jdt.internal.core.NameLookup;
 import org.jetbrains.annotations.NotNull;
@@ -58,6 +62,7 @@ import org.jetbrains.kotlin.load.java.structure.JavaClass;
 import org.jetbrains.kotlin.load.java.structure.JavaPackage;
 import org.jetbrains.kotlin.name.ClassId;
 import org.jetbrains.kotlin.name.FqName;
+import org.jetbrains.kotlin.name.Name;
 import org.jetbrains.kotlin.resolve.BindingTrace;
 import org.jetbrains.kotlin.resolve.CodeAnalyzerInitializer;
 import org.jetbrains.kotlin.resolve.lazy.KotlinCodeAnalyzer;
@@ -68,25 +73,42 @@ public class EclipseJavaClassFinder extends AbstractJavaClassFinder {
 
     private IJavaProject javaProject = null;
     
+    // Name lookup and bindings are reused for all classes requested during the analysis
+    private NameLookup nameLookup = null;
+    
+    private EclipseJavaBindingsCache bindingsCache = null;
+    
+    private EclipseJavaClassNamesIndex classNamesIndex = null;
+    
+    private final Map<ClassId, JavaClass> foundClasses = new HashMap<>();
+    
     @Inject
     public void setProjectScope(@NotNull IJavaProject project) {
         javaProject = project;
     }
     
+    protected IJavaProject getJavaProject() {
+        return javaProject;
+    }
+    
     @Override
     public void initialize(@NotNull BindingTrace trace, @NotNull KotlinCodeAnalyzer codeAnalyzer) {
         if (javaProject == null) {
             return;
         }
         
-        MockProject ideaProject = KotlinEnvironment.Companion.getEnvironment(javaProject.getProject()).getProject();
+        KotlinEnvironment environment = KotlinEnvironment.Companion.getEnvironment(javaProject.getProject());
+        bindingsCache = environment.getJavaBindingsCache();
+        classNamesIndex = environment.getJavaClassNamesIndex();
+        
+        MockProject ideaProject = environment.getProject();
         CodeAnalyzerInitializer.Companion.getInstance(ideaProject).initialize(trace, codeAnalyzer.getModuleDescriptor(), codeAnalyzer);
     }
     
     @Override
     @Nullable
-    public JavaPackage findPackage(@NotNull FqName fqName) {
-        IPackageFragment[] packageFragments = findPackageFragments(javaProject, fqName.asString(), false, false);
+    public synchronized JavaPackage findPackage(@NotNull FqName fqName) {
+        IPackageFragment[] packageFragments = getNameLookup().findPackageFragments(fqName.asString(), false, false);
         if (packageFragments != null && packageFragments.length > 0) {
             return new EclipseJavaPackage(Arrays.asList(packageFragments));
         }
@@ -96,13 +118,58 @@ public class EclipseJavaClassFinder extends AbstractJavaClassFinder {
     
     @Override
     @Nullable
-    public JavaClass findClass(@NotNull ClassId classId) {
-        ITypeBinding typeBinding = findType(classId.asSingleFqName(), javaProject);
-        if (typeBinding != null) {
-            return new EclipseJavaClass(typeBinding);
+    public synchronized JavaClass findClass(@NotNull ClassId classId) {
+        if (foundClasses.containsKey(classId)) {
+            return foundClasses.get(classId);
         }
         
-        return null;
+        JavaClass javaClass = null;
+        IType eclipseType = findEclipseType(classId);
+        if (eclipseType != null && isAcceptable(eclipseType)) {
+            ITypeBinding typeBinding = bindingsCache != null ? 
+                    bindingsCache.getTypeBinding(eclipseType) : createTypeBinding(eclipseType);
+            if (typeBinding != null) {
+                javaClass = new EclipseJavaClass(typeBinding);
+            }
+        }
+        
+        foundClasses.put(classId, javaClass);
+        return javaClass;
+    }
+    
+    protected boolean isAcceptable(@NotNull IType eclipseType) {
+        return !isInKotlinBinFolder(eclipseType);
+    }
+    
+    @Nullable
+    private IType findEclipseType(@NotNull ClassId classId) {
+        String packageName = classId.getPackageFqName().asString();
+        List<Name> classNames = classId.getRelativeClassName().pathSegments();
+        
+        String topLevelName = classNames.get(0).asString();
+        String topLevelFqName = packageName.isEmpty() ? topLevelName : packageName + "." + topLevelName;
+        IType eclipseType = getNameLookup().findType(topLevelFqName, false, NameLookup.ACCEPT_ALL);
+        for (int i = 1; i < classNames.size() && eclipseType != null; i++) {
+            eclipseType = eclipseType.getType(classNames.get(i).asString());
+            if (!eclipseType.exists()) {
+                return null;
+            }
+        }
+        
+        return eclipseType;
+    }
+    
+    @NotNull
+    private synchronized NameLookup getNameLookup() {
+        if (nameLookup == null) {
+            try {
+                nameLookup = ((JavaProject) javaProject).newNameLookup(DefaultWorkingCopyOwner.PRIMARY);
+            } catch (JavaModelException e) {
+                KotlinLogger.logAndThrow(e);
+            }
+        }
+        
+        return nameLookup;
     }
     
     @Nullable
@@ -199,7 +266,6 @@ public class EclipseJavaClassFinder extends AbstractJavaClassFinder {
     @Override
     @Nullable
     public Set<String> knownClassNamesInPackage(@NotNull FqName packageFqName) {
-        // TODO Auto-generated method stub
-        return null;
+        return classNamesIndex != null ? classNamesIndex.getClassNames(packageFqName.asString()) : null;
     }
 }
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright 2000-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve.lang.java;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.core.IClassFile;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.internal.core.DefaultWorkingCopyOwner;
+import org.eclipse.jdt.internal.core.JavaProject;
+import org.eclipse.jdt.internal.core.NameLookup;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.core.log.KotlinLogger;
+
+// Names of classes in packages visible from the project: source types, class files of class folders and jar entries.
+// It lets the frontend skip searches of classes which are surely absent, e.g. for names from star and default imports.
+// Packages are indexed when they are requested for the first time and dropped when their contents change.
+public class EclipseJavaClassNamesIndex {
+    private static final String CLASS_FILE_EXTENSION = ".class";
+
+    private final IJavaProject javaProject;
+
+    private final Map<String, Set<String>> classNamesByPackage = new ConcurrentHashMap<>();
+
+    // Names collected concurrently with a change of the package are not cached
+    private long modificationCount = 0;
+
+    public EclipseJavaClassNamesIndex(@NotNull IJavaProject javaProject) {
+        this.javaProject = javaProject;
+    }
+
+    @NotNull
+    public Set<String> getClassNames(@NotNull String packageName) {
+        Set<String> classNames = classNamesByPackage.get(packageName);
+        if (classNames != null) {
+            return classNames;
+        }
+
+        long stamp = getModificationCount();
+        classNames = Collections.unmodifiableSet(collectClassNames(packageName));
+
+        synchronized (this) {
+            if (stamp == modificationCount) {
+                classNamesByPackage.put(packageName, classNames);
+            }
+        }
+
+        return classNames;
+    }
+
+    public synchronized void invalidate(@NotNull String packageName) {
+        modificationCount++;
+        classNamesByPackage.remove(packageName);
+    }
+
+    public synchronized void invalidateAll() {
+        modificationCount++;
+        classNamesByPackage.clear();
+    }
+
+    private synchronized long getModificationCount() {
+        return modificationCount;
+    }
+
+    @NotNull
+    private Set<String> collectClassNames(@NotNull String packageName) {
+        Set<String> classNames = new HashSet<>();
+        try {
+            // Lookup is created for each package to see the current package fragments of the project
+            NameLookup nameLookup = ((JavaProject) javaProject).newNameLookup(DefaultWorkingCopyOwner.PRIMARY);
+            IPackageFragment[] packageFragments = nameLookup.findPackageFragments(packageName, false);
+            if (packageFragments == null) {
+                return classNames;
+            }
+
+            for (IPackageFragment packageFragment : packageFragments) {
+                if (packageFragment.getKind() == IPackageFragmentRoot.K_SOURCE) {
+                    Set<ICompilationUnit> units = new LinkedHashSet<>(Arrays.asList(packageFragment.getCompilationUnits()));
+                    units.addAll(Arrays.asList(packageFragment.getCompilationUnits(DefaultWorkingCopyOwner.PRIMARY)));
+
+                    for (ICompilationUnit unit : units) {
+                        classNames.add(JavaCore.removeJavaLikeExtension(unit.getElementName()));
+
+                        // Secondary types are declared in files with other names
+                        for (IType type : unit.getTypes()) {
+                            classNames.add(type.getElementName());
+                        }
+                    }
+                } else {
+                    for (IClassFile classFile : packageFragment.getClassFiles()) {
+                        String fileName = classFile.getElementName();
+                        if (fileName.endsWith(CLASS_FILE_EXTENSION)) {
+                            classNames.add(fileName.substring(0, fileName.length() - CLASS_FILE_EXTENSION.length()));
+                        }
+                    }
+                }
+            }
+        } catch (JavaModelException e) {
+            KotlinLogger.logAndThrow(e);
+        }
+
+        return classNames;
+    }
+}
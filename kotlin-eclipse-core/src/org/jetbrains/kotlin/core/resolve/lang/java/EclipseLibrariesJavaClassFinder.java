@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve.lang.java;
+
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.IType;
+import org.jetbrains.annotations.NotNull;
+
+// Finds only classes from jar archives, so that descriptors resolved with it do not depend on sources
+// of the project and can be shared between projects with the same libraries
+public class EclipseLibrariesJavaClassFinder extends EclipseJavaClassFinder {
+    
+    @Override
+    protected boolean isAcceptable(@NotNull IType eclipseType) {
+        return super.isAcceptable(eclipseType) && isFromArchive(eclipseType);
+    }
+    
+    private static boolean isFromArchive(@NotNull IType type) {
+        IJavaElement root = type.getAncestor(IJavaElement.PACKAGE_FRAGMENT_ROOT);
+        return root instanceof IPackageFragmentRoot && ((IPackageFragmentRoot) root).isArchive();
+    }
+}
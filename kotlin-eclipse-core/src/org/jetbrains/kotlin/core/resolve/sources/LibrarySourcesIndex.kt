@@ -16,83 +16,118 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.core.resolve.sources
 
-import java.util.HashMap
-import org.eclipse.jdt.core.IPackageFragmentRoot
-import java.util.zip.ZipFile
+import org.eclipse.core.runtime.IPath
 import org.eclipse.core.runtime.Path
-import java.util.ArrayList
-import org.eclipse.jdt.core.IPackageFragment
-import java.util.zip.ZipEntry
-import java.io.BufferedInputStream
-import java.io.InputStreamReader
-import java.io.BufferedReader
+import org.eclipse.jdt.core.IPackageFragmentRoot
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.core.resolve.ArchiveStampedCache
 import org.jetbrains.kotlin.core.resolve.KotlinSourceIndex
-import kotlin.io.use
-import org.eclipse.core.resources.ResourcesPlugin
 import org.jetbrains.kotlin.core.utils.ProjectUtils
-import org.eclipse.core.runtime.IPath
+import java.io.BufferedReader
 import java.io.File
+import java.io.IOException
+import java.io.InputStreamReader
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
 
 fun getSourcePath(root: IPackageFragmentRoot): IPath? {
     return ProjectUtils.convertToGlobalPath(root.resolvedClasspathEntry?.sourceAttachmentPath)
 }
 
-class LibrarySourcesIndex(private val jarWithSources: File) {
-    
-    private val index = hashMapOf<String, ArrayList<SourceFile>>()
-    private val PACKAGE_LINE_PREFIX = "package "
+// Package is known only for sources which share the short name with other sources of the archive
+private class SourceFile(val path: String, val packageFqName: String?)
+
+class LibrarySourcesIndex private constructor(private val sourceFiles: List<SourceFile>) {
+    private val sourcesByName = sourceFiles.groupBy { Path(it.path).lastSegment() }
 
-    init {
-        if (!jarWithSources.exists()) {
-            throw IllegalArgumentException("File with sources ($jarWithSources) should exist")
-        }
-        
-        val sourceArchive = ZipFile(jarWithSources)
-
-        sourceArchive.entries().toList()
-                .map { it.getName() }
-                .filter { KotlinSourceIndex.isKotlinSource(it) }
-                .forEach {
-                    val shortName = Path(it).lastSegment()
-                    index.getOrPut(shortName) { ArrayList() }.add(SourceFile(it))
-                }
-    }
-    
     fun resolve(shortName: String, packageFolder: IPath): String? {
         val packageFqName = packageFolder.segments().joinToString(".")
         return resolve(shortName, packageFqName)
     }
 
     fun resolve(shortName: String, packageFqName: String): String? {
-        val sourcesList = index[shortName] ?: return null
+        val sourcesList = sourcesByName[shortName] ?: return null
         if (sourcesList.size == 1) {
             return sourcesList.first().path
         }
-        
-        val sourceArchive = ZipFile(jarWithSources)
-        
-        for (it in sourcesList) {
-            if (it.effectivePackage == null) {
-                it.effectivePackage = getPackageName(sourceArchive, sourceArchive.getEntry(it.path))
-            }
-        }
-        
+
         return sourcesList
-                .filter { packageFqName == it.effectivePackage }
+                .filter { packageFqName == it.packageFqName }
                 .singleOrNull()
                 ?.path
     }
 
-    private fun getPackageName(zipFile: ZipFile, entry: ZipEntry): String? {
-        val istream = zipFile.getInputStream(entry)
-        val reader = BufferedReader(InputStreamReader(istream))
-        return reader.use {
-            it.lineSequence()
-                    .firstOrNull { it.startsWith(PACKAGE_LINE_PREFIX) }
-                    ?.removePrefix(PACKAGE_LINE_PREFIX)
-                    ?.trim()
+    // Indices are shared between projects and kept between sessions, so that archives with sources
+    // are scanned only when they are changed
+    companion object {
+        private const val INDEX_FILE_NAME = "library-sources.index"
+        private const val FORMAT_VERSION = 1
+        private const val PACKAGE_LINE_PREFIX = "package "
+
+        private val indices = ArchiveStampedCache<LibrarySourcesIndex>(
+                INDEX_FILE_NAME,
+                "index of Kotlin library sources",
+                FORMAT_VERSION,
+                { output, index ->
+                    output.writeInt(index.sourceFiles.size)
+                    for (sourceFile in index.sourceFiles) {
+                        output.writeUTF(sourceFile.path)
+                        output.writeBoolean(sourceFile.packageFqName != null)
+                        output.writeUTF(sourceFile.packageFqName ?: "")
+                    }
+                },
+                { input ->
+                    val sourceFiles = (1..input.readInt()).map {
+                        val path = input.readUTF()
+                        val hasPackage = input.readBoolean()
+                        val packageFqName = input.readUTF()
+                        SourceFile(path, if (hasPackage) packageFqName else null)
+                    }
+                    LibrarySourcesIndex(sourceFiles)
+                })
+
+        @JvmStatic
+        fun getIndex(jarWithSources: File): LibrarySourcesIndex? {
+            if (!jarWithSources.isFile) return null
+
+            return indices.getOrCompute(jarWithSources) { createIndex(jarWithSources) }
+        }
+
+        // Archive is closed right after indexing, so that it is not locked while the index is used
+        private fun createIndex(jarWithSources: File): LibrarySourcesIndex? {
+            return try {
+                ZipFile(jarWithSources).use { createIndex(it) }
+            } catch (e: IOException) {
+                KotlinLogger.logWarning("Cannot read sources from $jarWithSources: ${e.message}")
+                null
+            }
         }
-    }
-}
 
-private class SourceFile(val path: String, var effectivePackage: String? = null)
\ No newline at end of file
+        private fun createIndex(sourceArchive: ZipFile): LibrarySourcesIndex {
+            val sourcePaths = sourceArchive.entries().asSequence()
+                    .map { it.name }
+                    .filter { KotlinSourceIndex.isKotlinSource(it) }
+                    .toList()
+
+            val sourceFiles = sourcePaths.groupBy { Path(it).lastSegment() }.values.flatMap { paths ->
+                if (paths.size == 1) {
+                    listOf(SourceFile(paths.single(), null))
+                } else {
+                    paths.map { SourceFile(it, getPackageName(sourceArchive, sourceArchive.getEntry(it))) }
+                }
+            }
+
+            return LibrarySourcesIndex(sourceFiles)
+        }
+
+        private fun getPackageName(zipFile: ZipFile, entry: ZipEntry): String? {
+            val reader = BufferedReader(InputStreamReader(zipFile.getInputStream(entry)))
+            return reader.use {
+                it.lineSequence()
+                        .firstOrNull { it.startsWith(PACKAGE_LINE_PREFIX) }
+                        ?.removePrefix(PACKAGE_LINE_PREFIX)
+                        ?.trim()
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -36,8 +36,7 @@ class KotlinImportInserterHelper : ImportInsertHelper() {
     }
     
     override fun isImportedWithDefault(importPath: ImportPath, contextFile: KtFile): Boolean {
-        val defaultImports = JvmPlatform.getDefaultImports(LanguageVersionSettingsImpl.DEFAULT.supportsFeature(DefaultImportOfPackageKotlinComparisons))
-        return importPath.isImported(defaultImports)
+        return importPath.isImported(getDefaultImports())
     }
     
     override fun mayImportOnShortenReferences(descriptor: DeclarationDescriptor): Boolean {
@@ -46,6 +45,12 @@ class KotlinImportInserterHelper : ImportInsertHelper() {
 }
 
 
+fun isImportedByDefault(fqName: FqName): Boolean = ImportPath(fqName, false).isImported(getDefaultImports())
+
+private fun getDefaultImports(): List<ImportPath> {
+    return JvmPlatform.getDefaultImports(LanguageVersionSettingsImpl.DEFAULT.supportsFeature(DefaultImportOfPackageKotlinComparisons))
+}
+
 // TODO: obtain these functions from fqNameUtil.kt (org.jetbrains.kotlin.idea.refactoring.fqName)
 fun FqName.isImported(importPath: ImportPath, skipAliasedImports: Boolean = true): Boolean {
     return when {
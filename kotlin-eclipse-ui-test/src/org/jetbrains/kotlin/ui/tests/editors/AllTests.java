@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.ui.tests.editors;
 
 import org.jetbrains.kotlin.ui.tests.editors.formatter.KotlinFormatActionTest;
 import org.jetbrains.kotlin.ui.tests.editors.highlighting.KotlinHighlightingTest;
+import org.jetbrains.kotlin.ui.tests.editors.occurrences.KotlinMarkOccurrencesTest;
 import org.jetbrains.kotlin.ui.tests.editors.selection.KotlinSelectEnclosingTest;
 import org.jetbrains.kotlin.ui.tests.editors.selection.KotlinSelectNextTest;
 import org.jetbrains.kotlin.ui.tests.editors.selection.KotlinSelectPreviousTest;
@@ -37,7 +38,8 @@ import org.junit.runners.Suite;
     KotlinEditorClosedProjectInfluenceTest.class,
     KotlinSelectEnclosingTest.class,
     KotlinSelectNextTest.class,
-    KotlinSelectPreviousTest.class
+    KotlinSelectPreviousTest.class,
+    KotlinMarkOccurrencesTest.class
 } )
 public class AllTests {
 
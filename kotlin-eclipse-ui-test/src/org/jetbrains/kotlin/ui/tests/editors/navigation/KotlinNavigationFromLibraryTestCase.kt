@@ -57,7 +57,7 @@ open public class KotlinNavigationFromLibraryTestCase: KotlinProjectTestCase() {
         val functionBody = testData.functionToTest.getBodyExpression()!!
 
         val offset = functionBody.getTextOffset() + functionBody.getText().indexOf(testData.referenceText)
-        val start = LineEndUtil.convertLfToDocumentOffset(editor.parsedFile.getText(), offset, editor.document)
+        val start = LineEndUtil.convertLfToDocumentOffset(editor.parsedFile, offset, editor.document)
 
         editor.selectAndReveal(start, 0)
     }
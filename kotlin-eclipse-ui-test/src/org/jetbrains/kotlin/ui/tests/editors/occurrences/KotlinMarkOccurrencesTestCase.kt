@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright 2000-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.ui.tests.editors.occurrences
+
+import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer
+import org.jetbrains.kotlin.eclipse.ui.utils.EditorUtil
+import org.jetbrains.kotlin.eclipse.ui.utils.getTextDocumentOffset
+import org.jetbrains.kotlin.testframework.editor.KotlinEditorTestCase
+import org.jetbrains.kotlin.testframework.editor.KotlinEditorWithAfterFileTestCase
+import org.jetbrains.kotlin.ui.editors.KotlinEditor
+import org.jetbrains.kotlin.ui.editors.occurrences.KotlinFileOccurrences
+import org.jetbrains.kotlin.ui.refactorings.rename.getLengthOfIdentifier
+import org.junit.Assert
+import org.junit.Before
+
+abstract class KotlinMarkOccurrencesTestCase : KotlinEditorWithAfterFileTestCase() {
+    companion object {
+        private val occurrenceTag = "<occurrence>"
+        private val occurrenceCloseTag = "</occurrence>"
+    }
+    
+    @Before
+    fun before() {
+        configureProject()
+    }
+    
+    override fun performTest(fileText: String, expected: String) {
+        val editor = testEditor.editor as KotlinEditor
+        val document = testEditor.document
+        val ktFile = editor.parsedFile!!
+        
+        val element = EditorUtil.getJetElement(editor, testEditor.caretOffset)
+        Assert.assertNotNull("No element found at the caret", element)
+        
+        val fileOccurrences = KotlinFileOccurrences(ktFile, KotlinAnalyzer.analyzeFile(ktFile))
+        val positions = fileOccurrences.findOccurrences(element!!)
+                .map { it.getTextDocumentOffset(document) to getLengthOfIdentifier(it)!! }
+                .sortedBy { it.first }
+        
+        val documentText = StringBuilder(document.get())
+        var shift = 0
+        for ((offset, length) in positions) {
+            documentText.insert(offset + shift, occurrenceTag)
+            shift += occurrenceTag.length
+            
+            documentText.insert(offset + length + shift, occurrenceCloseTag)
+            shift += occurrenceCloseTag.length
+        }
+        
+        Assert.assertEquals(KotlinEditorTestCase.removeTags(expected), documentText.toString())
+    }
+}
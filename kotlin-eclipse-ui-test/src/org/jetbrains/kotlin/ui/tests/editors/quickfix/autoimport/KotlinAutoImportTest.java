@@ -74,4 +74,19 @@ public class KotlinAutoImportTest extends KotlinAutoImportTestCase {
 	public void oneStandardVectorAutoImport() {
 		doAutoTest();
 	}
+	
+	@Test
+	public void projectFunctionAutoImport() {
+		doAutoTest();
+	}
+	
+	@Test
+	public void projectExtensionAutoImport() {
+		doAutoTest();
+	}
+	
+	@Test
+	public void functionIsNotImportedForType() {
+		doAutoTest();
+	}
 }
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.eclipse.jdt.internal.ui.javaeditor.JavaEditor;
+import org.jetbrains.kotlin.core.model.KotlinEnvironment;
 import org.jetbrains.kotlin.testframework.editor.KotlinEditorWithAfterFileTestCase;
 import org.jetbrains.kotlin.testframework.utils.EditorTestUtils;
 import org.jetbrains.kotlin.testframework.utils.ExpectedCompletionUtils;
@@ -40,6 +41,13 @@ public abstract class KotlinAutoImportTestCase extends KotlinEditorWithAfterFile
     }
     
     private List<KotlinMarkerResolution> createProposals() {
+        // Callables are proposed from the index of symbols, which is updated in background
+        try {
+            KotlinEnvironment.getEnvironment(getTestEditor().getEditingFile().getProject()).getSymbolIndex().waitUntilRefreshed();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        
         return KotlinQuickFixTestCaseKt.getProposals(getTestEditor());
     }
     
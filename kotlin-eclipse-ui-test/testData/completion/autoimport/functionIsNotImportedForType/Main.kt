@@ -0,0 +1,3 @@
+val value: gre<caret>et? = null
+
+// NUMBER: 0
\ No newline at end of file
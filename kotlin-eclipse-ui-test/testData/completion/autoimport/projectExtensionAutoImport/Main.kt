@@ -0,0 +1,4 @@
+fun test() = "text".sho<caret>ut()
+
+// EXIST: Import 'shout' (utils)
+// NUMBER: 1
\ No newline at end of file
@@ -0,0 +1,5 @@
+package utils
+
+fun String.shout() = toUpperCase()
+
+fun Int.shout() = toString()
\ No newline at end of file
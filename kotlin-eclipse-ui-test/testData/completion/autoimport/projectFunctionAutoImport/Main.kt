@@ -0,0 +1,4 @@
+fun test() = gre<caret>et()
+
+// EXIST: Import 'greet' (utils)
+// NUMBER: 1
\ No newline at end of file
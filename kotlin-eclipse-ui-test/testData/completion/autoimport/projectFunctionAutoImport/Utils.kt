@@ -0,0 +1,3 @@
+package utils
+
+fun greet() = "Hello"
\ No newline at end of file
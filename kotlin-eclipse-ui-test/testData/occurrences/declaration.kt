@@ -0,0 +1,6 @@
+fun <caret>sum(a: Int, b: Int): Int = a + b
+
+fun test() {
+    val x = sum(1, 2)
+    sum(x, sum(3, 4))
+}
@@ -0,0 +1,12 @@
+class Counter {
+    var count = 0
+    
+    fun increment() {
+        count++
+    }
+}
+
+fun test(counter: Counter) {
+    counter.increment()
+    println(counter.<caret>count)
+}
@@ -31,6 +31,7 @@ import org.jetbrains.kotlin.descriptors.PackageViewDescriptor
 import org.jetbrains.kotlin.descriptors.PropertyDescriptor
 import org.jetbrains.kotlin.descriptors.TypeParameterDescriptor
 import org.jetbrains.kotlin.descriptors.TypeAliasDescriptor
+import org.jetbrains.kotlin.core.resolve.KotlinCallableSymbol
 
 public object KotlinImageProvider {
     public fun getImage(descriptor: DeclarationDescriptor): Image? {
@@ -54,5 +55,9 @@ public object KotlinImageProvider {
         }
     }
     
+    public fun getImage(symbol: KotlinCallableSymbol): Image? {
+        return getImageFromJavaUI(if (symbol.isFunction) ISharedImages.IMG_OBJS_PUBLIC else ISharedImages.IMG_FIELD_PUBLIC)
+    }
+    
     private fun getImageFromJavaUI(imageName: String): Image = JavaUI.getSharedImages().getImage(imageName)
 }
\ No newline at end of file
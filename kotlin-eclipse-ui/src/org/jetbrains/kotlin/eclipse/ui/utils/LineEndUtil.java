@@ -16,11 +16,19 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.eclipse.ui.utils;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
 import org.eclipse.jface.text.TextUtilities;
 import org.jetbrains.annotations.NotNull;
 
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiFile;
 
 public class LineEndUtil {
     
@@ -29,7 +37,13 @@ public class LineEndUtil {
     public static final char NEW_LINE_CHAR = '\n';
     public static final String NEW_LINE_STRING = Character.toString(NEW_LINE_CHAR);
     
-    public static int convertLfToDocumentOffset(@NotNull String lfText, int lfOffset, @NotNull IDocument document) {
+    private static final Key<LineBreaks> PSI_LINE_BREAKS = Key.create("PSI_LINE_BREAKS");
+    
+    // Tables for documents are valid while document modification stamp is the same
+    private static final Map<IDocument, LineBreaks> DOCUMENT_LINE_BREAKS = 
+            Collections.synchronizedMap(new WeakHashMap<IDocument, LineBreaks>());
+    
+    public static int convertLfToDocumentOffset(@NotNull PsiFile psiFile, int lfOffset, @NotNull IDocument document) {
         String documentLineDelimiter = TextUtilities.getDefaultLineDelimiter(document);
         if (documentLineDelimiter.length() == 1) {
             return lfOffset;
@@ -37,37 +51,10 @@ public class LineEndUtil {
         
         assertLineSeparator(documentLineDelimiter);
         
-        // In CrLf move to new line takes 2 char instead of 1 in Lf
-        return lfOffset + offsetToLineNumber(lfText, lfOffset);
-    }
-
-    private static int offsetToLineNumber(String lfText, int offset) {
-        int line = 0;
-        int curOffset = 0;
-        
-        while (curOffset < offset) {
-            if (curOffset == lfText.length()) {
-                break;
-            }
-            
-            char c = lfText.charAt(curOffset);
-            if (c == NEW_LINE_CHAR) {
-                line++;
-            } else if (c == CARRIAGE_RETURN_CHAR) {
-                throw new IllegalArgumentException("Given text shouldn't contain \\r char");
-            }
-            
-            curOffset++;
-        }
-        
-        return line;
+        return lfOffset + getPsiLineBreaks(psiFile).countNewLinesBefore(lfOffset);
     }
     
     public static int convertCrToDocumentOffset(@NotNull IDocument document, int crOffset) {
-        return convertCrToDocumentOffset(document.get(), crOffset, document);
-    }
-    
-    public static int convertCrToDocumentOffset(@NotNull String crText, int crOffset, @NotNull IDocument document) {
         String defaultLineDelimiter = TextUtilities.getDefaultLineDelimiter(document);
         if (defaultLineDelimiter.length() == 1) {
             return crOffset;
@@ -75,27 +62,42 @@ public class LineEndUtil {
         
         assertLineSeparator(defaultLineDelimiter);
         
-        return crOffset - countCrToLineNumber(crText, crOffset);
+        return crOffset - getDocumentLineBreaks(document).countCarriageReturnsBefore(crOffset);
     }
     
-    private static int countCrToLineNumber(String lfText, int offset) {
-        int countCR = 0;
-        int curOffset = 0;
+    @NotNull
+    private static LineBreaks getPsiLineBreaks(@NotNull PsiFile psiFile) {
+        LineBreaks lineBreaks = psiFile.getUserData(PSI_LINE_BREAKS);
+        long modificationStamp = psiFile.getModificationStamp();
+        if (lineBreaks != null && lineBreaks.modificationStamp == modificationStamp && 
+                lineBreaks.textLength == psiFile.getTextLength()) {
+            return lineBreaks;
+        }
         
-        while (curOffset < offset) {
-            if (curOffset == lfText.length()) {
-                break;
-            }
-            
-            char c = lfText.charAt(curOffset);
-            if (c == CARRIAGE_RETURN_CHAR) {
-                countCR++;
-            } 
-            
-            curOffset++;
+        lineBreaks = new LineBreaks(psiFile.getText(), modificationStamp);
+        psiFile.putUserData(PSI_LINE_BREAKS, lineBreaks);
+        
+        return lineBreaks;
+    }
+    
+    @NotNull
+    private static LineBreaks getDocumentLineBreaks(@NotNull IDocument document) {
+        long modificationStamp = document instanceof IDocumentExtension4 ? 
+                ((IDocumentExtension4) document).getModificationStamp() : 
+                IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+        if (modificationStamp == IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP) {
+            return new LineBreaks(document.get(), modificationStamp);
+        }
+        
+        LineBreaks lineBreaks = DOCUMENT_LINE_BREAKS.get(document);
+        if (lineBreaks != null && lineBreaks.modificationStamp == modificationStamp) {
+            return lineBreaks;
         }
         
-        return countCR;  
+        lineBreaks = new LineBreaks(document.get(), modificationStamp);
+        DOCUMENT_LINE_BREAKS.put(document, lineBreaks);
+        
+        return lineBreaks;
     }
     
     private static void assertLineSeparator(String osLineSeparator) {
@@ -114,10 +116,57 @@ public class LineEndUtil {
     }
     
     @NotNull
-    public static TextRange crRangeFromLfRange(@NotNull String lfText, @NotNull TextRange lfRange,
+    public static TextRange crRangeFromLfRange(@NotNull PsiFile psiFile, @NotNull TextRange lfRange,
             @NotNull IDocument document) {
-        int startOffset = LineEndUtil.convertLfToDocumentOffset(lfText, lfRange.getStartOffset(), document);
-        int endOffset = LineEndUtil.convertLfToDocumentOffset(lfText, lfRange.getEndOffset(), document);
+        int startOffset = LineEndUtil.convertLfToDocumentOffset(psiFile, lfRange.getStartOffset(), document);
+        int endOffset = LineEndUtil.convertLfToDocumentOffset(psiFile, lfRange.getEndOffset(), document);
         return new TextRange(startOffset, endOffset);
     }
+    
+    // Sorted offsets of line break chars, so that the number of them before an offset is found by binary search
+    private static class LineBreaks {
+        private final int textLength;
+        private final long modificationStamp;
+        private final int[] newLineOffsets;
+        private final int[] carriageReturnOffsets;
+        
+        LineBreaks(@NotNull String text, long modificationStamp) {
+            this.textLength = text.length();
+            this.modificationStamp = modificationStamp;
+            this.newLineOffsets = collectOffsets(text, NEW_LINE_CHAR);
+            this.carriageReturnOffsets = collectOffsets(text, CARRIAGE_RETURN_CHAR);
+        }
+        
+        int countNewLinesBefore(int offset) {
+            if (carriageReturnOffsets.length > 0 && carriageReturnOffsets[0] < offset) {
+                throw new IllegalArgumentException("Given text shouldn't contain \\r char");
+            }
+            
+            return countBefore(newLineOffsets, offset);
+        }
+        
+        int countCarriageReturnsBefore(int offset) {
+            return countBefore(carriageReturnOffsets, offset);
+        }
+        
+        private static int countBefore(int[] offsets, int offset) {
+            int index = Arrays.binarySearch(offsets, offset);
+            return index >= 0 ? index : -index - 1;
+        }
+        
+        private static int[] collectOffsets(String text, char c) {
+            int count = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == c) count++;
+            }
+            
+            int[] offsets = new int[count];
+            int index = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == c) offsets[index++] = i;
+            }
+            
+            return offsets;
+        }
+    }
 }
@@ -21,7 +21,7 @@ import org.eclipse.jface.text.IDocument
 import org.jetbrains.kotlin.psi.KtFile
 
 fun PsiElement.getEndLfOffset(document: IDocument): Int {
-	return LineEndUtil.convertLfToDocumentOffset(this.getContainingFile().getText(), this.getTextRange().getEndOffset(), document)
+	return LineEndUtil.convertLfToDocumentOffset(this.getContainingFile(), this.getTextRange().getEndOffset(), document)
 }
 
 fun PsiElement.getTextDocumentOffset(document: IDocument): Int {
@@ -29,7 +29,7 @@ fun PsiElement.getTextDocumentOffset(document: IDocument): Int {
 }
 
 fun PsiElement.getOffsetByDocument(document: IDocument, psiOffset: Int): Int {
-    return LineEndUtil.convertLfToDocumentOffset(this.getContainingFile().getText(), psiOffset, document)
+    return LineEndUtil.convertLfToDocumentOffset(this.getContainingFile(), psiOffset, document)
 }
 
 fun KtFile.findElementByDocumentOffset(offset: Int, document: IDocument): PsiElement? {
@@ -16,6 +16,7 @@
 *******************************************************************************/
 package org.jetbrains.kotlin.ui.builder
 
+import org.eclipse.core.resources.IFile
 import org.eclipse.core.runtime.IProgressMonitor
 import org.eclipse.core.runtime.IStatus
 import org.eclipse.core.runtime.NullProgressMonitor
@@ -25,12 +26,16 @@ import org.eclipse.core.runtime.jobs.Job
 import org.eclipse.core.runtime.jobs.JobChangeAdapter
 import org.eclipse.jdt.core.IJavaProject
 import org.jetbrains.kotlin.analyzer.AnalysisResult
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache
+import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer
 import org.jetbrains.kotlin.progress.CompilationCanceledException
 import org.jetbrains.kotlin.progress.CompilationCanceledStatus
 import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus
 
-public class KotlinAnalysisJob(private val javaProject: IJavaProject) : Job("Kotlin Analysis") {
+public class KotlinAnalysisJob(
+        private val javaProject: IJavaProject,
+        private val filesToAnalyze: Collection<IFile>? = null) : Job("Kotlin Analysis") {
     init {
         setPriority(DECORATE)
         setSystem(true)
@@ -54,7 +59,12 @@ public class KotlinAnalysisJob(private val javaProject: IJavaProject) : Job("Kot
                 return Status.OK_STATUS
             }
             
-            val analysisResult = KotlinAnalysisProjectCache.getAnalysisResult(javaProject)
+            // Without files to analyze the whole project is analyzed
+            val analysisResult = when {
+                filesToAnalyze == null -> KotlinAnalysisProjectCache.getAnalysisResult(javaProject)
+                filesToAnalyze.isEmpty() -> AnalysisResult.EMPTY
+                else -> KotlinAnalyzer.analyzeFiles(filesToAnalyze.map { KotlinPsiManager.getParsedFile(it) }).analysisResult
+            }
             
             return AnalysisResultStatus(Status.OK_STATUS, analysisResult)
         } catch (e: CompilationCanceledException) {
@@ -78,14 +88,17 @@ private fun constructFamilyIndicator(javaProject: IJavaProject): String {
     return javaProject.getProject().getName() + "_kotlinAnalysisFamily"
 }
 
-fun runCancellableAnalysisFor(javaProject: IJavaProject, postAnalysisTask: (AnalysisResult) -> Unit = {}) {
+fun runCancellableAnalysisFor(
+        javaProject: IJavaProject,
+        filesToAnalyze: Collection<IFile>? = null,
+        postAnalysisTask: (AnalysisResult) -> Unit = {}) {
     val family = constructFamilyIndicator(javaProject)
     Job.getJobManager().cancel(family)
     Job.getJobManager().join(family, NullProgressMonitor()) // It should be fast enough
     
     KotlinAnalysisProjectCache.resetCache(javaProject.project)
     
-    val analysisJob = KotlinAnalysisJob(javaProject)
+    val analysisJob = KotlinAnalysisJob(javaProject, filesToAnalyze)
     
     analysisJob.addJobChangeListener(object : JobChangeAdapter() {
         override fun done(event: IJobChangeEvent) {
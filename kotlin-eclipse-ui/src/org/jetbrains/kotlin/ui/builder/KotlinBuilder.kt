@@ -17,9 +17,7 @@
 package org.jetbrains.kotlin.ui.builder
 
 import org.eclipse.core.resources.IFile
-import org.eclipse.core.resources.IMarker
 import org.eclipse.core.resources.IProject
-import org.eclipse.core.resources.IResource
 import org.eclipse.core.resources.IResourceDelta
 import org.eclipse.core.resources.IncrementalProjectBuilder
 import org.eclipse.core.resources.ResourcesPlugin
@@ -31,26 +29,39 @@ import org.eclipse.debug.core.model.LaunchConfigurationDelegate
 import org.eclipse.jdt.core.IJavaProject
 import org.eclipse.jdt.core.JavaCore
 import org.eclipse.ui.PlatformUI
+import org.jetbrains.kotlin.analyzer.AnalysisResult
 import org.jetbrains.kotlin.core.CorePreferences
 import org.jetbrains.kotlin.core.asJava.KotlinLightClassGeneration
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import org.jetbrains.kotlin.core.compiler.KotlinCompiler.KotlinCompilerArguments
 import org.jetbrains.kotlin.core.compiler.KotlinCompilerUtils
+import org.jetbrains.kotlin.core.compiler.daemon.KnownChangedFiles
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.core.model.KotlinEnvironment
 import org.jetbrains.kotlin.core.model.KotlinJavaManager
 import org.jetbrains.kotlin.core.model.KotlinScriptEnvironment
 import org.jetbrains.kotlin.core.model.runJob
 import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer
 import org.jetbrains.kotlin.core.resolve.lang.java.structure.EclipseJavaElementUtil
 import org.jetbrains.kotlin.core.utils.ProjectUtils
+import org.jetbrains.kotlin.diagnostics.Severity
 import org.jetbrains.kotlin.eclipse.ui.utils.EditorUtil
 import org.jetbrains.kotlin.resolve.diagnostics.Diagnostics
 import org.jetbrains.kotlin.ui.KotlinPluginUpdater
 import org.jetbrains.kotlin.ui.editors.KotlinFileEditor
 import org.jetbrains.kotlin.ui.editors.annotations.AnnotationManager
-import org.jetbrains.kotlin.ui.editors.annotations.DiagnosticAnnotation
 import org.jetbrains.kotlin.ui.editors.annotations.DiagnosticAnnotationUtil
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
 
 class KotlinBuilder : IncrementalProjectBuilder() {
+    companion object {
+        private val dependentFilesToAnalyze = ConcurrentHashMap<IProject, MutableSet<IFile>>()
+        
+        // Kotlin files changed since the last successful incremental compilation
+        private val changedFilesToCompile = ConcurrentHashMap<IProject, MutableSet<IFile>>()
+    }
+    
     private val fileFilters = listOf(ScriptFileFilter, FileFromOuputFolderFilter, FileFromKotlinBinFolderFilter)
     
     override fun build(kind: Int, args: Map<String, String>?, monitor: IProgressMonitor?): Array<IProject>? {
@@ -82,6 +93,7 @@ class KotlinBuilder : IncrementalProjectBuilder() {
                         .toSet()
 
         val existingAffectedFiles = kotlinAffectedFiles.filter { it.exists() }
+        changedFilesToCompile.getOrPut(project) { ConcurrentHashMap.newKeySet() }.addAll(kotlinAffectedFiles)
         
         commitFiles(existingAffectedFiles)
         
@@ -101,22 +113,47 @@ class KotlinBuilder : IncrementalProjectBuilder() {
             KotlinAnalyzer.analyzeFiles(ktFiles)
                 
         clearProblemAnnotationsFromOpenEditorsExcept(existingAffectedFiles)
-        updateLineMarkers(analysisResultWithProvider.analysisResult.bindingContext.diagnostics, existingAffectedFiles)
+        val markersUpdate = updateLineMarkers(analysisResultWithProvider.analysisResult.bindingContext.diagnostics, existingAffectedFiles)
+        reportMarkersUpdate(markersUpdate, existingAffectedFiles.size)
         
 		val incrementalCompilation = corePrefs.getBoolean(CorePreferences.INCREMENTAL_COMPILATION, false)
 		
-        runCancellableAnalysisFor(javaProject) { analysisResult ->
-            val projectFiles = KotlinPsiManager.getFilesByProject(javaProject.project)
-            updateLineMarkers(analysisResult.bindingContext.diagnostics, (projectFiles - existingAffectedFiles).toList())
-			if(!analysisResult.isError() && incrementalCompilation) {
+        // When lookups of the whole project are known, only files which used changed declarations are analyzed again
+        val lookupIndex = KotlinEnvironment.getEnvironment(project).lookupIndex
+        val dependentFiles = if (kotlinAffectedFiles.isNotEmpty() && lookupIndex.isComplete) {
+            // Files from the previous build could be not analyzed if that analysis was canceled
+            val notAnalyzedFiles = dependentFilesToAnalyze.getOrPut(project) { ConcurrentHashMap.newKeySet() }
+            notAnalyzedFiles.addAll(lookupIndex.updateAndGetDependentFiles(kotlinAffectedFiles))
+            notAnalyzedFiles.removeAll(existingAffectedFiles)
+            notAnalyzedFiles.filter { it.exists() }.toSet()
+        } else {
+            dependentFilesToAnalyze.remove(project)
+            null
+        }
+        
+        runCancellableAnalysisFor(javaProject, dependentFiles) { analysisResult ->
+            val filesToUpdate = dependentFiles ?: KotlinPsiManager.getFilesByProject(javaProject.project) - existingAffectedFiles
+            if (dependentFiles != null) {
+                dependentFilesToAnalyze[project]?.removeAll(dependentFiles)
+            }
+            
+            val dependentMarkersUpdate = updateLineMarkers(analysisResult.bindingContext.diagnostics, filesToUpdate.toList())
+            reportMarkersUpdate(dependentMarkersUpdate, filesToUpdate.size)
+			// Edited files are not analyzed again with their dependents, so errors of both analyses prevent compilation
+			if(!hasErrors(analysisResult) && !hasErrors(analysisResultWithProvider.analysisResult) && incrementalCompilation) {
 				val cachesDir = getCachesDir(javaProject, true)				
-				compileKotlinFiles(javaProject, KotlinCompilerArguments.incrementalBuild(cachesDir))
+				compileIncrementally(javaProject, cachesDir, corePrefs.getBoolean(CorePreferences.BUILD_DAEMON, false))
 			}
         }
         
         return null
     }
     
+    private fun hasErrors(analysisResult: AnalysisResult): Boolean {
+        return analysisResult.isError() ||
+                analysisResult.bindingContext.diagnostics.any { it.severity == Severity.ERROR }
+    }
+    
 	private fun getCachesDir(javaProject: IJavaProject, createIfNotExists : Boolean) : java.io.File {
 		val ifile = KotlinJavaManager.getKotlinCacheFolderFor(javaProject.getProject());
 		if(!ifile.exists() && createIfNotExists) {
@@ -132,6 +169,26 @@ class KotlinBuilder : IncrementalProjectBuilder() {
         this.makeClean(javaProject)
     }
 
+    private fun compileIncrementally(javaProject: IJavaProject, cachesDir: File, useDaemon: Boolean) {
+        val arguments = KotlinCompilerArguments.incrementalBuild(cachesDir)
+        val changedFiles = changedFilesToCompile[project]?.toSet() ?: emptySet()
+        if (useDaemon) {
+            arguments.useDaemon()
+            
+            // Changes can be passed only to the caches which were filled by previous compilations
+            if (File(cachesDir, "classes").exists()) {
+                arguments.withChanges(KnownChangedFiles().apply {
+                    modifiedFiles = changedFiles.filter { it.exists() }.mapNotNull { it.location?.toFile() }
+                    deletedFiles = changedFiles.filterNot { it.exists() }.mapNotNull { it.location?.toFile() }
+                })
+            }
+        }
+        
+        if (compileKotlinFiles(javaProject, arguments)) {
+            changedFilesToCompile[project]?.removeAll(changedFiles)
+        }
+    }
+    
     private fun isAllFilesApplicableForFilters(files: Set<IFile>, javaProject: IJavaProject): Boolean {
         return files.all { file ->
             fileFilters.any { filter ->
@@ -149,6 +206,7 @@ class KotlinBuilder : IncrementalProjectBuilder() {
         clearProblemAnnotationsFromOpenEditorsExcept(emptyList())
         clearMarkersFromFiles(existingFiles)
 		KotlinLightClassGeneration.cleanLightClasses(javaProject.getProject())
+		changedFilesToCompile.remove(javaProject.project)
 		
 		ProjectUtils.cleanFolder(KotlinJavaManager.getKotlinCacheFolderFor(javaProject.getProject()))
     }
@@ -160,17 +218,24 @@ class KotlinBuilder : IncrementalProjectBuilder() {
         commitFiles(existingFiles)
 
         clearProblemAnnotationsFromOpenEditorsExcept(emptyList())
-        clearMarkersFromFiles(existingFiles)
 
         runCancellableAnalysisFor(javaProject) { analysisResult ->
            if(!analysisResult.isError()) {
                compileKotlinFiles(javaProject, KotlinCompilerArguments.fullBuild())
            }
-           updateLineMarkers(analysisResult.bindingContext.diagnostics, existingFiles)
+           val markersUpdate = updateLineMarkers(analysisResult.bindingContext.diagnostics, existingFiles)
+           reportMarkersUpdate(markersUpdate, existingFiles.size)
            KotlinLightClassGeneration.updateLightClasses(javaProject.project, kotlinFiles)
         }
     }
 
+    private fun reportMarkersUpdate(markersUpdate: MarkersUpdate, filesCount: Int) {
+        if (markersUpdate.touched == 0) return
+        
+        KotlinLogger.logInfo("Problem markers of ${project.name} were updated in $filesCount files: " +
+                "${markersUpdate.added} added, ${markersUpdate.removed} removed")
+    }
+    
     private fun commitFiles(files: Collection<IFile>) {
         files.forEach { KotlinPsiManager.commitFile(it, EditorUtil.getDocument(it)) }
     }
@@ -215,21 +280,27 @@ class KotlinBuilder : IncrementalProjectBuilder() {
         return Thread.currentThread().getStackTrace().find { it.className == launchDelegateFQName } != null
     }
     
-    private fun compileKotlinFiles(javaProject: IJavaProject, args : KotlinCompilerArguments) {
+    private fun compileKotlinFiles(javaProject: IJavaProject, args : KotlinCompilerArguments): Boolean {
         val compilerResult = KotlinCompilerUtils.compileWholeProject(javaProject, args)
         if (!compilerResult.compiledCorrectly()) {
             KotlinCompilerUtils.handleCompilerOutput(compilerResult.getCompilerOutput())
         }
+        
+        return compilerResult.compiledCorrectly()
     }
 }
 
-fun updateLineMarkers(diagnostics: Diagnostics, affectedFiles: List<IFile>) {
-    clearMarkersFromFiles(affectedFiles)
-    addMarkersToProject(DiagnosticAnnotationUtil.INSTANCE.handleDiagnostics(diagnostics), affectedFiles)
+fun updateLineMarkers(diagnostics: Diagnostics, affectedFiles: List<IFile>): MarkersUpdate {
+    val annotations = DiagnosticAnnotationUtil.INSTANCE.handleDiagnostics(diagnostics)
+    for (file in affectedFiles) {
+        DiagnosticAnnotationUtil.INSTANCE.addParsingDiagnosticAnnotations(file, annotations)
+    }
+    
+    return ProblemMarkersPublisher.publish(annotations, affectedFiles)
 }
 
 private fun clearMarkersFromFiles(files: List<IFile>) {
-    files.forEach { it.deleteMarkers(IMarker.PROBLEM, true, IResource.DEPTH_INFINITE) }
+    ProblemMarkersPublisher.clear(files)
 }
 
 private fun clearProblemAnnotationsFromOpenEditorsExcept(affectedFiles: List<IFile>) {
@@ -247,13 +318,6 @@ private fun clearProblemAnnotationsFromOpenEditorsExcept(affectedFiles: List<IFi
     }
 }
 
-private fun addMarkersToProject(annotations: Map<IFile, List<DiagnosticAnnotation>>, affectedFiles: List<IFile>) {
-    for (file in affectedFiles) {
-        DiagnosticAnnotationUtil.INSTANCE.addParsingDiagnosticAnnotations(file, annotations)
-        annotations[file]?.forEach { AnnotationManager.addProblemMarker(it, file) }
-    }
-}
-
 interface KotlinFileFilterForBuild {
     fun isApplicable(file: IFile, javaProject: IJavaProject): Boolean
 }
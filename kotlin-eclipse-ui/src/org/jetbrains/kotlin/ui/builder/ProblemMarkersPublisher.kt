@@ -0,0 +1,96 @@
+/*******************************************************************************
+* Copyright 2000-2016 JetBrains s.r.o.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*******************************************************************************/
+package org.jetbrains.kotlin.ui.builder
+
+import org.eclipse.core.resources.IFile
+import org.eclipse.core.resources.IMarker
+import org.eclipse.core.resources.IResource
+import org.eclipse.core.resources.IWorkspace
+import org.eclipse.core.resources.IWorkspaceRunnable
+import org.eclipse.core.resources.ResourcesPlugin
+import org.eclipse.core.runtime.CoreException
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.ui.editors.annotations.AnnotationManager
+import org.jetbrains.kotlin.ui.editors.annotations.DiagnosticAnnotation
+import org.jetbrains.kotlin.ui.editors.annotations.DiagnosticKey
+import org.jetbrains.kotlin.ui.editors.annotations.getKey
+
+data class MarkersUpdate(val added: Int, val removed: Int) {
+    val touched: Int
+        get() = added + removed
+}
+
+// Updates problem markers of files by the difference between the reported and the existing problems,
+// so that unchanged problems do not produce resource deltas and refreshes of the Problems view
+object ProblemMarkersPublisher {
+    fun publish(annotations: Map<IFile, List<DiagnosticAnnotation>>, files: Collection<IFile>): MarkersUpdate {
+        var added = 0
+        var removed = 0
+
+        runBatch {
+            for (file in files) {
+                if (!file.exists()) continue
+
+                val existingMarkers = hashMapOf<DiagnosticKey, MutableList<IMarker>>()
+                for (marker in file.findMarkers(IMarker.PROBLEM, true, IResource.DEPTH_INFINITE)) {
+                    existingMarkers.getOrPut(getKey(marker)) { arrayListOf() }.add(marker)
+                }
+
+                for (annotation in annotations[file] ?: emptyList<DiagnosticAnnotation>()) {
+                    val sameMarkers = existingMarkers[annotation.getKey()]
+                    if (sameMarkers == null || sameMarkers.isEmpty()) {
+                        AnnotationManager.addProblemMarker(annotation, file)
+                        added++
+                    } else {
+                        sameMarkers.removeAt(sameMarkers.lastIndex)
+                    }
+                }
+
+                for (marker in existingMarkers.values.flatten()) {
+                    marker.delete()
+                    removed++
+                }
+            }
+        }
+
+        return MarkersUpdate(added, removed)
+    }
+
+    fun clear(files: Collection<IFile>) {
+        runBatch {
+            files.forEach { it.deleteMarkers(IMarker.PROBLEM, true, IResource.DEPTH_INFINITE) }
+        }
+    }
+
+    // All changes of markers are reported to listeners as one resource delta
+    private fun runBatch(action: () -> Unit) {
+        try {
+            ResourcesPlugin.getWorkspace().run(IWorkspaceRunnable { action() }, null, IWorkspace.AVOID_UPDATE, null)
+        } catch (e: CoreException) {
+            KotlinLogger.logError(e)
+        }
+    }
+
+    private fun getKey(marker: IMarker): DiagnosticKey {
+        return DiagnosticKey(
+                marker.getAttribute(AnnotationManager.DIAGNOSTIC_FACTORY) as? String,
+                marker.getAttribute(IMarker.SEVERITY, 0),
+                marker.getAttribute(IMarker.CHAR_START, -1),
+                marker.getAttribute(IMarker.CHAR_END, -1),
+                marker.getAttribute(IMarker.MESSAGE, ""))
+    }
+}
@@ -30,10 +30,25 @@ import org.eclipse.jdt.core.IJavaElement
 import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache
 import org.eclipse.jdt.core.IJavaModel
 import org.eclipse.jdt.core.ITypeParameter
-import org.eclipse.jdt.internal.core.ImportContainer
+import org.eclipse.jdt.core.IImportContainer
+import org.eclipse.jdt.core.IAnnotatable
+import org.eclipse.jdt.core.Flags
+import org.eclipse.jdt.core.JavaModelException
 import org.eclipse.jdt.core.IPackageFragment
+import org.eclipse.jdt.core.IPackageFragmentRoot
+import org.eclipse.jdt.core.IClassFile
 import org.eclipse.jdt.core.IPackageDeclaration
 import org.jetbrains.kotlin.core.model.KotlinAnalysisFileCache
+import org.eclipse.core.resources.IProject
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.core.resolve.KotlinDependenciesModuleCache
+import org.jetbrains.kotlin.incremental.LookupSymbol
+import java.util.concurrent.ConcurrentHashMap
+import org.eclipse.core.runtime.IProgressMonitor
+import org.eclipse.core.runtime.IStatus
+import org.eclipse.core.runtime.Status
+import org.eclipse.core.runtime.jobs.Job
 
 public class KotlinClassPathListener : IElementChangedListener {
     override public fun elementChanged(event: ElementChangedEvent) {
@@ -44,36 +59,325 @@ public class KotlinClassPathListener : IElementChangedListener {
         delta.getAffectedChildren().forEach { updateEnvironmentIfClasspathChanged(it) }
         
         val element = delta.getElement()
+        if (element is IPackageFragmentRoot && (delta.getFlags() and IJavaElementDelta.F_ARCHIVE_CONTENT_CHANGED) != 0) {
+            KotlinDependenciesModuleCache.archivesChanged()
+        }
+        
         if (element is IJavaProject && element.exists() && KotlinNature.hasKotlinNature(element.getProject())) {
             val flags = delta.getFlags()
             if ((flags and IJavaElementDelta.F_CLASSPATH_CHANGED) != 0 || 
                 (flags and IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED) != 0) {
-                KotlinEnvironment.removeEnvironment(element.project)
+                KotlinEnvironment.updateClasspath(element.project)
             }
         }
     }
 }
 
+private class UnitSignatures(
+        val symbols: Map<LookupSymbol, Int>,
+        // Supertypes and type parameters of every type of the unit by its qualified name
+        val headers: Map<String, Int>)
+
 public class KotlinJavaDeclarationsListener : IElementChangedListener {
+    // Signatures of non-private java declarations by compilation units as they were seen on the last change
+    private val signaturesByUnit = ConcurrentHashMap<String, UnitSignatures>()
+    
+    // Changed members of units whose subtypes are not yet found by the hierarchy job
+    private val pendingSubtypeChanges = arrayListOf<Triple<IProject, ICompilationUnit, Set<LookupSymbol>>>()
+    
+    // Type hierarchy is computed from the whole workspace, so it is not done inside the notification of java model
+    private val subtypesJob = object : Job("Invalidating Kotlin files affected by changes of java supertypes") {
+        override fun run(monitor: IProgressMonitor): IStatus {
+            val pending = synchronized(pendingSubtypeChanges) {
+                pendingSubtypeChanges.toList().also { pendingSubtypeChanges.clear() }
+            }
+            
+            val symbolsOfSubtypes = hashMapOf<IProject, MutableSet<LookupSymbol>>()
+            val changedProjects = hashSetOf<IProject>()
+            for ((project, unit, symbols) in pending) {
+                try {
+                    val members = collectMembersOfSubtypes(unit, symbols)
+                    if (members.isNotEmpty()) {
+                        symbolsOfSubtypes.getOrPut(project) { hashSetOf() }.addAll(members)
+                    }
+                } catch (e: JavaModelException) {
+                    KotlinLogger.logError(e)
+                    changedProjects.add(project)
+                }
+            }
+            
+            if (changedProjects.isNotEmpty()) {
+                changedProjects.forEach { KotlinAnalysisProjectCache.resetCache(it) }
+                KotlinAnalysisFileCache.resetCache()
+            }
+            
+            for ((project, symbols) in symbolsOfSubtypes) {
+                if (project !in changedProjects) {
+                    invalidateDependentFiles(project, symbols)
+                }
+            }
+            
+            return Status.OK_STATUS
+        }
+    }.apply { isSystem = true }
+    
     override fun elementChanged(event: ElementChangedEvent) {
-        resetCacheIfJavaElementDeclarationChanged(event.getDelta())
+        val changedUnits = hashSetOf<ICompilationUnit>()
+        val changedProjects = hashSetOf<IProject>()
+        collectChangedJavaDeclarations(event.getDelta(), changedUnits, changedProjects)
+        
+        val changedSymbols = hashMapOf<IProject, MutableSet<LookupSymbol>>()
+        val changedSymbolsByUnit = hashMapOf<ICompilationUnit, Set<LookupSymbol>>()
+        for (unit in changedUnits) {
+            val project = unit.getJavaProject()?.project ?: continue
+            val symbols = computeChangedSymbols(unit)
+            if (symbols == null) {
+                changedProjects.add(project)
+            } else if (symbols.isNotEmpty()) {
+                changedSymbols.getOrPut(project) { hashSetOf() }.addAll(symbols)
+                changedSymbolsByUnit[unit] = symbols
+            }
+        }
+        
+        (changedProjects + changedSymbols.keys).forEach { invalidateJavaBindings(it) }
+        
+        val changedPackages = hashMapOf<IProject, MutableSet<String>>()
+        val projectsWithChangedRoots = hashSetOf<IProject>()
+        collectChangedPackages(event.getDelta(), changedPackages, projectsWithChangedRoots)
+        
+        projectsWithChangedRoots.forEach { project ->
+            forEachAffectedEnvironment(project) { it.javaClassNamesIndex.invalidateAll() }
+        }
+        for ((project, packages) in changedPackages) {
+            forEachAffectedEnvironment(project) { environment ->
+                packages.forEach { environment.javaClassNamesIndex.invalidate(it) }
+            }
+        }
+        
+        if (changedProjects.isNotEmpty()) {
+            changedProjects.forEach { KotlinAnalysisProjectCache.resetCache(it) }
+            KotlinAnalysisFileCache.resetCache()
+        }
+        
+        for ((project, symbols) in changedSymbols) {
+            if (project !in changedProjects) {
+                invalidateDependentFiles(project, symbols)
+            }
+        }
+        
+        val subtypeChanges = changedSymbolsByUnit
+                .map { (unit, symbols) -> Triple(unit.getJavaProject().project, unit, symbols) }
+                .filter { it.first !in changedProjects }
+        if (subtypeChanges.isNotEmpty()) {
+            synchronized(pendingSubtypeChanges) { pendingSubtypeChanges.addAll(subtypeChanges) }
+            subtypesJob.schedule()
+        }
     }
     
-    private fun resetCacheIfJavaElementDeclarationChanged(delta: IJavaElementDelta) {
-        delta.getAffectedChildren().forEach { resetCacheIfJavaElementDeclarationChanged(it) }
+    private fun collectChangedJavaDeclarations(
+            delta: IJavaElementDelta,
+            units: MutableSet<ICompilationUnit>,
+            projects: MutableSet<IProject>) {
+        delta.getAffectedChildren().forEach { collectChangedJavaDeclarations(it, units, projects) }
         
         val element = delta.getElement()
         when (element) {
+            is ICompilationUnit -> units.add(element)
+            
             is IType,
             is IMember,
             is ITypeParameter,
-            is ImportContainer,
+            is IImportContainer,
             is IPackageDeclaration -> {
-                val javaProject = element.getJavaProject()
-                if (javaProject != null) {
-                    KotlinAnalysisProjectCache.resetCache(javaProject.project)
+                val unit = element.getAncestor(IJavaElement.COMPILATION_UNIT) as? ICompilationUnit
+                if (unit != null) {
+                    units.add(unit)
+                } else {
+                    // Declarations of class files are not summarized
+                    element.getJavaProject()?.let { projects.add(it.project) }
                 }
             }
         }
     }
+    
+    // Returns null if signatures of the unit cannot be computed or the whole project is affected by them
+    private fun computeChangedSymbols(unit: ICompilationUnit): Set<LookupSymbol>? {
+        val key = unit.getHandleIdentifier()
+        try {
+            val newSignatures = if (unit.exists()) collectSignatures(unit) else null
+            
+            val oldSignatures = if (newSignatures != null && newSignatures.symbols.isNotEmpty()) {
+                signaturesByUnit.put(key, newSignatures)
+            } else {
+                signaturesByUnit.remove(key)
+            }
+            
+            // Members inherited by subtypes of a changed or removed type are not known, they can come from any supertype
+            val oldHeaders = oldSignatures?.headers ?: emptyMap()
+            val newHeaders = newSignatures?.headers ?: emptyMap()
+            if (oldHeaders.any { (type, header) -> newHeaders[type] != header }) return null
+            
+            val oldSymbols = oldSignatures?.symbols ?: emptyMap()
+            val newSymbols = newSignatures?.symbols ?: emptyMap()
+            
+            // Declarations of the unit seen for the first time are considered as changed
+            val changedSymbols = (oldSymbols.keys + newSymbols.keys)
+                    .filter { oldSymbols[it] != newSymbols[it] }
+                    .toHashSet()
+            
+            return changedSymbols
+        } catch (e: JavaModelException) {
+            KotlinLogger.logError(e)
+            signaturesByUnit.remove(key)
+            return null
+        }
+    }
+    
+    // Lookups of inherited members are recorded in scopes of the subtypes where they are used
+    private fun collectMembersOfSubtypes(unit: ICompilationUnit, changedSymbols: Set<LookupSymbol>): Set<LookupSymbol> {
+        if (!unit.exists()) return emptySet()
+        
+        val membersOfSubtypes = hashSetOf<LookupSymbol>()
+        val typesByName = unit.getAllTypes().associateBy { it.getFullyQualifiedName('.') }
+        for ((typeName, members) in changedSymbols.groupBy { it.scope }) {
+            val type = typesByName[typeName] ?: continue
+            
+            for (subtype in type.newTypeHierarchy(null).getAllSubtypes(type)) {
+                val subtypeName = subtype.getFullyQualifiedName('.')
+                members.mapTo(membersOfSubtypes) { LookupSymbol(it.name, subtypeName) }
+            }
+        }
+        
+        return membersOfSubtypes
+    }
+    
+    // Packages with added or removed classes, changes of package fragment roots affect all packages of the project
+    private fun collectChangedPackages(
+            delta: IJavaElementDelta,
+            packages: MutableMap<IProject, MutableSet<String>>,
+            projectsWithChangedRoots: MutableSet<IProject>) {
+        delta.getAffectedChildren().forEach { collectChangedPackages(it, packages, projectsWithChangedRoots) }
+        
+        val element = delta.getElement()
+        val project = element.getJavaProject()?.project ?: return
+        val isAddedOrRemoved = delta.getKind() != IJavaElementDelta.CHANGED
+        val flags = delta.getFlags()
+        
+        val isPackageChanged = when (element) {
+            is IPackageFragmentRoot -> {
+                val rootFlags = IJavaElementDelta.F_ARCHIVE_CONTENT_CHANGED or
+                        IJavaElementDelta.F_ADDED_TO_CLASSPATH or
+                        IJavaElementDelta.F_REMOVED_FROM_CLASSPATH
+                if (isAddedOrRemoved || (flags and rootFlags) != 0) {
+                    projectsWithChangedRoots.add(project)
+                }
+                false
+            }
+            
+            is IPackageFragment, is IClassFile -> isAddedOrRemoved
+            
+            // Contents of a compilation unit without fine-grained delta can declare other types
+            is ICompilationUnit -> isAddedOrRemoved ||
+                    ((flags and IJavaElementDelta.F_CONTENT) != 0 && (flags and IJavaElementDelta.F_FINE_GRAINED) == 0)
+            
+            is IType -> isAddedOrRemoved && element.getDeclaringType() == null
+            
+            else -> false
+        }
+        
+        if (isPackageChanged) {
+            val packageFragment = element.getAncestor(IJavaElement.PACKAGE_FRAGMENT) ?: return
+            packages.getOrPut(project) { hashSetOf() }.add(packageFragment.elementName)
+        }
+    }
+    
+    // Kotlin files of the project and of projects depending on it are affected if they looked up changed declarations
+    private fun invalidateDependentFiles(project: IProject, symbols: Set<LookupSymbol>) {
+        forEachAffectedEnvironment(project) { environment ->
+            val lookupIndex = environment.lookupIndex
+            val dependentFiles = if (lookupIndex.isComplete) {
+                lookupIndex.getDependentFiles(symbols)
+            } else {
+                KotlinPsiManager.getFilesByProject(environment.eclipseProject)
+            }
+            
+            if (dependentFiles.isNotEmpty()) {
+                KotlinAnalysisProjectCache.resetCache(environment.eclipseProject)
+                KotlinAnalysisFileCache.resetCache(dependentFiles)
+            }
+        }
+    }
+    
+    // Bindings of java types are resolved together with their supertypes and members from the whole classpath
+    private fun invalidateJavaBindings(project: IProject) {
+        forEachAffectedEnvironment(project) { it.javaBindingsCache.invalidate() }
+    }
+    
+    private fun forEachAffectedEnvironment(project: IProject, action: (KotlinEnvironment) -> Unit) {
+        for (affectedProject in listOf(project) + project.getReferencingProjects()) {
+            if (!affectedProject.isAccessible() || !KotlinNature.hasKotlinNature(affectedProject)) continue
+            
+            KotlinEnvironment.getEnvironmentIfCreated(affectedProject)?.let(action)
+        }
+    }
+    
+    private fun collectSignatures(unit: ICompilationUnit): UnitSignatures {
+        val signatures = hashMapOf<LookupSymbol, Int>()
+        val headers = hashMapOf<String, Int>()
+        
+        // Names in signatures are not resolved, so they change their meaning together with imports
+        val importsHash = unit.getImports().map { "${it.elementName} ${it.flags}" }.hashCode()
+        
+        fun add(symbol: LookupSymbol, signature: List<Any?>) {
+            // Overloads share one symbol
+            signatures[symbol] = 31 * (signatures[symbol] ?: importsHash) + signature.hashCode()
+        }
+        
+        fun collect(type: IType, scope: String) {
+            if (Flags.isPrivate(type.getFlags())) return
+            
+            val typeSymbol = LookupSymbol(type.elementName, scope)
+            val typeFqName = type.getFullyQualifiedName('.')
+            val header = listOf(
+                    type.getSuperclassTypeSignature(),
+                    type.getSuperInterfaceTypeSignatures().toList(),
+                    type.getTypeParameterSignatures().toList())
+            headers[typeFqName] = 31 * importsHash + header.hashCode()
+            add(typeSymbol, listOf(type.getFlags(), header, getAnnotationNames(type)))
+            
+            for (method in type.getMethods()) {
+                if (Flags.isPrivate(method.getFlags())) continue
+                
+                // Constructors are resolved by the name of the class
+                val symbol = if (method.isConstructor()) typeSymbol else LookupSymbol(method.elementName, typeFqName)
+                add(symbol, listOf(
+                        method.elementName,
+                        method.getFlags(),
+                        method.getReturnType(),
+                        method.getParameterTypes().toList(),
+                        method.getTypeParameterSignatures().toList(),
+                        getAnnotationNames(method),
+                        method.getParameters().map { getAnnotationNames(it) }))
+            }
+            
+            for (field in type.getFields()) {
+                if (Flags.isPrivate(field.getFlags())) continue
+                
+                add(LookupSymbol(field.elementName, typeFqName), listOf(
+                        field.getFlags(),
+                        field.getTypeSignature(),
+                        getAnnotationNames(field),
+                        field.getConstant()))
+            }
+            
+            type.getTypes().forEach { collect(it, typeFqName) }
+        }
+        
+        val packageName = unit.getParent().elementName
+        unit.getTypes().forEach { collect(it, packageName) }
+        
+        return UnitSignatures(signatures, headers)
+    }
+    
+    private fun getAnnotationNames(element: IAnnotatable): List<String> = element.getAnnotations().map { it.elementName }
 }
\ No newline at end of file
@@ -39,6 +39,7 @@ import org.eclipse.swt.widgets.Text;
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
 import org.jetbrains.kotlin.eclipse.ui.utils.EditorUtil;
 import org.jetbrains.kotlin.eclipse.ui.utils.LineEndUtil;
+import org.jetbrains.kotlin.psi.KtFile;
 
 import com.intellij.lang.ASTNode;
 import com.intellij.openapi.util.TextRange;
@@ -83,10 +84,8 @@ public final class VisualizationPage extends Dialog {
         psiTreeViewer.setContentProvider(new PsiContentProvider());
         psiTreeViewer.setLabelProvider(new LabelProvider());
         
-        ASTNode parsedAst = KotlinPsiManager.INSTANCE.getParsedFile(file).getNode();
-        psiTreeViewer.setInput(parsedAst);
-        
-        final String parsedText = parsedAst.getText();
+        final KtFile parsedFile = KotlinPsiManager.INSTANCE.getParsedFile(file);
+        psiTreeViewer.setInput(parsedFile.getNode());
         
         final IDocument document = EditorUtil.getDocument(file);
         
@@ -97,8 +96,8 @@ public final class VisualizationPage extends Dialog {
                 ASTNode selectedNode = (ASTNode) thisSelection.getFirstElement();
                 TextRange selectedNodeRange = selectedNode.getTextRange();
                 
-                int start = LineEndUtil.convertLfToDocumentOffset(parsedText, selectedNodeRange.getStartOffset(), document);
-                int end = LineEndUtil.convertLfToDocumentOffset(parsedText, selectedNodeRange.getEndOffset(), document);
+                int start = LineEndUtil.convertLfToDocumentOffset(parsedFile, selectedNodeRange.getStartOffset(), document);
+                int end = LineEndUtil.convertLfToDocumentOffset(parsedFile, selectedNodeRange.getEndOffset(), document);
                 
                 programText.setSelection(start, end);
                 programText.showSelection();
@@ -23,11 +23,15 @@ import org.eclipse.jface.text.DocumentCommand;
 import org.eclipse.jface.text.IAutoEditStrategy;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
 import org.eclipse.jface.text.TextUtilities;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
 import org.jetbrains.kotlin.core.log.KotlinLogger;
 import org.jetbrains.kotlin.eclipse.ui.utils.IndenterUtil;
 import org.jetbrains.kotlin.eclipse.ui.utils.LineEndUtil;
 import org.jetbrains.kotlin.idea.formatter.KotlinSpacingRulesKt;
+import org.jetbrains.kotlin.psi.KtDeclaration;
 import org.jetbrains.kotlin.psi.KtFile;
 import org.jetbrains.kotlin.psi.KtPsiFactory;
 import org.jetbrains.kotlin.ui.formatter.KotlinBlock;
@@ -36,6 +40,7 @@ import org.jetbrains.kotlin.ui.formatter.KotlinSpacingBuilderUtilImpl;
 
 import com.intellij.formatting.FormatterImpl;
 import com.intellij.formatting.Indent;
+import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.codeStyle.CodeStyleSettings;
 
 public class KotlinAutoIndentStrategy implements IAutoEditStrategy {
@@ -84,13 +89,17 @@ public class KotlinAutoIndentStrategy implements IAutoEditStrategy {
                 command.length = oldOffset - newOffset;
             }
             
-            IDocument tempDocument = new Document(document.get());
-            tempDocument.replace(command.offset, command.length, command.text + " ");
+            IRegion region = findIndentationRegion(document, command.offset, command.length);
+            int tempOffset = command.offset - region.getOffset();
+            
+            IDocument tempDocument = new Document(document.get(region.getOffset(), region.getLength()));
+            tempDocument.replace(tempOffset, command.length, command.text + " ");
             
             int newLineOffset = command.offset + command.text.length();
+            int tempNewLineOffset = tempOffset + command.text.length();
             if (beforeCloseBrace && afterOpenBrace) {
-                tempDocument.replace(command.offset, 0, command.text);
-                String shift = getIndent(tempDocument, newLineOffset);
+                tempDocument.replace(tempOffset, 0, command.text);
+                String shift = getIndent(tempDocument, tempNewLineOffset);
                 int beforeBraceIndent = shift.length() / IndenterUtil.getDefaultIndentSize();
                 if (beforeBraceIndent > 0) beforeBraceIndent--;
                 
@@ -102,13 +111,64 @@ public class KotlinAutoIndentStrategy implements IAutoEditStrategy {
                 command.shiftsCaret = false;
                 command.length += document.get().indexOf(CLOSING_BRACE_CHAR, p) - p;
             } else {
-                command.text += getIndent(tempDocument, newLineOffset + 1);
+                command.text += getIndent(tempDocument, tempNewLineOffset + 1);
             }
         } catch (BadLocationException e) {
             KotlinLogger.logAndThrow(e);
         }
     }
     
+    // Indent of a line depends only on the top-level declaration around it, so only this declaration is parsed 
+    // and formatted. Declarations are taken from the committed file only when it is up to date with the document,
+    // otherwise they are found in the text, so that typing never parses and commits the whole document.
+    @NotNull
+    private IRegion findIndentationRegion(IDocument document, int offset, int length) {
+        IFile eclipseFile = editor.getEclipseFile();
+        KtFile ktFile = eclipseFile != null ? KotlinPsiManager.getCommittedFileIfUpToDate(eclipseFile, document) : null;
+        if (ktFile == null) {
+            return findTopLevelRegionInText(document.get(), offset, length);
+        }
+        
+        for (KtDeclaration declaration : ktFile.getDeclarations()) {
+            TextRange range = LineEndUtil.crRangeFromLfRange(ktFile, declaration.getTextRange(), document);
+            if (range.getStartOffset() < offset && offset + length < range.getEndOffset()) {
+                return new Region(range.getStartOffset(), range.getLength());
+            }
+        }
+        
+        return new Region(0, document.getLength());
+    }
+    
+    // Top-level declarations start with lines which begin outside of braces and parentheses with a non-whitespace character.
+    // Brackets in strings and comments are not skipped, an unclosed one only makes the region larger.
+    @NotNull
+    private static IRegion findTopLevelRegionInText(String text, int offset, int length) {
+        int start = 0;
+        int end = text.length();
+        int depth = 0;
+        boolean isLineStart = true;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isLineStart && depth == 0 && !Character.isWhitespace(c) && c != CLOSING_BRACE_CHAR && c != ')') {
+                if (i < offset) {
+                    start = i;
+                } else if (i > offset + length) {
+                    end = i;
+                    break;
+                }
+            }
+            
+            isLineStart = c == '\n' || c == '\r';
+            if (c == OPENING_BRACE_CHAR || c == '(') {
+                depth++;
+            } else if ((c == CLOSING_BRACE_CHAR || c == ')') && depth > 0) {
+                depth--;
+            }
+        }
+        
+        return new Region(start, end - start);
+    }
+    
     private String getIndent(IDocument tempDocument, int offset) throws BadLocationException {
         IFile eclipseFile = editor.getEclipseFile();
         assert eclipseFile != null : "Eclipse IFile for " + tempDocument + " must not be null";
@@ -139,9 +199,12 @@ public class KotlinAutoIndentStrategy implements IAutoEditStrategy {
     private void autoEditBeforeCloseBrace(IDocument document, DocumentCommand command) {
         if (isNewLineBefore(document, command.offset)) {
             try {
-                IDocument tempDocument = new Document(document.get());
-                tempDocument.replace(command.offset, command.length, CLOSING_BRACE_STRING);
-                String indent = getIndent(tempDocument, command.offset);
+                IRegion region = findIndentationRegion(document, command.offset, command.length);
+                int tempOffset = command.offset - region.getOffset();
+                
+                IDocument tempDocument = new Document(document.get(region.getOffset(), region.getLength()));
+                tempDocument.replace(tempOffset, command.length, CLOSING_BRACE_STRING);
+                String indent = getIndent(tempDocument, tempOffset);
                 
                 int spaceLength = command.offset - findEndOfWhiteSpaceBefore(document, command.offset - 1, 0) - 1;
                 command.offset -= spaceLength;
@@ -23,12 +23,14 @@ import org.eclipse.debug.ui.actions.IToggleBreakpointsTarget
 import org.eclipse.jdt.core.IClassFile
 import org.eclipse.jdt.core.IJavaElement
 import org.eclipse.jdt.core.IJavaProject
+import org.eclipse.jdt.internal.core.BinaryType
 import org.eclipse.jdt.internal.ui.javaeditor.ClassFileEditor
 import org.eclipse.jdt.internal.ui.javaeditor.selectionactions.SelectionHistory
 import org.eclipse.jdt.internal.ui.javaeditor.selectionactions.StructureSelectHistoryAction
 import org.eclipse.jdt.internal.ui.text.JavaColorManager
 import org.eclipse.jdt.ui.actions.IJavaEditorActionDefinitionIds
 import org.eclipse.jface.text.IDocument
+import org.eclipse.jface.text.IDocumentExtension4
 import org.eclipse.jface.text.source.SourceViewerConfiguration
 import org.eclipse.swt.widgets.Composite
 import org.eclipse.ui.views.contentoutline.IContentOutlinePage
@@ -58,12 +60,36 @@ public class KotlinClassFileEditor : ClassFileEditor(), KotlinEditor {
     
     override val javaEditor = this
 
+    private var cachedParsedFile: KtFile? = null
+    
+    private var cachedDocument: IDocument? = null
+    
+    private var cachedDocumentStamp = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP
+    
+    // Decompiled or attached sources are parsed once per version of the document
     override val parsedFile: KtFile 
-        get() {
-            val environment = KotlinEnvironment.getEnvironment(javaProject.project)
-            val ideaProject = environment.project
-            val jetFile = KtPsiFactory(ideaProject).createFile(StringUtil.convertLineSeparators(document.get(),"\n"))
-            jetFile.putUserData(FILE_PROJECT, javaProject)
+        @Synchronized get() {
+            val currentDocument = document
+            val documentStamp = (currentDocument as? IDocumentExtension4)?.modificationStamp ?: IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP
+            
+            val cached = cachedParsedFile
+            if (cached != null && cachedDocument === currentDocument && cachedDocumentStamp == documentStamp &&
+                    documentStamp != IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP && !cached.project.isDisposed) {
+                return cached
+            }
+            
+            val jetFile = KotlinLibraryFilesCache.getParsedFile(javaProject, getLibraryPath(), getEntryPath(), currentDocument.get()) { text ->
+                val environment = KotlinEnvironment.getEnvironment(javaProject.project)
+                val ideaProject = environment.project
+                KtPsiFactory(ideaProject).createFile(StringUtil.convertLineSeparators(text, "\n")).apply {
+                    putUserData(FILE_PROJECT, javaProject)
+                }
+            }
+            
+            cachedParsedFile = jetFile
+            cachedDocument = currentDocument
+            cachedDocumentStamp = documentStamp
+            
             return jetFile
         }
 
@@ -136,6 +162,16 @@ public class KotlinClassFileEditor : ClassFileEditor(), KotlinEditor {
     override val document: IDocument
         get() = getDocumentProvider().getDocument(getEditorInput())
     
+    private fun getLibraryPath(): String {
+        return classFile.getAncestor(IJavaElement.PACKAGE_FRAGMENT_ROOT)?.path?.toPortableString() ?: ""
+    }
+    
+    // Classes compiled from one source file are shown with the same source
+    private fun getEntryPath(): String {
+        val sourceName = (classFile.getType() as? BinaryType)?.getSourceFileName(null)?.toString()
+        return "${classFile.getParent().getElementName()}/${sourceName ?: classFile.getElementName()}"
+    }
+    
     private fun findDeclarationInFile(classFile: IClassFile): KtClassOrObject? {
         val fqName = classFile.getType().getFullyQualifiedName()
         return parsedFile.accept(object: KtVisitor<KtClassOrObject?, String>() {
@@ -161,7 +197,7 @@ public class KotlinClassFileEditor : ClassFileEditor(), KotlinEditor {
 
     private fun revealClassInFile(classDeclaration: KtClassOrObject?) {
         if (classDeclaration != null) {
-            val correctedOffset = LineEndUtil.convertLfToDocumentOffset(parsedFile.getText(), classDeclaration.getTextOffset(), document);
+            val correctedOffset = LineEndUtil.convertLfToDocumentOffset(parsedFile, classDeclaration.getTextOffset(), document);
             selectAndReveal(correctedOffset, 0);
         }
     }
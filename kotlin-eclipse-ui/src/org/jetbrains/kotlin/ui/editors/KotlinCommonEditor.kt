@@ -41,6 +41,7 @@ import org.eclipse.swt.widgets.Composite
 import org.eclipse.ui.PlatformUI
 import org.eclipse.ui.actions.ActionContext
 import org.eclipse.ui.views.contentoutline.IContentOutlinePage
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import org.jetbrains.kotlin.eclipse.ui.utils.IndenterUtil
 import org.jetbrains.kotlin.ui.commands.findReferences.KotlinFindReferencesInProjectAction
 import org.jetbrains.kotlin.ui.commands.findReferences.KotlinFindReferencesInWorkspaceAction
@@ -219,7 +220,12 @@ abstract class KotlinCommonEditor : CompilationUnitEditor(), KotlinEditor {
         
         compositeContextGroup.dispose()
         
+        val file = eclipseFile
+        val hasUnsavedChanges = isDirty()
+        
         super<CompilationUnitEditor>.dispose()
+        
+        file?.let { KotlinPsiManager.closeDocument(it, hasUnsavedChanges) }
     }
     
     override public fun setSelection(element: IJavaElement) {
@@ -22,7 +22,6 @@ import org.eclipse.jface.text.ITextSelection
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import org.jetbrains.kotlin.core.log.KotlinLogger
 import org.jetbrains.kotlin.ui.formatter.EclipseDocumentRange
-import org.jetbrains.kotlin.ui.formatter.createPsiFactory
 import org.jetbrains.kotlin.ui.formatter.formatRange
 
 class KotlinFormatAction(private val editor: KotlinEditor) : SelectionDispatchAction(editor.javaEditor.site) {
@@ -42,7 +41,7 @@ class KotlinFormatAction(private val editor: KotlinEditor) : SelectionDispatchAc
             return
         }
         
-        formatRange(editor.document, getRange(selection), createPsiFactory(file), file.name)
+        formatRange(editor.document, getRange(selection), file)
         
         KotlinPsiManager.commitFile(file, editor.document)
     }
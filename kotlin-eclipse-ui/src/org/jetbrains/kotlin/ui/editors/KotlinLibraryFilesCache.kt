@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.ui.editors
+
+import org.eclipse.jdt.core.IJavaProject
+import org.jetbrains.kotlin.psi.KtFile
+
+// Parsed sources of library classes shared between editors, so that navigation to the same
+// library class does not parse its source again. Files are parsed in the environment of a particular project.
+object KotlinLibraryFilesCache {
+    private const val MAX_FILES = 32
+
+    private data class LibraryEntry(val javaProject: IJavaProject, val libraryPath: String, val entryPath: String)
+
+    private class ParsedLibraryFile(val text: String, val ktFile: KtFile)
+
+    private val parsedFiles = object : LinkedHashMap<LibraryEntry, ParsedLibraryFile>(MAX_FILES, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<LibraryEntry, ParsedLibraryFile>?): Boolean {
+            return size > MAX_FILES
+        }
+    }
+
+    fun getParsedFile(
+            javaProject: IJavaProject,
+            libraryPath: String,
+            entryPath: String,
+            text: String,
+            parse: (String) -> KtFile): KtFile {
+        val entry = LibraryEntry(javaProject, libraryPath, entryPath)
+        synchronized(parsedFiles) {
+            // Files of recreated environments are not valid anymore
+            parsedFiles.values.removeAll { it.ktFile.project.isDisposed }
+            
+            val parsedFile = parsedFiles[entry]
+            if (parsedFile != null && parsedFile.text == text) {
+                return parsedFile.ktFile
+            }
+        }
+
+        val ktFile = parse(text)
+        synchronized(parsedFiles) {
+            parsedFiles[entry] = ParsedLibraryFile(text, ktFile)
+        }
+
+        return ktFile
+    }
+}
@@ -25,7 +25,6 @@ import org.eclipse.jface.text.reconciler.IReconcilingStrategy
 import org.eclipse.jface.util.SafeRunnable
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import org.jetbrains.kotlin.core.log.KotlinLogger
-import org.jetbrains.kotlin.core.model.KotlinAnalysisFileCache
 import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache
 import org.jetbrains.kotlin.core.model.KotlinScriptDependenciesClassFinder
 
@@ -81,7 +80,6 @@ class KotlinReconcilingStrategy(val editor: KotlinEditor) : IReconcilingStrategy
     
     private fun resetCache(file: IFile) {
         KotlinAnalysisProjectCache.resetCache(file.project)
-        KotlinAnalysisFileCache.resetCache()
         
         KotlinScriptDependenciesClassFinder.resetScriptExternalDependencies(file)
     }
@@ -36,7 +36,7 @@ class KotlinScriptEditor : KotlinCommonEditor() {
     override val parsedFile: KtFile?
         get() {
             val file = eclipseFile ?: return null
-            return KotlinPsiManager.getKotlinFileIfExist(file, document.get())
+            return KotlinPsiManager.getKotlinFileIfExist(file, document)
         }
 
     override val javaProject: IJavaProject? by lazy {
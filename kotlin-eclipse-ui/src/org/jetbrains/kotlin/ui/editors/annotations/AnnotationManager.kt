@@ -55,14 +55,39 @@ public object AnnotationManager {
     @JvmField val IS_UNRESOLVED_REFERENCE = "isUnresolvedReference"
     @JvmField val MARKER_PROBLEM_TYPE = IJavaModelMarker.JAVA_MODEL_PROBLEM_MARKER
     val CAN_FIX_PROBLEM = "KotlinProblemCanBeFixed"
+    val DIAGNOSTIC_FACTORY = "diagnosticFactory"
     
     public fun updateAnnotations(editor: AbstractTextEditor, annotations: List<DiagnosticAnnotation>) {
         val annotationModel = editor.getDocumentProvider().getAnnotationModel(editor.getEditorInput())
         if (annotationModel !is IAnnotationModelExtension) return
         
-        val newAnnotations = annotations.associateBy({ it }, { it.position })
-        val oldAnnotations = getLineMarkerAnnotations(annotationModel)
-        updateAnnotations<DiagnosticAnnotation>(annotationModel, newAnnotations, oldAnnotations)
+        annotationModel.withLock {
+            // Annotations which are already shown for the same problems are kept to not refresh the editor ruler
+            val keptAnnotations = hashMapOf<DiagnosticKey, MutableList<DiagnosticAnnotation>>()
+            val oldAnnotations = arrayListOf<Annotation>()
+            for (annotation in getLineMarkerAnnotations(annotationModel)) {
+                val position = annotationModel.getPosition(annotation)
+                if (annotation is DiagnosticAnnotation && position != null && !position.isDeleted) {
+                    keptAnnotations.getOrPut(annotation.getKey(position)) { arrayListOf() }.add(annotation)
+                } else {
+                    oldAnnotations.add(annotation)
+                }
+            }
+            
+            val newAnnotations = hashMapOf<DiagnosticAnnotation, Position>()
+            for (annotation in annotations) {
+                val sameAnnotations = keptAnnotations[annotation.getKey()]
+                if (sameAnnotations == null || sameAnnotations.isEmpty()) {
+                    newAnnotations[annotation] = annotation.position
+                } else {
+                    sameAnnotations.removeAt(sameAnnotations.lastIndex)
+                }
+            }
+            
+            keptAnnotations.values.forEach { oldAnnotations.addAll(it) }
+            
+            updateAnnotations(annotationModel, newAnnotations, oldAnnotations)
+        }
     }
     
     public fun clearAllMarkersFromProject(project: IProject) {
@@ -92,6 +117,10 @@ public object AnnotationManager {
             
             val canBeFixed = if (diagnostic != null) kotlinQuickFixes.any { it.canFix(diagnostic) } else false
             setAttribute(CAN_FIX_PROBLEM, canBeFixed)
+            
+            if (diagnostic != null) {
+                setAttribute(DIAGNOSTIC_FACTORY, diagnostic.factory.name)
+            }
         }
     }
     
@@ -121,6 +150,8 @@ public object AnnotationManager {
             model: IAnnotationModel, 
             annotationMap: Map<Ann, Position>, 
             oldAnnotations: List<Annotation>) {
+        if (annotationMap.isEmpty() && oldAnnotations.isEmpty()) return
+        
         model.withLock { 
             (model as IAnnotationModelExtension).replaceAnnotations(oldAnnotations.toTypedArray(), annotationMap)
         }
@@ -148,7 +179,7 @@ public object AnnotationManager {
 object KotlinLineAnnotationsReconciler : KotlinReconcilingListener {
     override fun reconcile(file: IFile, editor: KotlinEditor) {
         val isScript = editor.isScript
-        val jetFile = if (isScript) editor.parsedFile else KotlinPsiManager.getKotlinFileIfExist(file, editor.document.get())
+        val jetFile = if (isScript) editor.parsedFile else KotlinPsiManager.getKotlinFileIfExist(file, editor.document)
         
         if (jetFile == null) return
         
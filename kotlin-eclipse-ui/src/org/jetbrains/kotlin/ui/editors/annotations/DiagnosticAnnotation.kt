@@ -74,4 +74,17 @@ val DiagnosticAnnotation.position: Position
     get() = Position(offset, length)
 
 val DiagnosticAnnotation.endOffset: Int
-    get() = offset + length
\ No newline at end of file
+    get() = offset + length
+
+// Identifies a reported problem independently of the analysis which produced it,
+// so that problems of two analyses can be compared without recreating them
+data class DiagnosticKey(
+        val factoryName: String?,
+        val severity: Int,
+        val offset: Int,
+        val endOffset: Int,
+        val message: String)
+
+fun DiagnosticAnnotation.getKey(position: Position = this.position): DiagnosticKey {
+    return DiagnosticKey(diagnostic?.factory?.name, markerSeverity, position.offset, position.offset + position.length, message)
+}
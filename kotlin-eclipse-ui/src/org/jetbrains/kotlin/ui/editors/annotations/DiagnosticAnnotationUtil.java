@@ -129,7 +129,7 @@ public class DiagnosticAnnotationUtil {
         }
         
         IDocument document = EditorUtil.getDocument(file);
-        int offset = LineEndUtil.convertLfToDocumentOffset(psiFile.getText(), startOffset, document);
+        int offset = LineEndUtil.convertLfToDocumentOffset(psiFile, startOffset, document);
         
         return new DiagnosticAnnotation(
                 document.getLineOfOffset(offset),
@@ -146,7 +146,7 @@ public class DiagnosticAnnotationUtil {
         TextRange range = diagnostic.getTextRanges().get(0);
         
         IDocument document = EditorUtil.getDocument(file);
-        int offset = LineEndUtil.convertLfToDocumentOffset(diagnostic.getPsiFile().getText(), 
+        int offset = LineEndUtil.convertLfToDocumentOffset(diagnostic.getPsiFile(), 
                 range.getStartOffset(), document);
         
         int lineOfOffset = 0;
@@ -125,12 +125,18 @@ class KotlinCompletionProcessor(
         val file = editor.eclipseFile ?: return emptyList()
         val ktFile = editor.parsedFile ?: return emptyList()
         
-        return lookupNonImportedTypes(expression, identifierPart, ktFile, javaProject).map { 
+        val typeProposals = lookupNonImportedTypes(expression, identifierPart, ktFile, javaProject).map { 
             val imageDescriptor = JavaElementImageProvider.getTypeImageDescriptor(false, false, it.modifiers, false)
             val image = JavaPlugin.getImageDescriptorRegistry().get(imageDescriptor)
             
             KotlinImportCompletionProposal(it, image, file, identifierPart)
         }
+        
+        val callableProposals = lookupNonImportedCallables(expression, identifierPart, ktFile, javaProject).map {
+            KotlinImportCallableCompletionProposal(it, KotlinImageProvider.getImage(it), file, identifierPart)
+        }
+        
+        return typeProposals + callableProposals
     }
     
     private fun generateBasicCompletionProposals(identifierPart: String, expression: KtSimpleNameExpression): Collection<DeclarationDescriptor> {
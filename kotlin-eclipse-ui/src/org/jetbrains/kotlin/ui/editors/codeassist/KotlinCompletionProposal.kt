@@ -31,10 +31,12 @@ import org.eclipse.swt.graphics.Image
 import org.eclipse.swt.graphics.Point
 import org.jetbrains.kotlin.builtins.isExtensionFunctionType
 import org.jetbrains.kotlin.builtins.isFunctionType
+import org.jetbrains.kotlin.core.resolve.KotlinCallableSymbol
 import org.jetbrains.kotlin.descriptors.DeclarationDescriptor
 import org.jetbrains.kotlin.descriptors.FunctionDescriptor
 import org.jetbrains.kotlin.resolve.calls.util.getValueParametersCountFromFunctionType
 import org.jetbrains.kotlin.ui.editors.completion.KotlinCompletionUtils
+import org.jetbrains.kotlin.ui.editors.quickfix.placeImport
 import org.jetbrains.kotlin.ui.editors.quickfix.placeImports
 
 public fun withKotlinInsertHandler(
@@ -163,6 +165,31 @@ class KotlinImportCompletionProposal(val typeName: TypeNameMatch, image: Image?,
     }
 }
 
+class KotlinImportCallableCompletionProposal(val symbol: KotlinCallableSymbol, image: Image?, val file: IFile, identifierPart: String) :
+            KotlinCompletionProposal(
+                    symbol.shortName,
+                    image,
+                    symbol.shortName,
+                    symbol.packageName,
+                    identifierPart = identifierPart)  {
+
+    var importShift = -1
+    
+    override fun apply(viewer: ITextViewer, trigger: Char, stateMask: Int, offset: Int) {
+        super.apply(viewer, trigger, stateMask, offset)
+        importShift = placeImport(symbol.fqName, file, viewer.document)
+    }
+    
+    override fun getSelection(document: IDocument): Point? {
+        val selection = super.getSelection(document)
+        return if (importShift > 0 && selection != null) Point(selection.x + importShift, 0) else selection
+    }
+    
+    override fun getRelevance(): Int {
+        return -1
+    }
+}
+
 class KotlinKeywordCompletionProposal(keyword: String, identifierPart: String) :
         KotlinCompletionProposal(keyword, null, keyword, identifierPart = identifierPart)
 
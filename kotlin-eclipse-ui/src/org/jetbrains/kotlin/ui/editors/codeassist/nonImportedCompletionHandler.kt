@@ -15,6 +15,14 @@ import org.jetbrains.kotlin.psi.KtFile
 import org.jetbrains.kotlin.core.utils.ProjectUtils
 import org.eclipse.jdt.core.JavaCore
 import com.intellij.openapi.util.text.StringUtil
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.model.KotlinEnvironment
+import org.jetbrains.kotlin.core.model.KotlinScriptEnvironment
+import org.jetbrains.kotlin.core.resolve.KotlinCallableSymbol
+import org.jetbrains.kotlin.core.resolve.filterNotImported
+import org.jetbrains.kotlin.core.resolve.getReceiverTypeNames
+import org.jetbrains.kotlin.psi.KtExpression
+import org.jetbrains.kotlin.ui.editors.completion.KotlinCompletionUtils
 
 fun lookupNonImportedTypes(
         simpleNameExpression: KtSimpleNameExpression,
@@ -49,6 +57,34 @@ fun lookupNonImportedTypes(
             }
 }
 
+fun lookupNonImportedCallables(
+        simpleNameExpression: KtSimpleNameExpression,
+        identifierPart: String,
+        ktFile: KtFile,
+        javaProject: IJavaProject): List<KotlinCallableSymbol> {
+    val callTypeAndReceiver = CallTypeAndReceiver.detect(simpleNameExpression)
+    val isQualified = callTypeAndReceiver is CallTypeAndReceiver.DOT || callTypeAndReceiver is CallTypeAndReceiver.SAFE_CALL
+    if (callTypeAndReceiver !is CallTypeAndReceiver.DEFAULT && !isQualified) return emptyList()
+    
+    val eclipseFile = KotlinPsiManager.getEclipseFile(ktFile)
+    if (eclipseFile == null || KotlinScriptEnvironment.isScript(eclipseFile)) return emptyList()
+    
+    // Only extensions are applicable after a dot, they are matched by short names of the receiver type and its supertypes
+    val receiverTypeNames = if (isQualified) {
+        val receiver = callTypeAndReceiver.receiver as? KtExpression ?: return emptyList()
+        val bindingContext = KotlinCompletionUtils.analyzeForCompletion(simpleNameExpression).analysisResult.bindingContext
+        val receiverType = bindingContext.getType(receiver) ?: return emptyList()
+        
+        getReceiverTypeNames(receiverType)
+    } else {
+        null
+    }
+    
+    return KotlinEnvironment.getEnvironment(javaProject.project).symbolIndex.findCallables(identifierPart)
+            .filter { it.isApplicableTo(receiverTypeNames) }
+            .filterNotImported(ktFile)
+}
+
 private fun String.isCapitalized(): Boolean = isNotEmpty() && this[0].isUpperCase()
 
 private fun searchFor(identifierPart: String, javaProject: IJavaProject, isAnnotation: Boolean): List<TypeNameMatch> {
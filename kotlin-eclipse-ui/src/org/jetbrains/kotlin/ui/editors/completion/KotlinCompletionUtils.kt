@@ -25,11 +25,21 @@ import org.jetbrains.kotlin.descriptors.DeclarationDescriptor
 import org.jetbrains.kotlin.eclipse.ui.utils.EditorUtil
 import org.jetbrains.kotlin.eclipse.ui.utils.LineEndUtil
 import org.jetbrains.kotlin.name.Name
+import org.jetbrains.kotlin.psi.KtAnonymousInitializer
+import org.jetbrains.kotlin.psi.KtClassBody
+import org.jetbrains.kotlin.psi.KtDeclaration
 import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtNamedFunction
+import org.jetbrains.kotlin.psi.KtProperty
+import org.jetbrains.kotlin.psi.KtPsiUtil
+import org.jetbrains.kotlin.psi.KtSecondaryConstructor
 import org.jetbrains.kotlin.psi.KtSimpleNameExpression
+import org.jetbrains.kotlin.psi.psiUtil.parents
+import com.intellij.openapi.util.Key
 import com.intellij.openapi.util.text.StringUtilRt
 import com.intellij.psi.PsiElement
 import com.intellij.psi.util.PsiTreeUtil
+import org.jetbrains.kotlin.core.resolve.AnalysisResultWithProvider
 import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer
 import org.eclipse.jdt.core.JavaCore
 import org.jetbrains.kotlin.ui.editors.codeassist.getResolutionScope
@@ -48,6 +58,10 @@ import org.jetbrains.kotlin.core.model.KotlinScriptEnvironment
 public object KotlinCompletionUtils {
     private val KOTLIN_DUMMY_IDENTIFIER = "KotlinRulezzz"
     
+    private val COMPLETION_FILE_COPY = Key.create<Boolean>("COMPLETION_FILE_COPY")
+    
+    private val COMPLETION_ANALYSIS = Key.create<AnalysisResultWithProvider>("COMPLETION_ANALYSIS")
+    
     public fun applicableNameFor(prefix: String, name: Name): Boolean {
         return !name.isSpecial && applicableNameFor(prefix, name.identifier)
     }
@@ -64,7 +78,7 @@ public object KotlinCompletionUtils {
             file: IFile,
             identifierPart: String?
     ): Collection<DeclarationDescriptor> {
-        val (analysisResult, container) = KotlinAnalyzer.analyzeFile(simpleNameExpression.getContainingKtFile())
+        val (analysisResult, container) = analyzeForCompletion(simpleNameExpression)
         if (container == null) return emptyList()
         
         val inDescriptor = simpleNameExpression
@@ -111,11 +125,41 @@ public object KotlinCompletionUtils {
         }
         
         if (jetFile == null) return null
+        jetFile.putUserData(COMPLETION_FILE_COPY, true)
         
-        val offsetWithourCR = LineEndUtil.convertCrToDocumentOffset(sourceCodeWithMarker, identOffset, editor.document)
+        // Text before the marker is the same as in the document
+        val offsetWithourCR = LineEndUtil.convertCrToDocumentOffset(editor.document, identOffset)
         return jetFile.findElementAt(offsetWithourCR)
     }
     
+    // Copy of the file with marker is analyzed only once, so it's enough to resolve the declaration with the caret.
+    // Copies are not put to the analysis cache to not evict results of real files, the result is kept
+    // in the copy itself for other proposals of the same completion.
+    public fun analyzeForCompletion(expression: KtSimpleNameExpression): AnalysisResultWithProvider {
+        val ktFile = expression.getContainingKtFile()
+        if (ktFile.getUserData(COMPLETION_FILE_COPY) != true) {
+            return KotlinAnalyzer.analyzeFile(ktFile)
+        }
+        
+        ktFile.getUserData(COMPLETION_ANALYSIS)?.let { return it }
+        
+        val declaration = findDeclarationToAnalyze(expression)
+        return KotlinAnalyzer.analyzeDeclarations(ktFile, if (declaration != null) listOf(declaration) else ktFile.declarations)
+                .also { ktFile.putUserData(COMPLETION_ANALYSIS, it) }
+    }
+    
+    // Members of local classes and anonymous objects cannot be analyzed on their own, so the closest
+    // declaration which is not local is taken
+    private fun findDeclarationToAnalyze(element: PsiElement): KtDeclaration? {
+        val declaration = element.parents.firstOrNull {
+            it is KtDeclaration && (it.parent is KtFile || it.parent is KtClassBody) && !KtPsiUtil.isLocal(it)
+        }
+        return when (declaration) {
+            is KtNamedFunction, is KtProperty, is KtSecondaryConstructor, is KtAnonymousInitializer -> declaration as KtDeclaration
+            else -> null
+        }
+    }
+    
     public fun replaceMarkerInIdentifier(identifier: String): String {
         return identifier.replaceFirst(KOTLIN_DUMMY_IDENTIFIER, "")
     }
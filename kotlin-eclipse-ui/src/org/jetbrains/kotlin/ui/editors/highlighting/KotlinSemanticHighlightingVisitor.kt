@@ -228,7 +228,7 @@ public class KotlinSemanticHighlightingVisitor(val ktFile: KtFile, val document:
 }
 
 private fun TextRange.offsetInDocument(ktFile: KtFile, document: IDocument): Int {
-    return LineEndUtil.convertLfToDocumentOffset(ktFile.getText(), this.getStartOffset(), document)
+    return LineEndUtil.convertLfToDocumentOffset(ktFile, this.getStartOffset(), document)
 }
 
 sealed class HighlightPosition(offset: Int, length: Int) : Position(offset, length) {
@@ -84,7 +84,7 @@ public class KotlinTokenScanner implements ITokenScanner {
 
     @Override
     public int getTokenOffset() {
-        return LineEndUtil.convertLfToDocumentOffset(jetFile.getText(), lastElement.getTextOffset(), document);
+        return LineEndUtil.convertLfToDocumentOffset(jetFile, lastElement.getTextOffset(), document);
     }
 
     @Override
@@ -17,34 +17,45 @@
 *******************************************************************************/
 package org.jetbrains.kotlin.ui.editors.navigation
 
+import com.intellij.openapi.components.ServiceManager
+import org.eclipse.core.resources.IFile
+import org.eclipse.jdt.internal.ui.javaeditor.EditorUtility
+import org.eclipse.jface.text.BadLocationException
+import org.eclipse.ui.PartInitException
+import org.eclipse.ui.console.IHyperlink
 import org.eclipse.ui.console.IPatternMatchListenerDelegate
 import org.eclipse.ui.console.PatternMatchEvent
 import org.eclipse.ui.console.TextConsole
-import org.eclipse.ui.console.IHyperlink
-import org.eclipse.core.resources.ResourcesPlugin
-import org.eclipse.jdt.core.JavaCore
-import org.eclipse.jdt.internal.ui.javaeditor.EditorUtility
-import org.jetbrains.kotlin.ui.editors.KotlinFileEditor
-import org.eclipse.jdt.core.IType
-import org.eclipse.core.resources.IFile
-import org.jetbrains.kotlin.eclipse.ui.utils.EditorUtil
-import org.eclipse.jface.text.BadLocationException
+import org.eclipse.ui.texteditor.AbstractTextEditor
+import org.jetbrains.kotlin.core.filesystem.KotlinLightClassManager
 import org.jetbrains.kotlin.core.log.KotlinLogger
-import org.jetbrains.kotlin.ui.navigation.KotlinOpenEditor
-import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.model.KotlinEnvironment
 import org.jetbrains.kotlin.core.utils.ProjectUtils
 
 private val NAVIGATION_DESCRIPTION_REGEX = "at (.+)\\((.+\\.kt)\\:(\\d+)\\)".toRegex()
 
+private const val MAX_CACHED_CLASSES = 1000
+
 class KotlinOpenEditorFromConsole : IPatternMatchListenerDelegate {
     private @Volatile var console: TextConsole? = null
     
+    // Stack traces usually repeat the same classes, so sources are looked up once for every class in a console.
+    // Classes without Kotlin sources are not cached, their sources can appear when an environment of the project is created.
+    private val sourceFilesByClass = object : LinkedHashMap<String, List<IFile>>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, List<IFile>>?): Boolean {
+            return size > MAX_CACHED_CLASSES
+        }
+    }
+    
     override fun connect(console: TextConsole) {
         this.console = console
     }    
     
     override fun disconnect() {
         this.console = null
+        synchronized(sourceFilesByClass) {
+            sourceFilesByClass.clear()
+        }
     }
     
     @Suppress("UNUSED_VARIABLE")
@@ -60,10 +71,12 @@ class KotlinOpenEditorFromConsole : IPatternMatchListenerDelegate {
         val linkOffset = event.offset + 4 + fqName.length // at (linkOffset)
         val linkLength = fileName.length + 1 + lineNumber.length // link:link
         
-        if (canNavigate(fqName, lineNumber)) {
+        // Line number is validated only when the link is activated
+        val sourceFile = findSourceFile(fqName.substringBeforeLast("."), fileName)
+        if (sourceFile != null) {
             console?.addHyperlink(object : IHyperlink {
                 override fun linkActivated() {
-                    openEditor(fqName, lineNumber)
+                    openEditor(sourceFile, lineNumber)
                 }
                 
                 override fun linkExited() {
@@ -75,52 +88,57 @@ class KotlinOpenEditorFromConsole : IPatternMatchListenerDelegate {
         }
     }
     
-    private fun canNavigate(fqName: String, lineNumber: String): Boolean {
-        val type = findType(fqName)
-        if (type == null) return false
-        
-        val kotlinSourceFiles = KotlinOpenEditor.findSourceFiles(type)
-        if (kotlinSourceFiles.size != 1) return false
+    private fun openEditor(sourceFile: IFile, lineNumber: String) {
+        if (!sourceFile.exists()) return
         
-        val resource = KotlinPsiManager.getEclipseFile(kotlinSourceFiles.first())
-        if (resource == null) return false
-        
-        val document = EditorUtil.getDocument(resource)
         try {
-            val lineRegion = document.getLineInformation(lineNumber.toInt() - 1)
-            if (lineRegion.offset > document.length) {
-                return false
+            val editorPart = EditorUtility.openInEditor(sourceFile, true)
+            if (editorPart is AbstractTextEditor) {
+                val document = editorPart.documentProvider.getDocument(editorPart.editorInput)
+                val lineRegion = document.getLineInformation(lineNumber.toInt() - 1)
+                editorPart.selectAndReveal(lineRegion.offset, 0)
             }
         } catch (e: BadLocationException) {
-            return false
+//            Line can be absent if the file was changed after the program was started
+        } catch (e: PartInitException) {
+            KotlinLogger.logError(e)
         }
-        
-        return true
     }
     
-    private fun openEditor(fqName: String, lineNumber: String) {
-        val type = findType(fqName)
-        if (type == null) return
-        
-        try {
-            val editorPart = EditorUtility.openInEditor(type, true)
-            if (editorPart is KotlinFileEditor) {
-                val lineRegion = editorPart.document.getLineInformation(lineNumber.toInt() - 1)
-                editorPart.selectAndReveal(lineRegion.offset, 0)
+    private fun findSourceFile(className: String, fileName: String): IFile? {
+        val sourceFiles = synchronized(sourceFilesByClass) {
+            sourceFilesByClass[className]
+        } ?: findSourceFiles(className).also { files ->
+            if (files.isNotEmpty()) {
+                synchronized(sourceFilesByClass) {
+                    sourceFilesByClass[className] = files
+                }
             }
-        } catch (e: BadLocationException) {
-//            As we've already validated that we can navigate to that line number,
-//            this exception may occur only if some lines or file have been deleted
         }
         
-        return
+        return sourceFiles.singleOrNull { it.name == fileName }
     }
     
-    private fun findType(fqName: String): IType? {
-        val typeFqName = fqName.substringBeforeLast(".")
-        return ProjectUtils.getAccessibleKotlinProjects().asSequence()
-                .map { JavaCore.create(it) }
-                .mapNotNull { it.findType(typeFqName) }
-                .firstOrNull()
+    // Local classes and lambdas have no light classes, so their sources are found by containing classes.
+    // Output of a console must not create environments, so only projects which already have them are searched.
+    private fun findSourceFiles(className: String): List<IFile> {
+        val lightClassManagers = ProjectUtils.getAccessibleKotlinProjects().mapNotNull { project ->
+            KotlinEnvironment.getEnvironmentIfCreated(project)?.let {
+                ServiceManager.getService(it.project, KotlinLightClassManager::class.java)
+            }
+        }
+        
+        var internalName: String? = className.replace('.', '/')
+        while (internalName != null) {
+            for (lightClassManager in lightClassManagers) {
+                val sourceFiles = lightClassManager.getSourceFilesByClassName(internalName)
+                if (sourceFiles.isNotEmpty()) return sourceFiles
+            }
+            
+            val nestedIndex = internalName.lastIndexOf('$')
+            internalName = if (nestedIndex > internalName.lastIndexOf('/')) internalName.substring(0, nestedIndex) else null
+        }
+        
+        return emptyList()
     }
 }
\ No newline at end of file
@@ -71,6 +71,7 @@ import org.jetbrains.kotlin.resolve.source.PsiSourceElement
 import org.jetbrains.kotlin.serialization.deserialization.descriptors.DeserializedCallableMemberDescriptor
 import org.jetbrains.kotlin.ui.editors.KotlinEditor
 import org.jetbrains.kotlin.ui.editors.KotlinExternalReadOnlyEditor
+import org.jetbrains.kotlin.ui.editors.KotlinLibraryFilesCache
 import org.jetbrains.kotlin.ui.editors.KotlinScriptEditor
 import org.jetbrains.kotlin.ui.editors.getScriptDependencies
 import org.jetbrains.kotlin.ui.formatter.createKtFile
@@ -265,7 +266,7 @@ private fun gotoElementInBinaryClass(
     
     val targetKtFile = targetEditor.parsedFile ?: return
     val offset = findDeclarationInParsedFile(descriptor, targetKtFile)
-    val start = LineEndUtil.convertLfToDocumentOffset(targetKtFile.getText(), offset, targetEditor.document)
+    val start = LineEndUtil.convertLfToDocumentOffset(targetKtFile, offset, targetEditor.document)
     
     targetEditor.javaEditor.selectAndReveal(start, 0)
 }
@@ -289,7 +290,9 @@ private fun tryToFindExternalClassInStdlib(
     
     val (name, pckg, source) = findSourceForElementInStdlib(binaryClass) ?: return null
     val content = String(source)
-    val ktFile = createKtFile(content, KtPsiFactory(fromElement), "dummy.kt")
+    val ktFile = KotlinLibraryFilesCache.getParsedFile(javaProject, KOTLIN_SOURCE_PATH.toPortableString(), "$pckg/$name", content) {
+        createKtFile(it, KtPsiFactory(fromElement), "dummy.kt")
+    }
     
     return openKotlinEditorForExternalFile(content, name, pckg, ktFile)
 }
@@ -132,7 +132,7 @@ fun findDeclarationInJavaFile(javaElement: JavaElement, javaSource: String): Int
     }
     
     return if (offset != null) {
-        return LineEndUtil.convertLfToDocumentOffset(sourcePsi.text, offset, Document(javaSource))
+        return LineEndUtil.convertLfToDocumentOffset(sourcePsi, offset, Document(javaSource))
     } else {
         null
     }
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.ui.editors.occurrences
+
+import com.intellij.psi.PsiElement
+import org.jetbrains.kotlin.core.references.getReferenceExpression
+import org.jetbrains.kotlin.core.resolve.AnalysisResultWithProvider
+import org.jetbrains.kotlin.descriptors.DeclarationDescriptor
+import org.jetbrains.kotlin.psi.KtConstructor
+import org.jetbrains.kotlin.psi.KtDeclaration
+import org.jetbrains.kotlin.psi.KtElement
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtNamedDeclaration
+import org.jetbrains.kotlin.psi.KtReferenceExpression
+import org.jetbrains.kotlin.psi.KtTreeVisitorVoid
+import org.jetbrains.kotlin.resolve.BindingContext
+import org.jetbrains.kotlin.resolve.DescriptorToSourceUtils
+
+// All declarations and references of one analyzed file grouped by their targets, so that occurrences
+// of an element are found without resolving it again
+class KotlinFileOccurrences(val ktFile: KtFile, val analysisResult: AnalysisResultWithProvider) {
+    private val occurrencesByTarget = hashMapOf<Any, MutableList<KtElement>>()
+
+    private val targetsByReference = hashMapOf<KtReferenceExpression, Any>()
+
+    init {
+        val bindingContext = analysisResult.analysisResult.bindingContext
+
+        // DECLARATION_TO_DESCRIPTOR is a read-only slice which cannot be iterated, so declarations are collected from PSI
+        ktFile.accept(object : KtTreeVisitorVoid() {
+            override fun visitNamedDeclaration(declaration: KtNamedDeclaration) {
+                super.visitNamedDeclaration(declaration)
+                
+                if (declaration is KtConstructor<*> || declaration.nameIdentifier == null) return
+                if (bindingContext[BindingContext.DECLARATION_TO_DESCRIPTOR, declaration] == null) return
+
+                addOccurrence(getTarget(declaration), declaration)
+            }
+        })
+
+        for ((expression, descriptor) in bindingContext.getSliceContents(BindingContext.REFERENCE_TARGET)) {
+            if (expression.containingFile != ktFile) continue
+
+            val target = getTarget(descriptor)
+            targetsByReference[expression] = target
+            addOccurrence(target, expression)
+        }
+    }
+
+    fun findOccurrences(element: KtElement): List<KtElement> {
+        val target = if (element is KtDeclaration) {
+            getTarget(element)
+        } else {
+            getReferenceExpression(element)?.let { targetsByReference[it] }
+        }
+
+        return target?.let { occurrencesByTarget[it] } ?: emptyList()
+    }
+
+    private fun addOccurrence(target: Any, element: KtElement) {
+        occurrencesByTarget.getOrPut(target) { arrayListOf() }.add(element)
+    }
+
+    // Declarations from sources are compared by their PSI, others by original descriptors
+    private fun getTarget(descriptor: DeclarationDescriptor): Any {
+        val declaration = DescriptorToSourceUtils.descriptorToDeclaration(descriptor)
+        return if (declaration != null) getTarget(declaration) else descriptor.original
+    }
+
+    // Constructors are marked together with their classes
+    private fun getTarget(declaration: PsiElement): PsiElement {
+        return if (declaration is KtConstructor<*>) declaration.getContainingClassOrObject() else declaration
+    }
+}
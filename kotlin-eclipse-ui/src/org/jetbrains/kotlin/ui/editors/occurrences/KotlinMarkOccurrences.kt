@@ -16,41 +16,48 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.ui.editors.occurrences
 
-import org.eclipse.core.resources.IFile
-import org.eclipse.core.runtime.NullProgressMonitor
+import org.eclipse.core.runtime.IProgressMonitor
+import org.eclipse.core.runtime.IStatus
 import org.eclipse.core.runtime.Status
 import org.eclipse.core.runtime.jobs.Job
-import org.eclipse.jdt.core.search.IJavaSearchConstants
 import org.eclipse.jface.text.ITextSelection
 import org.eclipse.jface.text.Position
 import org.eclipse.jface.text.source.Annotation
 import org.eclipse.jface.viewers.ISelection
-import org.eclipse.search.ui.text.Match
 import org.eclipse.ui.ISelectionListener
 import org.eclipse.ui.IWorkbenchPart
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
-import org.jetbrains.kotlin.core.model.runJob
-import org.jetbrains.kotlin.core.references.resolveToSourceDeclaration
-import org.jetbrains.kotlin.descriptors.SourceElement
+import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer
 import org.jetbrains.kotlin.eclipse.ui.utils.EditorUtil
 import org.jetbrains.kotlin.eclipse.ui.utils.getTextDocumentOffset
 import org.jetbrains.kotlin.preferences.EditorPreferencePage
-import org.jetbrains.kotlin.psi.KtElement
+import org.jetbrains.kotlin.psi.KtFile
 import org.jetbrains.kotlin.ui.Activator
-import org.jetbrains.kotlin.ui.commands.findReferences.KotlinScopedQuerySpecification
 import org.jetbrains.kotlin.ui.editors.KotlinCommonEditor
 import org.jetbrains.kotlin.ui.editors.KotlinEditor
 import org.jetbrains.kotlin.ui.editors.annotations.AnnotationManager
 import org.jetbrains.kotlin.ui.refactorings.rename.getLengthOfIdentifier
-import org.jetbrains.kotlin.ui.search.KotlinElementMatch
-import org.jetbrains.kotlin.ui.search.KotlinQueryParticipant
-import org.jetbrains.kotlin.ui.search.getContainingClassOrObjectForConstructor
 
 public class KotlinMarkOccurrences(val kotlinEditor: KotlinCommonEditor) : ISelectionListener {
     companion object {
         private val ANNOTATION_TYPE = "org.eclipse.jdt.ui.occurrences"
     }
     
+    // Only the last selection is processed, pending updates for previous selections are dropped
+    @Volatile private var pendingSelection: ITextSelection? = null
+    
+    // Occurrences of the last analyzed state of the file, valid until the file is reconciled again
+    @Volatile private var cachedOccurrences: KotlinFileOccurrences? = null
+    
+    private val updateJob = object : Job("Update occurrence annotations") {
+        override fun run(monitor: IProgressMonitor): IStatus {
+            val selection = pendingSelection ?: return Status.CANCEL_STATUS
+            return updateOccurrences(selection, monitor)
+        }
+    }.apply { 
+        priority = Job.DECORATE
+    }
+    
     override fun selectionChanged(part: IWorkbenchPart, selection: ISelection) {
         if (!kotlinEditor.isActive()) return
 		
@@ -59,60 +66,55 @@ public class KotlinMarkOccurrences(val kotlinEditor: KotlinCommonEditor) : ISele
 		if(!markOccurences)
 			return;
         
-        runJob("Update occurrence annotations", Job.DECORATE) { 
-            if (part is KotlinCommonEditor && selection is ITextSelection) {
-                val file = part.eclipseFile
-                if (file == null || !file.exists()) return@runJob Status.CANCEL_STATUS
-                
-                val document = part.getDocumentSafely()
-                if (document == null) return@runJob Status.CANCEL_STATUS
-                
-                KotlinPsiManager.getKotlinFileIfExist(file, document.get())
-                
-                val ktElement = EditorUtil.getJetElement(part, selection.getOffset())
-                if (ktElement == null) {
-                    return@runJob Status.CANCEL_STATUS
-                }
-                
-                val occurrences = findOccurrences(part, ktElement, file)
-                updateOccurrences(part, occurrences)
-            }
-            
-            Status.OK_STATUS
-        }
-    }
-    
-    private fun updateOccurrences(editor: KotlinEditor, occurrences: List<Position>) {
-        val annotationMap = occurrences.associateBy { Annotation(ANNOTATION_TYPE, false, null) }
-        AnnotationManager.updateAnnotations(editor, annotationMap, ANNOTATION_TYPE)
+        if (part != kotlinEditor || selection !is ITextSelection) return
+        
+        pendingSelection = selection
+        updateJob.cancel()
+        updateJob.schedule()
     }
     
-    private fun findOccurrences(editor: KotlinCommonEditor, jetElement: KtElement, file: IFile): List<Position> {
-        val sourceElements = jetElement.resolveToSourceDeclaration()
-        if (sourceElements.isEmpty()) return emptyList()
+    private fun updateOccurrences(selection: ITextSelection, monitor: IProgressMonitor): IStatus {
+        val file = kotlinEditor.eclipseFile
+        if (file == null || !file.exists()) return Status.CANCEL_STATUS
         
-        val searchingElements = getSearchingElements(sourceElements)
+        val document = kotlinEditor.getDocumentSafely()
+        if (document == null) return Status.CANCEL_STATUS
         
-        val querySpecification = KotlinScopedQuerySpecification(searchingElements, listOf(file), 
-                IJavaSearchConstants.ALL_OCCURRENCES, "Searching in ${file.getName()}")
+        val ktFile = KotlinPsiManager.getKotlinFileIfExist(file, document) ?: return Status.CANCEL_STATUS
+        if (monitor.isCanceled) return Status.CANCEL_STATUS
         
-        val occurrences = arrayListOf<Match>()
-        KotlinQueryParticipant().search({ occurrences.add(it) }, querySpecification, NullProgressMonitor())
+        val ktElement = EditorUtil.getJetElement(kotlinEditor, selection.getOffset())
+        if (ktElement == null) {
+            return Status.CANCEL_STATUS
+        }
         
-        return occurrences.map { 
-            if (it !is KotlinElementMatch) return@map null
-            
-            val element = it.jetElement
-            val length = getLengthOfIdentifier(element)
-            if (length == null) return@map null
-            
-            val document = editor.getDocumentSafely() ?: return@map null
+        val fileOccurrences = getFileOccurrences(ktFile)
+        if (monitor.isCanceled) return Status.CANCEL_STATUS
+        
+        val occurrences = fileOccurrences.findOccurrences(ktElement).mapNotNull { element ->
+            val length = getLengthOfIdentifier(element) ?: return@mapNotNull null
             Position(element.getTextDocumentOffset(document), length)
-        }.filterNotNull()
+        }
+        
+        updateOccurrences(kotlinEditor, occurrences)
+        
+        return Status.OK_STATUS
+    }
+    
+    private fun getFileOccurrences(ktFile: KtFile): KotlinFileOccurrences {
+        // Analysis result is taken from the cache unless the file or its dependencies were changed
+        val analysisResult = KotlinAnalyzer.analyzeFile(ktFile)
+        
+        val cached = cachedOccurrences
+        if (cached != null && cached.ktFile == ktFile && cached.analysisResult === analysisResult) {
+            return cached
+        }
+        
+        return KotlinFileOccurrences(ktFile, analysisResult).also { cachedOccurrences = it }
     }
     
-    private fun getSearchingElements(sourceElements: List<SourceElement>): List<SourceElement> {
-        val classOrObjects = getContainingClassOrObjectForConstructor(sourceElements)
-        return if (classOrObjects.isNotEmpty()) classOrObjects else sourceElements
+    private fun updateOccurrences(editor: KotlinEditor, occurrences: List<Position>) {
+        val annotationMap = occurrences.associateBy { Annotation(ANNOTATION_TYPE, false, null) }
+        AnnotationManager.updateAnnotations(editor, annotationMap, ANNOTATION_TYPE)
     }
-}
\ No newline at end of file
+}
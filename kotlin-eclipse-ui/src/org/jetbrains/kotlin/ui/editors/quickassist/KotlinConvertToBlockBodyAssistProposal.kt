@@ -95,8 +95,7 @@ class KotlinConvertToBlockBodyAssistProposal(editor: KotlinEditor) : KotlinQuick
         formatRange(
                 editor.document,
                 TextRange(anchorStartOffset, anchorStartOffset + newBodyText.length),
-                factory,
-                file.name)
+                file)
     }
 
     private fun specifyType(declaration: KtDeclarationWithBody, factory: KtPsiFactory, context: BindingContext) {
@@ -112,8 +112,7 @@ public class KotlinImplementMethodsProposal(
         formatRange(
                 document,
                 EclipseDocumentRange(insertOffset, insertOffset + generatedText.length),
-                psiFactory,
-                file.name)
+                file)
     }
 
     private fun removeWhitespaceAfterLBrace(body: KtClassBody, document: IDocument, editor: KotlinEditor) {
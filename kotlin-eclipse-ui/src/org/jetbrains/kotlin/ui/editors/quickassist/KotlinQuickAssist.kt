@@ -42,7 +42,7 @@ abstract class KotlinQuickAssist(val editor: KotlinEditor) {
         }
         
         val document = editor.document
-        val ktFile = KotlinPsiManager.getKotlinFileIfExist(file, document.get())
+        val ktFile = KotlinPsiManager.getKotlinFileIfExist(file, document)
         if (ktFile == null) return null
         
         val caretOffset = LineEndUtil.convertCrToDocumentOffset(document, getCaretOffset(editor))
@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.ui.editors.quickfix
 
 import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiWhiteSpace
+import com.intellij.psi.util.PsiTreeUtil
 import org.eclipse.core.resources.IFile
 import org.eclipse.jdt.core.Flags
 import org.eclipse.jdt.core.search.IJavaSearchConstants
@@ -32,19 +33,33 @@ import org.eclipse.jface.text.IDocument
 import org.eclipse.jface.text.TextUtilities
 import org.eclipse.swt.graphics.Image
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.model.KotlinEnvironment
+import org.jetbrains.kotlin.core.model.KotlinScriptEnvironment
+import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer
+import org.jetbrains.kotlin.core.resolve.KotlinCallableSymbol
+import org.jetbrains.kotlin.core.resolve.filterNotImported
+import org.jetbrains.kotlin.core.resolve.getReceiverTypeNames
 import org.jetbrains.kotlin.diagnostics.Diagnostic
 import org.jetbrains.kotlin.diagnostics.Errors
 import org.jetbrains.kotlin.eclipse.ui.utils.IndenterUtil
 import org.jetbrains.kotlin.eclipse.ui.utils.getEndLfOffset
 import org.jetbrains.kotlin.eclipse.ui.utils.getTextDocumentOffset
+import org.jetbrains.kotlin.psi.KtCallExpression
+import org.jetbrains.kotlin.psi.KtExpression
 import org.jetbrains.kotlin.psi.KtImportList
 import org.jetbrains.kotlin.psi.KtPackageDirective
+import org.jetbrains.kotlin.psi.KtQualifiedExpression
+import org.jetbrains.kotlin.psi.KtSimpleNameExpression
+import org.jetbrains.kotlin.psi.KtUserType
 import org.jetbrains.kotlin.ui.editors.KotlinEditor
 
 object KotlinAutoImportQuickFix : KotlinDiagnosticQuickFix {
     override fun getResolutions(diagnostic: Diagnostic): List<KotlinMarkerResolution> {
         val typeName = diagnostic.psiElement.text
-        return findApplicableTypes(typeName).map { KotlinAutoImportResolution(it) }
+        val typeResolutions = findApplicableTypes(typeName).map { KotlinAutoImportResolution(it) }
+        
+        val element = diagnostic.psiElement as? KtSimpleNameExpression ?: return typeResolutions
+        return typeResolutions + findApplicableCallables(element).map { KotlinAutoImportCallableResolution(it) }
     }
 
     override fun canFix(diagnostic: Diagnostic): Boolean {
@@ -78,10 +93,44 @@ fun findApplicableTypes(typeName: String): List<TypeNameMatch> {
     return foundTypes
 }
 
+fun findApplicableCallables(element: KtSimpleNameExpression): List<KotlinCallableSymbol> {
+    // Functions and properties cannot be referenced from a type
+    if (PsiTreeUtil.getParentOfType(element, KtUserType::class.java) != null) return emptyList()
+    
+    val ktFile = element.getContainingKtFile()
+    val eclipseFile = KotlinPsiManager.getEclipseFile(ktFile) ?: return emptyList()
+    if (KotlinScriptEnvironment.isScript(eclipseFile)) return emptyList()
+    
+    val symbolIndex = KotlinEnvironment.getEnvironment(eclipseFile.project).symbolIndex
+    val name = element.getReferencedName()
+    
+    val receiver = getReceiverExpression(element)
+    val candidates = if (receiver == null) {
+        symbolIndex.findCallablesByName(name).filter { !it.isExtension }
+    } else {
+        val receiverType = KotlinAnalyzer.analyzeFile(ktFile).analysisResult.bindingContext.getType(receiver) ?: return emptyList()
+        symbolIndex.findExtensions(name, getReceiverTypeNames(receiverType))
+    }
+    
+    return candidates.filterNotImported(ktFile)
+}
+
+private fun getReceiverExpression(element: KtSimpleNameExpression): KtExpression? {
+    val call = element.parent as? KtCallExpression
+    val selector = if (call != null && call.calleeExpression == element) call else element
+    
+    val qualifiedExpression = selector.parent as? KtQualifiedExpression ?: return null
+    return if (qualifiedExpression.selectorExpression == selector) qualifiedExpression.receiverExpression else null
+}
+
 fun placeImports(typeNames: List<TypeNameMatch>, file: IFile, document: IDocument): Int {
     return placeStrImports(typeNames.map { it.fullyQualifiedName }, file, document)
 }
 
+fun placeImport(fqName: String, file: IFile, document: IDocument): Int {
+    return placeStrImports(listOf(fqName), file, document)
+}
+
 fun replaceImports(newImports: List<String>, file: IFile, document: IDocument) {
     val ktFile = KotlinPsiManager.getParsedFile(file)
     val importDirectives = ktFile.importDirectives
@@ -141,6 +190,17 @@ class KotlinAutoImportResolution(private val type: TypeNameMatch): KotlinMarkerR
     override fun getImage(): Image? = JavaUI.getSharedImages().getImage(ISharedImages.IMG_OBJS_IMPDECL)
 }
 
+class KotlinAutoImportCallableResolution(private val symbol: KotlinCallableSymbol): KotlinMarkerResolution {
+    override fun apply(file: IFile) {
+        val editor = EditorUtility.openInEditor(file, true) as KotlinEditor
+        placeImport(symbol.fqName, file, editor.document)
+    }
+    
+    override fun getLabel(): String? = "Import '${symbol.shortName}' (${symbol.packageName})"
+    
+    override fun getImage(): Image? = JavaUI.getSharedImages().getImage(ISharedImages.IMG_OBJS_IMPDECL)
+}
+
 private fun computeBreakLineAfterImport(element: PsiElement): Int {
     if (element is KtPackageDirective) {
         val nextSibling = element.getNextSibling()
@@ -53,7 +53,7 @@ abstract public class KotlinSemanticSelectionAction extends SelectionDispatchAct
         try {
             history.ignoreSelectionChanges();
             
-            TextRange convertedRange = LineEndUtil.crRangeFromLfRange(jetFile.getText(), elementRange, document);
+            TextRange convertedRange = LineEndUtil.crRangeFromLfRange(jetFile, elementRange, document);
             editor.getJavaEditor().selectAndReveal(convertedRange.getStartOffset(), convertedRange.getLength());
         } finally {
             history.listenToSelectionChanges();
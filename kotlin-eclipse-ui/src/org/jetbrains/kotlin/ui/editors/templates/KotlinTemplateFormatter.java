@@ -30,13 +30,14 @@ import org.eclipse.jface.text.templates.TemplateVariable;
 import org.jetbrains.kotlin.core.model.KotlinEnvironment;
 import org.jetbrains.kotlin.psi.KtFile;
 import org.jetbrains.kotlin.psi.KtPsiFactory;
-import org.jetbrains.kotlin.psi.KtPsiFactoryKt;
 import org.jetbrains.kotlin.ui.formatter.KotlinFormatterKt;
 
 import com.intellij.openapi.project.Project;
 
 public class KotlinTemplateFormatter {
     
+    private static final String TEMPLATE_FILE_NAME = "dummy.kt";
+    
     // Source code has been taken from EcliHX plugin
     // eclihx.ui.internal.ui.editors.templates.TemplateFormatter
     private static class VariableOffsetsTracker {
@@ -159,13 +160,11 @@ public class KotlinTemplateFormatter {
     public void format(TemplateBuffer buffer, String lineDelimiter, IProject eclipseProject) { 
         VariableOffsetsTracker offsetsTracker = new VariableOffsetsTracker(buffer.getString(), buffer.getVariables());
         Project ideaProject = KotlinEnvironment.Companion.getEnvironment(eclipseProject).getProject();
-        KtFile parsedFile = new KtPsiFactory(ideaProject).createFile(offsetsTracker.getMarkedString());
-        
-        assert parsedFile != null;
+        KtFile parsedFile = KotlinFormatterKt.createKtFile(offsetsTracker.getMarkedString(), new KtPsiFactory(ideaProject), 
+                TEMPLATE_FILE_NAME);
         
-        KtPsiFactory psiFactory = KtPsiFactoryKt.KtPsiFactory(parsedFile);
-        String formatted = KotlinFormatterKt.formatCode(parsedFile.getNode().getText(), parsedFile.getName(), 
-                psiFactory, lineDelimiter);
+        // Template is parsed only once, formatter works with the same file
+        String formatted = KotlinFormatterKt.formatCode(parsedFile, lineDelimiter);
         
         offsetsTracker.unmark(formatted);
         
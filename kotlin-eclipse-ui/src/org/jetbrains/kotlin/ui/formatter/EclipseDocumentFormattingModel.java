@@ -200,7 +200,7 @@ public class EclipseDocumentFormattingModel implements FormattingModelEx {
     }
     
     private int convertOffset(int offset) {
-        return LineEndUtil.convertLfToDocumentOffset(myASTNode.getPsi().getContainingFile().getText(), offset,
+        return LineEndUtil.convertLfToDocumentOffset(myASTNode.getPsi().getContainingFile(), offset,
                 document);
     }
 }
\ No newline at end of file
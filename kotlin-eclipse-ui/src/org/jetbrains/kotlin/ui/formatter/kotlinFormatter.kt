@@ -19,6 +19,7 @@ import org.eclipse.core.resources.IFile
 import org.eclipse.core.resources.IProject
 import org.eclipse.jface.text.Document
 import org.eclipse.jface.text.IDocument
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import org.jetbrains.kotlin.core.model.getEnvironment
 import org.jetbrains.kotlin.eclipse.ui.utils.IndenterUtil
 import org.jetbrains.kotlin.eclipse.ui.utils.LineEndUtil
@@ -31,27 +32,38 @@ import com.intellij.openapi.editor.Document as IdeaDocument
 @Volatile var settings: CodeStyleSettings = CodeStyleSettings(true)
 
 fun formatCode(source: String, fileName: String, psiFactory: KtPsiFactory, lineSeparator: String): String {
-    return KotlinFormatter(source, fileName, psiFactory, lineSeparator).formatCode()
+    return KotlinFormatter(createKtFile(source, psiFactory, fileName), source, lineSeparator).formatCode()
+}
+
+// Formats the text of an already parsed file without parsing it again
+fun formatCode(ktFile: KtFile, lineSeparator: String): String {
+    return KotlinFormatter(ktFile, ktFile.text, lineSeparator).formatCode()
 }
 
 fun reformatAll(containingFile: KtFile, rootBlock: Block, settings: CodeStyleSettings, document: IDocument) {
     formatRange(containingFile, rootBlock, settings, document, containingFile.textRange)
 }
 
-fun formatRange(document: IDocument, range: EclipseDocumentRange, psiFactory: KtPsiFactory, fileName: String) {
-    formatRange(document, range.toPsiRange(document), psiFactory, fileName)
+fun formatRange(document: IDocument, range: EclipseDocumentRange, file: IFile) {
+    formatRange(document, range.toPsiRange(document), file)
 }
 
-fun formatRange(document: IDocument, range: TextRange, psiFactory: KtPsiFactory, fileName: String) {
-    val ktFile = createKtFile(document.get(), psiFactory, fileName)
-    val rootBlock = KotlinBlock(ktFile.getNode(), 
-                NULL_ALIGNMENT_STRATEGY, 
-                Indent.getNoneIndent(), 
-                null,
-                settings,
-                createSpacingBuilder(settings, KotlinSpacingBuilderUtilImpl))
+// Formatting does not modify PSI, so the file committed for the document is formatted instead of a new copy.
+// Blocks outside of the range are not expanded by the formatter.
+fun formatRange(document: IDocument, range: TextRange, file: IFile) {
+    val ktFile = KotlinPsiManager.getKotlinFileIfExist(file, document) 
+            ?: createKtFile(document.get(), createPsiFactory(file), file.name)
     
-    formatRange(ktFile, rootBlock, settings, document, range)
+    formatRange(ktFile, createRootBlock(ktFile), settings, document, range)
+}
+
+fun createRootBlock(ktFile: KtFile): KotlinBlock {
+    return KotlinBlock(ktFile.getNode(), 
+            NULL_ALIGNMENT_STRATEGY, 
+            Indent.getNoneIndent(), 
+            null,
+            settings,
+            createSpacingBuilder(settings, KotlinSpacingBuilderUtilImpl))
 }
 
 private fun formatRange(
@@ -125,22 +137,13 @@ private fun getSignificantRange(file: KtFile, offset: Int): TextRange {
 }
 
 
-private class KotlinFormatter(source: String, fileName: String, psiFactory: KtPsiFactory, val lineSeparator: String) {
-    
-    val ktFile = createKtFile(source, psiFactory, fileName)
+private class KotlinFormatter(val ktFile: KtFile, source: String, val lineSeparator: String) {
     
     val sourceDocument = Document(source)
     
     fun formatCode(): String {
         FormatterImpl()
-        val rootBlock = KotlinBlock(ktFile.getNode(), 
-                NULL_ALIGNMENT_STRATEGY, 
-                Indent.getNoneIndent(), 
-                null,
-                settings,
-                createSpacingBuilder(settings, KotlinSpacingBuilderUtilImpl))
-        
-        reformatAll(ktFile, rootBlock, settings, sourceDocument)
+        reformatAll(ktFile, createRootBlock(ktFile), settings, sourceDocument)
         
         return sourceDocument.get()
     }
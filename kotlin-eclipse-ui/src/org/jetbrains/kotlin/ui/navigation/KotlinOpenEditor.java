@@ -89,7 +89,7 @@ public class KotlinOpenEditor {
             jetElement = jetFile;
         }
         
-        int offset = LineEndUtil.convertLfToDocumentOffset(jetFile.getText(), jetElement.getTextOffset(),
+        int offset = LineEndUtil.convertLfToDocumentOffset(jetFile, jetElement.getTextOffset(),
                 kotlinEditor.getDocument());
         kotlinEditor.getJavaEditor().selectAndReveal(offset, 0);
     }
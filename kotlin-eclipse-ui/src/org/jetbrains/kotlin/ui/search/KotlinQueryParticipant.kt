@@ -26,18 +26,11 @@ import org.eclipse.jdt.ui.search.IMatchPresentation
 import org.eclipse.jdt.ui.search.IQueryParticipant
 import org.eclipse.jdt.ui.search.ISearchRequestor
 import org.eclipse.jdt.ui.search.QuerySpecification
-import org.eclipse.search.internal.ui.text.FileSearchQuery
-import org.eclipse.search.ui.ISearchResult
-import org.eclipse.search.ui.text.FileTextSearchScope
 import org.eclipse.core.resources.ResourcesPlugin
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import com.intellij.psi.PsiElement
-import org.eclipse.search.internal.ui.text.FileSearchResult
-import org.jetbrains.kotlin.eclipse.ui.utils.findElementByDocumentOffset
-import org.jetbrains.kotlin.eclipse.ui.utils.EditorUtil
 import org.jetbrains.kotlin.core.references.getReferenceExpression
 import org.jetbrains.kotlin.core.references.resolveToSourceDeclaration
-import java.util.ArrayList
 import org.jetbrains.kotlin.core.references.KotlinReference
 import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache
 import org.eclipse.search.ui.text.Match
@@ -75,10 +68,33 @@ import org.jetbrains.kotlin.ui.commands.findReferences.KotlinOnlyQuerySpecificat
 import org.jetbrains.kotlin.ui.commands.findReferences.KotlinAndJavaSearchable
 import org.jetbrains.kotlin.ui.commands.findReferences.KotlinScoped
 import org.jetbrains.kotlin.psi.KtConstructor
-import org.eclipse.search2.internal.ui.text2.DefaultTextSearchQueryProvider
-import org.eclipse.search.ui.text.TextSearchQueryProvider.TextSearchInput
+import org.jetbrains.kotlin.psi.KtClassOrObject
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtNamedFunction
+import org.jetbrains.kotlin.psi.KtProperty
+import org.jetbrains.kotlin.psi.KtTreeVisitorVoid
+import org.jetbrains.kotlin.lexer.KtTokens
+import org.jetbrains.kotlin.core.model.KotlinEnvironment
+import com.intellij.psi.impl.source.tree.LeafPsiElement
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
 
 public class KotlinQueryParticipant : IQueryParticipant {
+    companion object {
+        // Declarations from these packages are imported by default
+        private val DEFAULT_IMPORTED_PACKAGE_ROOTS = setOf("kotlin", "java")
+        
+        private val RESOLVE_THREADS = Math.min(Runtime.getRuntime().availableProcessors(), 4)
+        
+        private val resolveExecutor = ThreadPoolExecutor(RESOLVE_THREADS, RESOLVE_THREADS, 30, TimeUnit.SECONDS, LinkedBlockingQueue<Runnable>(),
+                ThreadFactory { runnable -> Thread(runnable, "Kotlin references search").apply { isDaemon = true } })
+                .apply { allowCoreThreadTimeOut(true) }
+    }
+    
     override public fun search(requestor: ISearchRequestor, querySpecification: QuerySpecification, monitor: IProgressMonitor?) {
         SafeRunnable.run(object : ISafeRunnable {
             override fun run() {
@@ -99,11 +115,11 @@ public class KotlinQueryParticipant : IQueryParticipant {
                 
                 // We assume that there is only one search element, it could be IJavaElement or KtElement
                 val searchElement = searchElements.first()
-                val searchResult = searchTextOccurrences(searchElement, kotlinFiles)
-                if (searchResult == null) return
+                val searchText = searchElement.getSearchText()
+                if (searchText == null) return
                 
-                val elements = obtainElements(searchResult as FileSearchResult, kotlinFiles)
-                val matchedReferences = resolveElementsAndMatch(elements, searchElement, querySpecification)
+                val candidateFiles = findCandidateFiles(searchElement, searchText, kotlinFiles)
+                val matchedReferences = resolveOccurrencesAndMatch(candidateFiles, searchText, searchElement, querySpecification, monitor)
                 
                 matchedReferences.forEach { requestor.reportMatch(KotlinElementMatch(it)) }
             }
@@ -187,66 +203,80 @@ public class KotlinQueryParticipant : IQueryParticipant {
         }
     }
     
-    private fun searchTextOccurrences(searchElement: SearchElement, filesScope: List<IFile>): ISearchResult? {
-        val searchText = searchElement.getSearchText()
-        if (searchText == null) return null
-        
-        val scope = FileTextSearchScope.newSearchScope(filesScope.toTypedArray(), null as Array<String?>?, false)
-        
-        val query = DefaultTextSearchQueryProvider().createQuery(object : TextSearchInput() {
-            override fun isWholeWordSearch(): Boolean = true
-        
-            override fun getSearchText(): String = searchText
-            
-            override fun isCaseSensitiveSearch(): Boolean = true
-            
-            override fun isRegExSearch(): Boolean = false
+    // Only files which contain the searched name are parsed and resolved
+    private fun findCandidateFiles(searchElement: SearchElement, searchText: String, files: List<IFile>): List<IFile> {
+        val requiredIdentifiers = listOfNotNull(searchText, getRequiredPackageIdentifier(searchElement))
+        return files.groupBy { it.project }.flatMap { (project, projectFiles) ->
+            KotlinEnvironment.getEnvironment(project).identifierIndex.filterFilesContaining(projectFiles, requiredIdentifiers)
+        }
+    }
+    
+    // Top level declarations from other packages are referenced through imports or qualified names,
+    // and files from the same package have the package directive, so all of them contain the first segment of the package
+    private fun getRequiredPackageIdentifier(searchElement: SearchElement): String? {
+        val packageName = when (searchElement) {
+            is SearchElement.JavaSearchElement -> {
+                val type = searchElement.javaElement as? IType
+                if (type != null && type.declaringType == null) type.packageFragment.elementName else null
+            }
             
-            override fun getScope(): FileTextSearchScope = scope
-        })
-        
-        query.run(null)
+            is SearchElement.KotlinSearchElement -> {
+                val element = searchElement.kotlinElement
+                val isTopLevel = (element is KtClassOrObject || element is KtNamedFunction || element is KtProperty) && element.parent is KtFile
+                if (isTopLevel) element.getContainingKtFile().packageFqName.asString() else null
+            }
+        }
         
-        return query.getSearchResult()
+        val firstSegment = packageName?.substringBefore('.')
+        return if (firstSegment.isNullOrEmpty() || firstSegment in DEFAULT_IMPORTED_PACKAGE_ROOTS) null else firstSegment
     }
     
-    private fun resolveElementsAndMatch(elements: List<KtElement>, searchElement: SearchElement, 
-            querySpecification: QuerySpecification): List<KtElement> {
+    private fun resolveOccurrencesAndMatch(files: List<IFile>, searchText: String, searchElement: SearchElement, 
+            querySpecification: QuerySpecification, monitor: IProgressMonitor?): List<KtElement> {
         val beforeResolveFilters = getBeforeResolveFilters(querySpecification)
         val afterResolveFilters = getAfterResolveFilters()
         
-        // This is important for optimization: 
-        // we will consequentially cache files one by one which are containing these references
-        val sortedByFileNameElements = elements.sortedBy { it.getContainingKtFile().getName() }
+        // All references from one file are resolved by the same task, so the file is analyzed only once
+        val tasks = files.map { file ->
+            Callable<List<KtElement>> {
+                if (monitor?.isCanceled ?: false) return@Callable emptyList()
+                
+                findOccurrences(file, searchText).filter { element ->
+                    val beforeResolveCheck = beforeResolveFilters.all { it.isApplicable(element) }
+                    if (!beforeResolveCheck) return@filter false
+                    
+                    val sourceElements = element.resolveToSourceDeclaration()
+                    if (sourceElements.isEmpty()) return@filter false
+                    
+                    val additionalElements = getContainingClassOrObjectForConstructor(sourceElements)
+                    
+                    return@filter afterResolveFilters.all { it.isApplicable(sourceElements, searchElement) } ||
+                            afterResolveFilters.all { it.isApplicable(additionalElements, searchElement) }
+                }
+            }
+        }
         
-        return sortedByFileNameElements.filter { element ->
-            val beforeResolveCheck = beforeResolveFilters.all { it.isApplicable(element) }
-            if (!beforeResolveCheck) return@filter false
-            
-            val sourceElements = element.resolveToSourceDeclaration()
-            if (sourceElements.isEmpty()) return@filter false
-            
-            val additionalElements = getContainingClassOrObjectForConstructor(sourceElements)
-            
-            return@filter afterResolveFilters.all { it.isApplicable(sourceElements, searchElement) } ||
-                    afterResolveFilters.all { it.isApplicable(additionalElements, searchElement) }
+        return resolveExecutor.invokeAll(tasks).flatMap { 
+            try {
+                it.get()
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
         }
     }
     
-    private fun obtainElements(searchResult: FileSearchResult, files: List<IFile>): List<KtElement> {
-        val elements = ArrayList<KtElement>()
-        for (file in files) {
-            val matches = searchResult.getMatches(file)
-            val jetFile = KotlinPsiManager.getParsedFile(file)
-            val document = EditorUtil.getDocument(file)
-            
-            matches
-                .map { 
-                    val element = jetFile.findElementByDocumentOffset(it.getOffset(), document) 
-                    element?.let { PsiTreeUtil.getNonStrictParentOfType(it, KtElement::class.java) }
+    private fun findOccurrences(file: IFile, searchText: String): List<KtElement> {
+        val elements = arrayListOf<KtElement>()
+        KotlinPsiManager.getParsedFile(file).accept(object : KtTreeVisitorVoid() {
+            override fun visitElement(element: PsiElement) {
+                if (element is LeafPsiElement && element.elementType == KtTokens.IDENTIFIER &&
+                        element.text.removeSurrounding("`") == searchText) {
+                    PsiTreeUtil.getNonStrictParentOfType(element, KtElement::class.java)?.let { elements.add(it) }
                 }
-                .filterNotNullTo(elements)
-        }
+                
+                super.visitElement(element)
+            }
+        })
         
         return elements
     }